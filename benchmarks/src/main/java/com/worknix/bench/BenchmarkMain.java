@@ -0,0 +1,26 @@
+package com.worknix.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmark jar. Checks the working directory and runs
+ * JMH, writing JSON results to results.json unless told otherwise.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        Workspace.claim();
+
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf")) {
+            jmhArgs.add("-rf");
+            jmhArgs.add("json");
+        }
+        if (!jmhArgs.contains("-rff")) {
+            jmhArgs.add("-rff");
+            jmhArgs.add("results.json");
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,67 @@
+package com.worknix.bench;
+
+import com.worknix.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating entries through the FileSystem API, including journaling, in a
+ * directory with many siblings ("wide") or at the bottom of a long chain of
+ * directories ("deep").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSystemBenchmark {
+    @Param({"wide", "deep"})
+    public String shape;
+
+    // Siblings already present for "wide", nesting depth for "deep"
+    @Param({"100", "1000"})
+    public int size;
+
+    private FileSystem fileSystem;
+    private String parent;
+    private long counter;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Workspace.silenceOutput();
+        Workspace.reset();
+        fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+
+        if (shape.equals("wide")) {
+            parent = "/bench";
+            fileSystem.createDirectory(parent);
+            for (int i = 0; i < size; i++) {
+                fileSystem.createFile(parent + "/f" + i, "x");
+            }
+        } else {
+            List<String> paths = TreeGenerator.deepPaths("/bench", size);
+            parent = paths.get(paths.size() - 1);
+            fileSystem.createDirectory(parent);
+        }
+        counter = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workspace.restoreOutput();
+    }
+
+    @Benchmark
+    public void createFile() {
+        fileSystem.createFile(parent + "/n" + counter++, "benchmark");
+    }
+
+    @Benchmark
+    public void createDirectory() {
+        fileSystem.createDirectory(parent + "/n" + counter++);
+    }
+}
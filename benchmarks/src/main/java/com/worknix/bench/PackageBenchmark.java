@@ -0,0 +1,81 @@
+package com.worknix.bench;
+
+import com.worknix.BusyBox;
+import com.worknix.FileSystem;
+import com.worknix.pkg.Package;
+import com.worknix.pkg.PackageDatabase;
+import com.worknix.pkg.PackageManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installing a package at the head of a dependency chain, so every package
+ * of the chain gets installed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class PackageBenchmark {
+    private static final String PACKAGE_DB = "worknix_packages.db";
+
+    @Param({"10", "100"})
+    public int chainLength;
+
+    @Param({"4"})
+    public int filesPerPackage;
+
+    private FileSystem fileSystem;
+    private BusyBox busyBox;
+    private PackageManager packageManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workspace.silenceOutput();
+        Workspace.reset();
+        fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+        busyBox = new BusyBox(fileSystem);
+    }
+
+    @Setup(Level.Invocation)
+    public void freshDatabase() throws IOException {
+        writeChain(chainLength, filesPerPackage);
+        packageManager = new PackageManager(fileSystem, busyBox);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workspace.restoreOutput();
+    }
+
+    @Benchmark
+    public void installChain() {
+        packageManager.install("chain0");
+    }
+
+    /**
+     * Writes a package database in which chain{i} depends on chain{i+1}.
+     */
+    static void writeChain(int length, int files) throws IOException {
+        List<Package> packages = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Package pkg = new Package("chain" + i, "1.0", "Synthetic package " + i);
+            if (i + 1 < length) {
+                pkg.addDependency("chain" + (i + 1));
+            }
+            for (int f = 0; f < files; f++) {
+                pkg.addFile("/opt/chain" + i + "-" + f);
+            }
+            packages.add(pkg);
+        }
+        PackageDatabase.create(new File(PACKAGE_DB), packages);
+    }
+}
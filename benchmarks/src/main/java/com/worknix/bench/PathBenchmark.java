@@ -0,0 +1,59 @@
+package com.worknix.bench;
+
+import com.worknix.Directory;
+import com.worknix.FileSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Path handling on deep trees: computing a directory's full path and
+ * resolving a path string back to its directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    private FileSystem fileSystem;
+    private Directory leaf;
+    private String leafPath;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workspace.silenceOutput();
+        Workspace.reset();
+        fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+        List<String> paths = TreeGenerator.deepPaths("/bench", depth);
+        leafPath = paths.get(paths.size() - 1);
+        fileSystem.createDirectory(leafPath);
+        leaf = fileSystem.getDirectory(leafPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workspace.restoreOutput();
+    }
+
+    @Benchmark
+    public String getFullPath() {
+        return leaf.getFullPath();
+    }
+
+    @Benchmark
+    public Directory resolve() {
+        return fileSystem.getDirectory(leafPath);
+    }
+
+    @Benchmark
+    public Directory resolveUnnormalized() {
+        return fileSystem.getDirectory(leafPath + "/../" + leaf.getName() + "/.");
+    }
+}
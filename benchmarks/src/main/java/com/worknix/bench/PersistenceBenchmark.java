@@ -0,0 +1,52 @@
+package com.worknix.bench;
+
+import com.worknix.Directory;
+import com.worknix.FSPersistence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpointing a whole tree to the on-disk image and loading it back,
+ * either just opening it or decoding every directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PersistenceBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int nodes;
+
+    private Directory tree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workspace.silenceOutput();
+        Workspace.reset();
+        tree = TreeGenerator.randomTree(nodes, 16, TreeGenerator.SEED);
+        FSPersistence.saveFileSystem(tree, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workspace.restoreOutput();
+    }
+
+    @Benchmark
+    public boolean save() {
+        return FSPersistence.saveFileSystem(tree, 1);
+    }
+
+    @Benchmark
+    public Directory open() {
+        return FSPersistence.loadFileSystem();
+    }
+
+    @Benchmark
+    public int loadAll() {
+        return TreeGenerator.count(FSPersistence.loadFileSystem());
+    }
+}
@@ -0,0 +1,70 @@
+package com.worknix.bench;
+
+import com.worknix.BusyBox;
+import com.worknix.FileSystem;
+import com.worknix.shell.Pipeline;
+import com.worknix.shell.ShellParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting from a command line to a running applet: parsing the line
+ * and dispatching by name through the BusyBox registry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShellDispatchBenchmark {
+    private static final String[] PWD = {"pwd"};
+    private static final String[] ECHO = {"echo", "hello", "world"};
+    private static final String[] UNKNOWN = {"no-such-command"};
+
+    private BusyBox busyBox;
+    private BufferedReader in;
+    private PrintWriter out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workspace.silenceOutput();
+        Workspace.reset();
+        FileSystem fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+        busyBox = new BusyBox(fileSystem);
+        in = new BufferedReader(Reader.nullReader());
+        out = new PrintWriter(Writer.nullWriter());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Workspace.restoreOutput();
+    }
+
+    @Benchmark
+    public void dispatchPwd() {
+        busyBox.execute(PWD, in, out);
+    }
+
+    @Benchmark
+    public void dispatchEcho() {
+        busyBox.execute(ECHO, in, out);
+    }
+
+    @Benchmark
+    public void dispatchUnknown() {
+        busyBox.execute(UNKNOWN, in, out);
+    }
+
+    @Benchmark
+    public List<Pipeline> parseLine() {
+        return ShellParser.parse("cat /etc/hosts | grep \"local host\" | wc -l > /tmp/count ; echo done");
+    }
+}
@@ -0,0 +1,80 @@
+package com.worknix.bench;
+
+import com.worknix.Directory;
+import com.worknix.FSFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds synthetic file system trees. Every tree is a function of its
+ * parameters and seed only, so runs are comparable across machines and
+ * commits.
+ */
+public final class TreeGenerator {
+    public static final long SEED = 0x574E58L;
+
+    private TreeGenerator() {
+    }
+
+    /**
+     * Paths of a chain of {@code depth} nested directories under {@code base}.
+     */
+    public static List<String> deepPaths(String base, int depth) {
+        List<String> paths = new ArrayList<>(depth);
+        StringBuilder path = new StringBuilder(base);
+        for (int i = 0; i < depth; i++) {
+            path.append("/d").append(i);
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    /**
+     * Builds an in-memory tree of roughly {@code nodes} entries, about one in
+     * {@code fanout} of them directories, with file sizes drawn from a
+     * skewed distribution like a real home directory.
+     */
+    public static Directory randomTree(int nodes, int fanout, long seed) {
+        Random random = new Random(seed);
+        Directory root = new Directory("/");
+        List<Directory> directories = new ArrayList<>();
+        directories.add(root);
+        for (int i = 1; i < nodes; i++) {
+            // Prefer recent directories so the tree grows deep as well as wide
+            int pick = directories.size() - 1 - (int) Math.min(directories.size() - 1,
+                Math.abs(random.nextGaussian()) * fanout);
+            Directory parent = directories.get(pick);
+            if (random.nextInt(fanout) == 0) {
+                Directory child = new Directory("dir" + i, parent);
+                parent.addChild(child);
+                directories.add(child);
+            } else {
+                parent.addFile(new FSFile("file" + i + ".txt", content(random)));
+            }
+        }
+        return root;
+    }
+
+    private static String content(Random random) {
+        // Mostly small files with the odd large, paged one
+        int length = random.nextInt(200) == 0 ? 4096 + random.nextInt(32768) : random.nextInt(256);
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(i % 64 == 63 ? '\n' : (char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Counts every entry of a tree, forcing lazily loaded directories to decode.
+     */
+    public static int count(Directory dir) {
+        int count = 1 + dir.getFiles().size();
+        for (Directory child : dir.getChildren().values()) {
+            count += count(child);
+        }
+        return count;
+    }
+}
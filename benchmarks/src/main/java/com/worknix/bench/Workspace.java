@@ -0,0 +1,75 @@
+package com.worknix.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The working directory the benchmarks run in. WorkNix reads and writes its
+ * state files there, so benchmarks only run in a directory that was empty
+ * when first claimed and carries a marker file since.
+ */
+public final class Workspace {
+    private static final String MARKER = ".worknix-bench";
+    private static final String STATE_PREFIX = "worknix_";
+
+    private static PrintStream console;
+
+    private Workspace() {
+    }
+
+    /**
+     * Marks the working directory for benchmark use, refusing if it holds
+     * anything else.
+     */
+    public static void claim() throws IOException {
+        File dir = new File(".").getAbsoluteFile();
+        File marker = new File(dir, MARKER);
+        String[] entries = dir.list();
+        if (!marker.exists() && entries != null && entries.length > 0) {
+            throw new IllegalStateException("Run the benchmarks from an empty directory; "
+                + dir + " is not empty and WorkNix would overwrite files in it");
+        }
+        marker.createNewFile();
+    }
+
+    /**
+     * Deletes all WorkNix state so the next FileSystem starts fresh.
+     */
+    public static void reset() {
+        if (!new File(MARKER).exists()) {
+            throw new IllegalStateException("Working directory was not claimed for benchmarks");
+        }
+        File[] files = new File(".").listFiles((dir, name) -> name.startsWith(STATE_PREFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        // Skip the interactive first boot wizard
+        try {
+            new File("worknix_setup_complete").createNewFile();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Silences System.out, which WorkNix prints progress messages to, until
+     * {@link #restoreOutput()}.
+     */
+    public static synchronized void silenceOutput() {
+        if (console == null) {
+            console = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+    }
+
+    public static synchronized void restoreOutput() {
+        if (console != null) {
+            System.setOut(console);
+            console = null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.worknix;
+
+import com.worknix.shell.CommandRunner;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+
+/**
+ * A command that can be run from a shell. Applets are registered with
+ * {@link BusyBox}, which dispatches to them by name.
+ *
+ * Packages can ship their own applets: a class implementing this interface
+ * with either a public no-argument constructor or one taking the session's
+ * {@link FileSystem}.
+ */
+public interface Applet {
+    String getName();
+
+    /**
+     * One line shown by {@code help}.
+     */
+    String getDescription();
+
+    /**
+     * Whether only root (or sudo) may run this applet.
+     */
+    default boolean requiresRoot() {
+        return false;
+    }
+
+    void run(String[] args, BufferedReader in, PrintWriter out);
+
+    static Applet of(String name, String description, boolean requiresRoot, CommandRunner body) {
+        return new Applet() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public String getDescription() {
+                return description;
+            }
+
+            @Override
+            public boolean requiresRoot() {
+                return requiresRoot;
+            }
+
+            @Override
+            public void run(String[] args, BufferedReader in, PrintWriter out) {
+                body.run(args, in, out);
+            }
+        };
+    }
+}
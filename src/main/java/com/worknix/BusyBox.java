@@ -1,45 +1,613 @@
 package com.worknix;
 
-import java.io.File;
+import java.io.*;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import com.worknix.pkg.PackageManager;
 import com.worknix.editor.SimpleVI;
+import com.worknix.shell.ScriptInterpreter;
 import com.worknix.user.User;
 
 public class BusyBox {
     private final FileSystem fileSystem;
+    // Every command a shell can run, by name; concurrent so packages can add applets at runtime
+    private final Map<String, Applet> applets = new ConcurrentHashMap<>();
     private final PackageManager packageManager;
+    private final ScriptInterpreter scripts;
 
     public BusyBox(FileSystem fileSystem) {
         this.fileSystem = fileSystem;
-        this.packageManager = new PackageManager(fileSystem);
+        this.scripts = new ScriptInterpreter(fileSystem, this::execute);
+        registerBuiltins();
+        this.packageManager = new PackageManager(fileSystem, this);
     }
 
-    public void pwd() {
-        System.out.println(fileSystem.getCurrentPath());
+    private void registerBuiltins() {
+        register(Applet.of("help", "Show this help message", false, (args, in, out) -> help(out)));
+        register(Applet.of("ls", "List files in current directory", false,
+            (args, in, out) -> fileSystem.listCurrentDirectory()));
+        register(Applet.of("pwd", "Print working directory", false, (args, in, out) -> pwd(out)));
+        register(Applet.of("cd", "Change directory", false, (args, in, out) -> cd(args)));
+        register(Applet.of("mkdir", "Create directory", false, (args, in, out) -> mkdir(args)));
+        register(Applet.of("touch", "Create empty file", false, (args, in, out) -> touch(args)));
+        register(Applet.of("cat", "Display file contents", false, this::cat));
+        register(Applet.of("grep", "Print lines containing a pattern", false, this::grep));
+        register(Applet.of("head", "Print the first lines of input", false, this::head));
+        register(Applet.of("wc", "Count lines, words and characters", false, this::wc));
+        register(Applet.of("rm", "Remove file", false, (args, in, out) -> rm(args)));
+        register(Applet.of("echo", "Display a line of text", false, (args, in, out) -> echo(args, out)));
+        register(Applet.of("date", "Display current date and time", false, (args, in, out) -> date(out)));
+        register(Applet.of("find", "Search for files in a directory hierarchy", false, this::find));
+        register(Applet.of("search", "Find files containing words or \"quoted phrases\"", false, this::search));
+        register(Applet.of("du", "Estimate space used by directories", false, this::du));
+        register(Applet.of("df", "Report file system space usage", false, (args, in, out) -> df(args, out)));
+        register(Applet.of("quota", "Show or set per-user disk quotas", false, (args, in, out) -> quota(args, out)));
+        register(Applet.of("fsstat", "Show file storage and compression statistics", false,
+            (args, in, out) -> fsstat(out)));
+        register(Applet.of("sync", "Save file system state to disk", false, (args, in, out) -> fileSystem.sync()));
+        register(Applet.of("whoami", "Print current user name", false,
+            (args, in, out) -> out.println(fileSystem.getUserManager().getCurrentUsername())));
+        register(Applet.of("vi", "Text editor", false, (args, in, out) -> vi(args)));
+        register(Applet.of("sh", "Run a shell script", false, this::sh));
+        register(Applet.of("pkg", "Package manager", true, (args, in, out) -> pkg(args)));
+        register(Applet.of("snapshot", "Create, compare and roll back file system snapshots", true,
+            (args, in, out) -> snapshot(args, out)));
+        register(Applet.of("useradd", "Create a new user", true, (args, in, out) -> useradd(args)));
+        register(Applet.of("userdel", "Delete a user", true, (args, in, out) -> userdel(args)));
+        register(Applet.of("passwd", "Change password", false, (args, in, out) -> passwd(args)));
     }
 
-    public void date() {
-        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
-        System.out.println(sdf.format(new Date()));
+    /**
+     * Adds an applet, replacing any applet with the same name.
+     */
+    public void register(Applet applet) {
+        applets.put(applet.getName(), applet);
     }
 
-    public void echo(String[] args) {
-        if (args.length > 1) {
-            System.out.println(String.join(" ", args));
+    /**
+     * Adds an applet unless one with the same name exists. Returns false,
+     * leaving the existing one in place, if it does.
+     */
+    public boolean registerIfAbsent(Applet applet) {
+        return applets.putIfAbsent(applet.getName(), applet) == null;
+    }
+
+    /**
+     * Removes an applet, unless another has replaced it under its name since.
+     */
+    public void unregister(Applet applet) {
+        applets.remove(applet.getName(), applet);
+    }
+
+    public Applet getApplet(String name) {
+        return applets.get(name);
+    }
+
+    /**
+     * Runs the applet named by {@code args[0]}. Returns false if there is no
+     * such applet.
+     */
+    public boolean run(String[] args, BufferedReader in, PrintWriter out) {
+        // Packages may have been installed or removed by another session
+        packageManager.refreshApplets();
+        Applet applet = applets.get(args[0].toLowerCase());
+        if (applet == null) {
+            return false;
+        }
+        if (applet.requiresRoot() && !fileSystem.getUserManager().isRoot()) {
+            System.out.println(applet.getName() + " requires root privileges");
+            System.out.println("Try: sudo " + applet.getName() + " ...");
+            return true;
         }
+        applet.run(args, in, out);
+        return true;
     }
 
-    public void cat(String[] args) {
+    /**
+     * Runs a command: an applet, or a script named by path. Prints an error
+     * for anything else.
+     */
+    public void execute(String[] args, BufferedReader in, PrintWriter out) {
+        if (run(args, in, out)) {
+            return;
+        }
+        String command = args[0];
+        if (command.startsWith("/")) {
+            // Check if trying to execute a file
+            if (!fileSystem.getUserManager().isRoot()) {
+                System.err.println("Permission denied");
+                return;
+            }
+        }
+        if (command.contains("/") && fileSystem.getFile(command) != null) {
+            scripts.run(command, args);
+            return;
+        }
+        System.err.println("Unknown command: " + command.toLowerCase());
+    }
+
+    /**
+     * Runs a script file, or the script on standard input if no file is given.
+     */
+    public void sh(String[] args, BufferedReader in, PrintWriter out) {
+        out.flush();
         if (args.length > 1) {
-            fileSystem.readFile(args[1]);
+            scripts.run(args[1], Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            scripts.run(in, args);
+        }
+    }
+
+    public void help(PrintWriter out) {
+        packageManager.refreshApplets();
+        out.println("Available commands:");
+        for (Applet applet : new TreeMap<>(applets).values()) {
+            out.printf("  %-8s - %s%n", applet.getName(), applet.getDescription());
+        }
+        out.println();
+        out.println("Commands can be joined with | and ;, and redirected with <, > and >>");
+    }
+
+    public void pwd(PrintWriter out) {
+        out.println(fileSystem.getCurrentPath());
+    }
+
+    public void date(PrintWriter out) {
+        SimpleDateFormat sdf = new SimpleDateFormat("EEE MMM dd HH:mm:ss z yyyy");
+        out.println(sdf.format(new Date()));
+    }
+
+    public void echo(String[] args, PrintWriter out) {
+        out.println(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+    }
+
+    /**
+     * Copies the named files, or standard input when none are given, to the
+     * output without holding a whole file in memory.
+     */
+    public void cat(String[] args, BufferedReader in, PrintWriter out) {
+        if (args.length < 2) {
+            copy(in, out);
+            return;
+        }
+        for (int i = 1; i < args.length; i++) {
+            try (Reader reader = fileSystem.openFileReader(args[i])) {
+                // Files are usually saved without a final newline; keep the prompt on its own line
+                if (copy(reader, out) != '\n') {
+                    out.println();
+                }
+            } catch (IOException e) {
+                System.err.println("cat: " + args[i] + ": No such file");
+            }
+        }
+    }
+
+    public void grep(String[] args, BufferedReader in, PrintWriter out) {
+        boolean ignoreCase = false;
+        boolean invert = false;
+        boolean count = false;
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("-") && args[i].length() > 1; i++) {
+            for (char flag : args[i].substring(1).toCharArray()) {
+                switch (flag) {
+                    case 'i': ignoreCase = true; break;
+                    case 'v': invert = true; break;
+                    case 'c': count = true; break;
+                    default:
+                        System.err.println("grep: unknown option -" + flag);
+                        return;
+                }
+            }
+        }
+        if (i >= args.length) {
+            System.err.println("Usage: grep [-i] [-v] [-c] <pattern> [file]");
+            return;
+        }
+
+        String pattern = ignoreCase ? args[i].toLowerCase() : args[i];
+        int matches = 0;
+        try (BufferedReader reader = i + 1 < args.length
+                ? new BufferedReader(fileSystem.openFileReader(args[i + 1])) : in) {
+            String line;
+            while ((line = reader.readLine()) != null && !out.checkError()) {
+                String subject = ignoreCase ? line.toLowerCase() : line;
+                if (subject.contains(pattern) != invert) {
+                    matches++;
+                    if (!count) {
+                        out.println(line);
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("grep: " + args[i + 1] + ": No such file");
+            return;
+        } catch (IOException e) {
+            System.err.println("grep: " + e.getMessage());
+        }
+        if (count) {
+            out.println(matches);
+        }
+    }
+
+    public void head(String[] args, BufferedReader in, PrintWriter out) {
+        int lines = 10;
+        int i = 1;
+        if (i + 1 < args.length && args[i].equals("-n")) {
+            try {
+                lines = Integer.parseInt(args[i + 1]);
+            } catch (NumberFormatException e) {
+                System.err.println("head: invalid number of lines: " + args[i + 1]);
+                return;
+            }
+            i += 2;
+        }
+
+        try (BufferedReader reader = i < args.length
+                ? new BufferedReader(fileSystem.openFileReader(args[i])) : in) {
+            String line;
+            // Stop reading as soon as enough lines are out; the writer upstream sees a closed pipe
+            for (int n = 0; n < lines && (line = reader.readLine()) != null; n++) {
+                out.println(line);
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("head: " + args[i] + ": No such file");
+        } catch (IOException e) {
+            System.err.println("head: " + e.getMessage());
+        }
+    }
+
+    public void wc(String[] args, BufferedReader in, PrintWriter out) {
+        String mode = null;
+        int i = 1;
+        if (i < args.length && args[i].matches("-[lwc]")) {
+            mode = args[i++];
+        }
+
+        long lines = 0;
+        long words = 0;
+        long chars = 0;
+        try (Reader reader = i < args.length ? fileSystem.openFileReader(args[i]) : in) {
+            char[] buffer = new char[8192];
+            boolean inWord = false;
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                chars += n;
+                for (int k = 0; k < n; k++) {
+                    char c = buffer[k];
+                    if (c == '\n') {
+                        lines++;
+                    }
+                    if (Character.isWhitespace(c)) {
+                        inWord = false;
+                    } else if (!inWord) {
+                        inWord = true;
+                        words++;
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            System.err.println("wc: " + args[i] + ": No such file");
+            return;
+        } catch (IOException e) {
+            System.err.println("wc: " + e.getMessage());
+            return;
+        }
+
+        if ("-l".equals(mode)) {
+            out.println(lines);
+        } else if ("-w".equals(mode)) {
+            out.println(words);
+        } else if ("-c".equals(mode)) {
+            out.println(chars);
         } else {
-            System.out.println("Usage: cat <filename>");
+            out.println(lines + " " + words + " " + chars);
+        }
+    }
+
+    /**
+     * Walks the tree below each starting point (the current directory by
+     * default) and prints every entry passing the tests that follow them.
+     */
+    public void find(String[] args, BufferedReader in, PrintWriter out) {
+        List<String> starts = new ArrayList<>();
+        int i = 1;
+        while (i < args.length && !args[i].startsWith("-")) {
+            starts.add(args[i++]);
+        }
+        if (starts.isEmpty()) {
+            starts.add(".");
+        }
+        FSFind find;
+        try {
+            find = FSFind.parse(Arrays.asList(args).subList(i, args.length));
+        } catch (IllegalArgumentException e) {
+            out.println("find: " + e.getMessage());
+            out.println("Usage: find [path...] [-name|-iname|-path glob] [-type f|d] [-user name]");
+            out.println("            [-size [+-]N[ckMG]] [-mtime|-mmin [+-]N] [-mindepth|-maxdepth N]");
+            return;
+        }
+        for (String start : starts) {
+            Directory dir = fileSystem.getDirectory(start);
+            FSFile file = dir == null ? fileSystem.getFile(start) : null;
+            if (dir != null) {
+                find.run(dir, start, out);
+            } else if (file != null) {
+                find.run(file, start, out);
+            } else {
+                System.err.println("find: '" + start + "': No such file or directory");
+            }
+        }
+    }
+
+    /**
+     * Prints the size of each directory below the given ones (the current
+     * directory by default), read from the totals every directory keeps, so
+     * only directories are visited and never their files.
+     */
+    public void du(String[] args, BufferedReader in, PrintWriter out) {
+        boolean summarize = false;
+        boolean human = false;
+        int maxDepth = Integer.MAX_VALUE;
+        List<String> paths = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-s")) {
+                summarize = true;
+            } else if (args[i].equals("-h")) {
+                human = true;
+            } else if (args[i].equals("-sh") || args[i].equals("-hs")) {
+                summarize = true;
+                human = true;
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                try {
+                    maxDepth = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    out.println("du: invalid maximum depth: " + args[i]);
+                    return;
+                }
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            paths.add(".");
+        }
+        for (String path : paths) {
+            Directory dir = fileSystem.getDirectory(path);
+            FSFile file = dir == null ? fileSystem.getFile(path) : null;
+            if (dir != null) {
+                du(dir, path, 0, summarize ? 0 : maxDepth, human, out);
+            } else if (file != null) {
+                out.println((human ? FileSystem.formatSize(file.length()) : file.length()) + "\t" + path);
+            } else {
+                out.println("du: cannot access '" + path + "': No such file or directory");
+            }
         }
     }
 
+    // Subdirectories first, as du(1) prints them
+    private static void du(Directory dir, String path, int depth, int maxDepth, boolean human, PrintWriter out) {
+        if (depth < maxDepth) {
+            for (Directory child : new TreeMap<>(dir.getChildren()).values()) {
+                du(child, path.endsWith("/") ? path + child.getName() : path + "/" + child.getName(),
+                    depth + 1, maxDepth, human, out);
+            }
+        }
+        long size = dir.getTotalSize();
+        out.println((human ? FileSystem.formatSize(size) : size) + "\t" + path);
+    }
+
+    /**
+     * Reports how much of the virtual disk is used, from the totals kept at
+     * the root.
+     */
+    public void df(String[] args, PrintWriter out) {
+        boolean human = args.length > 1 && args[1].equals("-h");
+        Directory root = fileSystem.getDirectory("/");
+        long used = root.getTotalSize();
+        long size = FileSystem.DISK_SIZE;
+        long available = Math.max(0, size - used);
+        out.printf("%-14s %10s %10s %10s %5s %8s %6s %s%n",
+            "Filesystem", human ? "Size" : "Bytes", "Used", "Avail", "Use%", "Files", "Dirs", "Mounted on");
+        out.printf("%-14s %10s %10s %10s %4d%% %8d %6d %s%n", "worknix-root",
+            human ? FileSystem.formatSize(size) : String.valueOf(size),
+            human ? FileSystem.formatSize(used) : String.valueOf(used),
+            human ? FileSystem.formatSize(available) : String.valueOf(available),
+            (used * 100 + size - 1) / size, root.getTotalFiles(), root.getTotalDirectories() + 1, "/");
+    }
+
+    /**
+     * Shows the disk usage and limits of a user, or with {@code set} and
+     * {@code report} (root only) changes limits and lists every user.
+     */
+    public void quota(String[] args, PrintWriter out) {
+        boolean root = fileSystem.getUserManager().isRoot();
+        String self = fileSystem.getUserManager().getCurrentUsername();
+        if (args.length > 1 && (args[1].equals("set") || args[1].equals("report")) && !root) {
+            out.println("Permission denied");
+            return;
+        }
+        if (args.length > 1 && args[1].equals("set")) {
+            if (args.length != 7) {
+                out.println("Usage: quota set <user> <soft-size> <hard-size> <soft-files> <hard-files>");
+                return;
+            }
+            try {
+                fileSystem.setQuota(args[2], parseSize(args[3]), parseSize(args[4]),
+                    Long.parseLong(args[5]), Long.parseLong(args[6]));
+            } catch (NumberFormatException e) {
+                out.println("quota: invalid limit");
+            }
+            return;
+        }
+        boolean report = args.length > 1 && args[1].equals("report");
+        String user = args.length > 1 && !report ? args[1] : self;
+        if (user == null || (!root && !user.equals(self))) {
+            out.println("Permission denied");
+            return;
+        }
+        out.printf("%-12s %8s %8s %8s %7s %8s %8s %8s %7s%n",
+            report ? "User" : "", "Used", "Soft", "Hard", "Grace", "Files", "Soft", "Hard", "Grace");
+        if (report) {
+            for (Map.Entry<String, FSQuotas.Usage> entry : fileSystem.getQuotas().entrySet()) {
+                printQuota(entry.getKey(), entry.getValue(), out);
+            }
+        } else {
+            printQuota(user, fileSystem.getQuota(user), out);
+        }
+    }
+
+    private static void printQuota(String user, FSQuotas.Usage usage, PrintWriter out) {
+        out.printf("%-12s %8s %8s %8s %7s %8d %8s %8s %7s%n", user,
+            FileSystem.formatSize(usage.getSize()), limit(usage.getSoftSize(), true),
+            limit(usage.getHardSize(), true), grace(usage.getSizeOverSince()),
+            usage.getEntries(), limit(usage.getSoftEntries(), false),
+            limit(usage.getHardEntries(), false), grace(usage.getEntriesOverSince()));
+    }
+
+    private static String limit(long limit, boolean size) {
+        if (limit == 0) {
+            return "-";
+        }
+        return size ? FileSystem.formatSize(limit) : String.valueOf(limit);
+    }
+
+    // Time left before a soft limit is enforced, as quota(1) shows it
+    private static String grace(long overSince) {
+        if (overSince == 0) {
+            return "";
+        }
+        long left = overSince + FSQuotas.GRACE_MILLIS - System.currentTimeMillis();
+        if (left <= 0) {
+            return "none";
+        }
+        long minutes = left / (60 * 1000);
+        return minutes >= 24 * 60 ? (minutes / (24 * 60)) + "days"
+            : String.format("%d:%02d", minutes / 60, minutes % 60);
+    }
+
+    // A size in characters with an optional K, M or G suffix
+    private static long parseSize(String value) {
+        if (value.isEmpty()) {
+            throw new NumberFormatException("empty size");
+        }
+        String units = "KMG";
+        int unit = units.indexOf(Character.toUpperCase(value.charAt(value.length() - 1)));
+        if (unit < 0) {
+            return Long.parseLong(value);
+        }
+        return Long.parseLong(value.substring(0, value.length() - 1)) << (10 * (unit + 1));
+    }
+
+    /**
+     * Looks files up in the full-text index. Every argument must match; an
+     * argument of several words (quoted) matches them as a phrase.
+     */
+    public void search(String[] args, BufferedReader in, PrintWriter out) {
+        String dirPath = null;
+        boolean count = false;
+        List<String> clauses = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-d") && i + 1 < args.length) {
+                dirPath = args[++i];
+            } else if (args[i].equals("-c")) {
+                count = true;
+            } else {
+                clauses.add(args[i]);
+            }
+        }
+        if (clauses.isEmpty()) {
+            out.println("Usage: search [-d dir] [-c] word|\"phrase\" ...");
+            return;
+        }
+        List<String> matches = fileSystem.search(clauses, dirPath);
+        if (count) {
+            out.println(matches.size());
+            return;
+        }
+        for (String path : matches) {
+            out.println(path);
+        }
+    }
+
+    /**
+     * Reports how file bodies are stored: shared small bodies, compressed
+     * large ones, and the cache of inflated pages.
+     */
+    public void fsstat(PrintWriter out) {
+        // files, inline chars, compressed files, compressed chars, compressed bytes, other files, other chars
+        long[] totals = new long[7];
+        collectStorageStats(fileSystem.getDirectory("/"), totals);
+
+        FSBlockStore blocks = FSBlockStore.shared();
+        FSPageCache cache = FSPageCache.shared();
+        out.printf("Files:           %d%n", totals[0]);
+        out.printf("Shared inline:   %d files, %d chars in %d blocks of %d chars (%s dedup)%n",
+            totals[0] - totals[2] - totals[5], totals[1], blocks.getBlockCount(), blocks.getStoredChars(),
+            ratio(totals[1], blocks.getStoredChars()));
+        out.printf("Compressed:      %d files, %d chars in %d bytes (%s)%n",
+            totals[2], totals[3], totals[4], ratio(totals[3], totals[4]));
+        out.printf("Uncompressed:    %d files, %d chars (being appended to, or from an old image)%n",
+            totals[5], totals[6]);
+        long lookups = cache.getHits() + cache.getMisses();
+        out.printf("Page cache:      %d pages, %d of %d chars, %d hits, %d misses (%s hit rate)%n",
+            cache.getPageCount(), cache.getCachedChars(), cache.getCapacityChars(), cache.getHits(),
+            cache.getMisses(), lookups == 0 ? "-" : String.format("%.1f%%", 100.0 * cache.getHits() / lookups));
+        int[] index = fileSystem.getIndexStats();
+        out.printf("Search index:    %d files, %d terms%n", index[0], index[1]);
+    }
+
+    private static void collectStorageStats(Directory dir, long[] totals) {
+        for (FSFile file : dir.getFiles().values()) {
+            FSContent body = file.getContentStore();
+            totals[0]++;
+            if (body instanceof CompressedContent) {
+                totals[2]++;
+                totals[3] += body.length();
+                totals[4] += ((CompressedContent) body).getCompressedSize();
+            } else if (body instanceof InlineContent) {
+                totals[1] += body.length();
+            } else {
+                totals[5]++;
+                totals[6] += body.length();
+            }
+        }
+        for (Directory child : dir.getChildren().values()) {
+            collectStorageStats(child, totals);
+        }
+    }
+
+    private static String ratio(long before, long after) {
+        return after == 0 ? "-" : String.format("%.1fx", (double) before / after);
+    }
+
+    /**
+     * Copies a reader to the output and returns the last character copied,
+     * or -1 if there was none.
+     */
+    private static int copy(Reader reader, PrintWriter out) {
+        char[] buffer = new char[8192];
+        int last = -1;
+        try {
+            int n;
+            while ((n = reader.read(buffer)) != -1 && !out.checkError()) {
+                out.write(buffer, 0, n);
+                if (n > 0) {
+                    last = buffer[n - 1];
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading file: " + e.getMessage());
+        }
+        return last;
+    }
+
     public void touch(String[] args) {
         if (args.length > 1) {
             fileSystem.createFile(args[1], "");
@@ -104,10 +672,13 @@ public class BusyBox {
         switch (subcommand) {
             case "install":
                 if (args.length < 3) {
-                    System.out.println("Usage: pkg install <package>");
+                    System.out.println("Usage: pkg install <package[=version]|file.wpkg>...");
                     return;
                 }
-                packageManager.install(args[2]);
+                packageManager.install(Arrays.asList(args).subList(2, args.length));
+                break;
+            case "upgrade":
+                packageManager.upgrade(Arrays.asList(args).subList(2, args.length));
                 break;
             case "remove":
                 if (args.length < 3) {
@@ -119,6 +690,16 @@ public class BusyBox {
             case "list":
                 packageManager.list();
                 break;
+            case "update":
+                packageManager.update();
+                break;
+            case "repo":
+                if (args.length < 3) {
+                    System.out.println("Usage: pkg repo <file:// or http:// URL>");
+                    return;
+                }
+                packageManager.setRepository(args[2]);
+                break;
             case "info":
                 if (args.length < 3) {
                     System.out.println("Usage: pkg info <package>");
@@ -126,31 +707,139 @@ public class BusyBox {
                 }
                 packageManager.info(args[2]);
                 break;
+            case "owner":
+                if (args.length < 3) {
+                    System.out.println("Usage: pkg owner <path>");
+                    return;
+                }
+                packageManager.owner(args[2]);
+                break;
             default:
                 showPkgHelp();
         }
     }
 
-    public void useradd(String[] args) {
+    public void snapshot(String[] args, PrintWriter out) {
+        String usage = "Usage: snapshot create|list|show|diff|rollback|export|delete ...";
         if (args.length < 2) {
-            System.out.println("Usage: useradd <username>");
+            out.println(usage);
             return;
         }
+        String name = args.length > 2 ? args[2] : null;
+        switch (args[1]) {
+            case "create":
+                if (name == null) {
+                    out.println("Usage: snapshot create <name>");
+                } else if (fileSystem.createSnapshot(name) == null) {
+                    out.println("Snapshot already exists: " + name);
+                } else {
+                    out.println("Created snapshot: " + name);
+                }
+                break;
+            case "list":
+                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                for (FSSnapshot snapshot : fileSystem.listSnapshots()) {
+                    out.printf("%-20s %s%n", snapshot.getName(), format.format(new Date(snapshot.getCreationTime())));
+                }
+                break;
+            case "show": {
+                FSSnapshot snapshot = name != null ? fileSystem.getSnapshot(name) : null;
+                if (snapshot == null) {
+                    out.println(name == null ? "Usage: snapshot show <name> [path]" : "Snapshot not found: " + name);
+                    return;
+                }
+                String path = args.length > 3 ? args[3] : "/";
+                FSFile file = snapshot.getFile(path);
+                Directory dir = snapshot.getDirectory(path);
+                if (file != null) {
+                    if (copy(file.getContentStore().openReader(), out) != '\n') {
+                        out.println();
+                    }
+                } else if (dir != null) {
+                    for (String child : new TreeMap<>(dir.getChildren()).keySet()) {
+                        out.println(child + "/");
+                    }
+                    for (String child : new TreeMap<>(dir.getFiles()).keySet()) {
+                        out.println(child);
+                    }
+                } else {
+                    out.println("Not found in " + name + ": " + path);
+                }
+                break;
+            }
+            case "diff":
+                if (name == null) {
+                    out.println("Usage: snapshot diff <name> [other]");
+                } else if (!fileSystem.diffSnapshots(name, args.length > 3 ? args[3] : null, out)) {
+                    out.println("Snapshot not found");
+                }
+                break;
+            case "rollback":
+                if (name == null) {
+                    out.println("Usage: snapshot rollback <name>");
+                } else if (fileSystem.rollbackSnapshot(name)) {
+                    out.println("Rolled back to snapshot: " + name);
+                } else {
+                    out.println("Snapshot not found: " + name);
+                }
+                break;
+            case "export": {
+                FSSnapshot snapshot = name != null ? fileSystem.getSnapshot(name) : null;
+                if (snapshot == null) {
+                    out.println(name == null ? "Usage: snapshot export <name> [file]" : "Snapshot not found: " + name);
+                    return;
+                }
+                try {
+                    File target = fileSystem.exportSnapshot(snapshot, args.length > 3 ? args[3] : "worknix_snapshot_" + name + ".img");
+                    out.println("Exported snapshot " + name + " to " + target.getPath());
+                } catch (IOException e) {
+                    out.println("Error exporting snapshot: " + e.getMessage());
+                }
+                break;
+            }
+            case "delete":
+                if (name == null) {
+                    out.println("Usage: snapshot delete <name>");
+                } else if (fileSystem.deleteSnapshot(name)) {
+                    out.println("Deleted snapshot: " + name);
+                } else {
+                    out.println("Snapshot not found: " + name);
+                }
+                break;
+            default:
+                out.println(usage);
+        }
+    }
 
-        String username = args[1];
+    public void useradd(String[] args) {
+        // -p sets the password up front, so scripts can add users without prompting
+        String password = null;
+        int i = 1;
+        if (args.length > 2 && args[1].equals("-p")) {
+            password = args[2];
+            i = 3;
+        }
+        if (args.length <= i) {
+            System.out.println("Usage: useradd [-p password] <username>");
+            return;
+        }
+
+        String username = args[i];
         if (!username.matches("[a-z_][a-z0-9_-]*$")) {
             System.out.println("Invalid username. Use only lowercase letters, numbers, - and _");
             return;
         }
 
-        System.out.print("Enter password: ");
-        String password = new Scanner(System.in).nextLine();
-        System.out.print("Confirm password: ");
-        String confirmPass = new Scanner(System.in).nextLine();
+        if (password == null) {
+            System.out.print("Enter password: ");
+            password = new Scanner(System.in).nextLine();
+            System.out.print("Confirm password: ");
+            String confirmPass = new Scanner(System.in).nextLine();
 
-        if (!password.equals(confirmPass)) {
-            System.out.println("Passwords don't match");
-            return;
+            if (!password.equals(confirmPass)) {
+                System.out.println("Passwords don't match");
+                return;
+            }
         }
 
         // Create user with next available UID (1000+)
@@ -213,9 +902,13 @@ public class BusyBox {
 
     private void showPkgHelp() {
         System.out.println("Package manager commands:");
-        System.out.println("  pkg install <package>  - Install a package");
+        System.out.println("  pkg install <package[=version]|file.wpkg>... - Install packages and their dependencies");
+        System.out.println("  pkg upgrade [package]... - Upgrade installed packages, patching where possible");
         System.out.println("  pkg remove <package>   - Remove a package");
         System.out.println("  pkg list              - List all packages");
         System.out.println("  pkg info <package>     - Show package information");
+        System.out.println("  pkg owner <path>       - Show the package that owns a file");
+        System.out.println("  pkg update            - Fetch the repository catalogue");
+        System.out.println("  pkg repo <url>        - Set the package repository");
     }
 } 
\ No newline at end of file
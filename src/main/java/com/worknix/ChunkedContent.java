@@ -0,0 +1,94 @@
+package com.worknix;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory file body that grows by appending chunks, so output streamed
+ * into a file is never copied into one ever larger String.
+ */
+public class ChunkedContent implements FSContent {
+    private final List<String> chunks = new ArrayList<>();
+    // Character offset at which each chunk starts
+    private final List<Integer> starts = new ArrayList<>();
+    private int length;
+
+    public ChunkedContent(String initial) {
+        append(initial);
+    }
+
+    public synchronized void append(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        starts.add(length);
+        chunks.add(chunk);
+        length += chunk.length();
+    }
+
+    /**
+     * Returns a body with the same text that grows independently of this one.
+     * The chunks themselves are immutable and shared.
+     */
+    public synchronized ChunkedContent copy() {
+        ChunkedContent copy = new ChunkedContent(null);
+        copy.chunks.addAll(chunks);
+        copy.starts.addAll(starts);
+        copy.length = length;
+        return copy;
+    }
+
+    @Override
+    public synchronized int length() {
+        return length;
+    }
+
+    @Override
+    public synchronized String read(int offset, int count) {
+        int start = Math.min(Math.max(offset, 0), length);
+        int end = Math.min(length, start + Math.max(count, 0));
+        StringBuilder sb = new StringBuilder(end - start);
+        int index = Collections.binarySearch(starts, start);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        while (start < end) {
+            String chunk = chunks.get(index);
+            int from = start - starts.get(index);
+            int to = Math.min(chunk.length(), end - starts.get(index));
+            sb.append(chunk, from, to);
+            start = starts.get(index) + to;
+            index++;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Reader openReader() {
+        return new Reader() {
+            private int position = 0;
+
+            @Override
+            public int read(char[] buf, int off, int len) {
+                String text = ChunkedContent.this.read(position, len);
+                if (text.isEmpty()) {
+                    return len == 0 ? 0 : -1;
+                }
+                text.getChars(0, text.length(), buf, off);
+                position += text.length();
+                return text.length();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public String asString() {
+        return read(0, length());
+    }
+}
@@ -0,0 +1,131 @@
+package com.worknix;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * File body kept as independently deflated pages, so any range can be read
+ * by inflating only the pages it covers. Inflated pages are held in the
+ * bounded {@link FSPageCache}, which keeps recently read files fast without
+ * letting cold ones take up the heap.
+ *
+ * The compressed pages live either on the heap, for bodies written since the
+ * last checkpoint, or in the mapped image.
+ */
+public class CompressedContent extends PagedContent {
+    // Bodies longer than this many characters are compressed; shorter ones are shared through FSBlockStore
+    static final int THRESHOLD = 4 * 1024;
+
+    /**
+     * Supplies the deflated bytes of one page.
+     */
+    public interface CompressedPages {
+        byte[] compressedPage(int page);
+    }
+
+    private final CompressedPages pages;
+    private final long compressedSize;
+
+    public CompressedContent(CompressedPages pages, int[] pageStarts, long compressedSize) {
+        super(null, pageStarts);
+        this.pages = pages;
+        this.compressedSize = compressedSize;
+    }
+
+    /**
+     * Compresses a body page by page without materialising it.
+     */
+    public static CompressedContent compress(FSContent body) {
+        int length = body.length();
+        List<byte[]> compressed = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        long size = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            int start = 0;
+            while (start < length) {
+                String text = body.read(start, FSImage.PAGE_CHARS);
+                // Never split a surrogate pair across two pages
+                if (start + text.length() < length && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+                    text = text.substring(0, text.length() - 1);
+                }
+                byte[] page = deflate(deflater, text.getBytes(StandardCharsets.UTF_8));
+                compressed.add(page);
+                starts.add(start);
+                size += page.length;
+                start += text.length();
+            }
+        } finally {
+            deflater.end();
+        }
+
+        int[] pageStarts = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            pageStarts[i] = starts.get(i);
+        }
+        pageStarts[starts.size()] = length;
+        byte[][] heapPages = compressed.toArray(new byte[0][]);
+        return new CompressedContent(page -> heapPages[page], pageStarts, size);
+    }
+
+    /**
+     * Deflated bytes of one page, as stored.
+     */
+    public byte[] getCompressedPage(int page) {
+        return pages.compressedPage(page);
+    }
+
+    /**
+     * Total size of the deflated pages in bytes.
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    @Override
+    protected String page(int page) {
+        return FSPageCache.shared().get(this, page);
+    }
+
+    /**
+     * Inflates one page. Called by the page cache on a miss.
+     */
+    String inflate(int page) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(pages.compressedPage(page));
+            ByteArrayOutputStream out = new ByteArrayOutputStream(FSImage.PAGE_CHARS);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed page");
+                }
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed page: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static byte[] deflate(Deflater deflater, byte[] input) {
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,8 +1,14 @@
 package com.worknix;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class Directory implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -11,55 +17,247 @@ public class Directory implements Serializable {
     private final Map<String, Directory> children;
     private final Map<String, FSFile> files;
     private Directory parent;
+    // Name of the owning user; null in trees saved before owners were recorded
+    private volatile String owner;
+
+    // Set while the entries of this directory still live only in a mapped image
+    private transient volatile FSImage image;
+
+    // Totals over everything below this directory, adjusted along the parent
+    // chain on every change so they can be read without walking the subtree
+    private static final AtomicLongFieldUpdater<Directory> TOTAL_SIZE =
+        AtomicLongFieldUpdater.newUpdater(Directory.class, "totalSize");
+    private static final AtomicLongFieldUpdater<Directory> TOTAL_FILES =
+        AtomicLongFieldUpdater.newUpdater(Directory.class, "totalFiles");
+    private static final AtomicLongFieldUpdater<Directory> TOTAL_DIRECTORIES =
+        AtomicLongFieldUpdater.newUpdater(Directory.class, "totalDirectories");
+    private transient volatile long totalSize;
+    private transient volatile long totalFiles;
+    private transient volatile long totalDirectories;
+    private transient int inode;
+    private transient String fullPath;
+    // Set by FileSystem while it holds every stripe lock, once the directory is removed from the tree
+    private transient boolean detached;
+
+    // Copy-on-write state for snapshots, see FSSnapshots. Entries as they were
+    // before each change that snapshots could see, oldest first
+    private static final Version[] NO_HISTORY = new Version[0];
+    private transient FSSnapshots snapshots;
+    private transient volatile Version[] history = NO_HISTORY;
+    // Epoch from which on the live entries are not yet preserved for any snapshot
+    private transient long capturedEpoch;
+    // Latest epoch in which an entry anywhere below this directory changed
+    private transient volatile long subtreeChangedEpoch;
+
+    /**
+     * The entries of a directory as seen by snapshots up to {@code lastEpoch}.
+     */
+    static final class Version {
+        final long lastEpoch;
+        final Map<String, Directory> children;
+        final Map<String, FSFile> files;
+
+        Version(long lastEpoch, Map<String, Directory> children, Map<String, FSFile> files) {
+            this.lastEpoch = lastEpoch;
+            this.children = children;
+            this.files = files;
+        }
+    }
     
     public Directory(String name) {
         this(name, null);
     }
 
     public Directory(String name, Directory parent) {
-        this.name = name;
-        this.children = new HashMap<>();
-        this.files = new HashMap<>();
+        this.name = PathResolver.atom(name);
+        this.children = new ConcurrentHashMap<>();
+        this.files = new ConcurrentHashMap<>();
         this.parent = parent;
+        // A directory created now is invisible to every existing snapshot
+        FSSnapshots manager = snapshots();
+        this.capturedEpoch = manager != null ? manager.getCurrentEpoch() : 0;
+    }
+
+    Directory(String name, Directory parent, FSImage image, int inode) {
+        this(name, parent);
+        this.image = image;
+        this.inode = inode;
+        // Decoded entries predate every snapshot, however late they are decoded
+        this.capturedEpoch = 0;
+    }
+
+    /**
+     * The image this directory's entries still live in, or null once they
+     * are decoded. Entries in an image are exactly those at checkpoint time,
+     * so its records can be copied instead of decoded.
+     */
+    FSImage mappedImage() {
+        return image;
+    }
+
+    // Inode of this directory in its image
+    int mappedInode() {
+        return inode;
+    }
+
+    private void ensureLoaded() {
+        if (image != null) {
+            synchronized (this) {
+                if (image != null) {
+                    image.decodeDirectory(this, inode, children, files);
+                    image = null;
+                }
+            }
+        }
     }
     
     public void addChild(Directory child) {
-        children.put(child.getName(), child);
+        ensureLoaded();
+        beforeChange();
+        Directory previous = children.put(child.getName(), child);
+        if (previous != child) {
+            addToTotals(child.totalSize, child.totalFiles, child.totalDirectories + 1);
+            if (previous != null) {
+                addToTotals(-previous.totalSize, -previous.totalFiles, -previous.totalDirectories - 1);
+            }
+        }
     }
 
     public void addFile(FSFile file) {
-        files.put(file.getName(), file);
+        ensureLoaded();
+        beforeChange();
+        FSSnapshots manager = snapshots();
+        file.epoch = manager != null ? manager.getCurrentEpoch() : 0;
+        FSFile previous = files.put(file.getName(), file);
+        if (previous != file) {
+            addToTotals(file.length() - (previous != null ? previous.length() : 0), previous != null ? 0 : 1, 0);
+        }
+        if (previous != null && previous != file) {
+            previous.release();
+        }
     }
 
     public Directory getChild(String name) {
+        ensureLoaded();
         return children.get(name);
     }
 
     public FSFile getFile(String name) {
+        ensureLoaded();
         return files.get(name);
     }
 
     public boolean removeFile(String name) {
-        return files.remove(name) != null;
+        ensureLoaded();
+        if (!files.containsKey(name)) {
+            return false;
+        }
+        beforeChange();
+        FSFile removed = files.remove(name);
+        if (removed != null) {
+            addToTotals(-removed.length(), -1, 0);
+            removed.release();
+        }
+        return removed != null;
+    }
+
+    /**
+     * Detaches a subdirectory and releases the shared content of everything
+     * in it. Returns the removed directory, or null if there was none.
+     */
+    public Directory removeChild(String name) {
+        ensureLoaded();
+        if (!children.containsKey(name)) {
+            return null;
+        }
+        beforeChange();
+        Directory removed = children.remove(name);
+        if (removed != null) {
+            addToTotals(-removed.totalSize, -removed.totalFiles, -removed.totalDirectories - 1);
+            removed.releaseContent();
+        }
+        return removed;
+    }
+
+    // Directories still undecoded in an image hold no shared blocks, so only loaded ones are visited
+    private void releaseContent() {
+        if (image != null) {
+            return;
+        }
+        for (FSFile file : files.values()) {
+            file.release();
+        }
+        for (Directory child : children.values()) {
+            child.releaseContent();
+        }
     }
     
     public String getName() {
         return name;
     }
 
+    /**
+     * Name of the user owning the directory. Directories from trees saved
+     * before owners were recorded belong to root.
+     */
+    public String getOwner() {
+        String name = owner;
+        return name != null ? name : "root";
+    }
+
+    void setOwner(String owner) {
+        this.owner = owner;
+    }
+
     public Directory getParent() {
         return parent;
     }
 
+    /**
+     * Marks this directory, and so everything below it, as removed from the
+     * tree. The caller holds every stripe lock.
+     */
+    void detach() {
+        detached = true;
+    }
+
+    // Undoes detach below a directory a rollback puts back; only removed subtrees are walked
+    private void reattach() {
+        if (!detached) {
+            return;
+        }
+        detached = false;
+        if (image == null) {
+            for (Directory child : children.values()) {
+                child.reattach();
+            }
+        }
+    }
+
+    /**
+     * True unless this directory or one above it has been removed from the
+     * tree. The caller holds this directory's stripe lock.
+     */
+    boolean isAttached() {
+        for (Directory dir = this; dir != null; dir = dir.parent) {
+            if (dir.detached) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public String getFullPath() {
-        if (parent == null) {
-            return "/";
+        String path = fullPath;
+        if (path == null) {
+            path = parent == null ? "/" : FSEvent.childPath(parent.getFullPath(), name);
+            fullPath = path;
         }
-        String parentPath = parent.getFullPath();
-        return parentPath.equals("/") ? "/" + name : parentPath + "/" + name;
+        return path;
     }
     
     public void list() {
+        ensureLoaded();
         System.out.println("Contents of " + getFullPath() + ":");
         for (String childName : children.keySet()) {
             System.out.println(childName + "/");
@@ -71,13 +269,225 @@ public class Directory implements Serializable {
 
     public void setParent(Directory parent) {
         this.parent = parent;
+        this.fullPath = null;
     }
 
     public Map<String, Directory> getChildren() {
+        ensureLoaded();
         return children;
     }
 
     public Map<String, FSFile> getFiles() {
+        ensureLoaded();
         return files;
     }
-} 
\ No newline at end of file
+
+    /**
+     * Number of characters in all files below this directory.
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Number of files below this directory.
+     */
+    public long getTotalFiles() {
+        return totalFiles;
+    }
+
+    /**
+     * Number of directories below this directory, not counting itself.
+     */
+    public long getTotalDirectories() {
+        return totalDirectories;
+    }
+
+    /**
+     * Adjusts the totals of this directory and every directory above it.
+     * Called for changes to the entries, and by the file system when a file
+     * grows in place.
+     */
+    void addToTotals(long size, long fileCount, long directoryCount) {
+        for (Directory dir = this; dir != null; dir = dir.parent) {
+            TOTAL_SIZE.addAndGet(dir, size);
+            TOTAL_FILES.addAndGet(dir, fileCount);
+            TOTAL_DIRECTORIES.addAndGet(dir, directoryCount);
+        }
+    }
+
+    // Totals recorded in the image this directory was decoded from
+    void setTotals(long size, long fileCount, long directoryCount) {
+        totalSize = size;
+        totalFiles = fileCount;
+        totalDirectories = directoryCount;
+    }
+
+    /**
+     * Recounts the totals of the whole subtree from its files. Used for trees
+     * saved before totals were recorded.
+     */
+    void recomputeTotals() {
+        for (Directory child : getChildren().values()) {
+            child.recomputeTotals();
+        }
+        recomputeOwnTotals();
+    }
+
+    /**
+     * Recounts the totals of this directory from its files and the totals of
+     * its subdirectories, which must be correct already.
+     */
+    void recomputeOwnTotals() {
+        long size = 0;
+        long fileCount = 0;
+        long directoryCount = 0;
+        for (FSFile file : getFiles().values()) {
+            size += file.length();
+            fileCount++;
+        }
+        for (Directory child : getChildren().values()) {
+            size += child.totalSize;
+            fileCount += child.totalFiles;
+            directoryCount += child.totalDirectories + 1;
+        }
+        setTotals(size, fileCount, directoryCount);
+    }
+
+    /**
+     * Makes this directory (and, through its parents, its descendants)
+     * record history for the given snapshot manager.
+     */
+    void setSnapshots(FSSnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    FSSnapshots snapshots() {
+        FSSnapshots manager = snapshots;
+        if (manager == null && parent != null) {
+            manager = parent.snapshots();
+            snapshots = manager;
+        }
+        return manager;
+    }
+
+    /**
+     * Called before every change to the entries: preserves them for the
+     * snapshots that can still see them, once per epoch, and marks the path
+     * up to the root as changed.
+     */
+    private synchronized void beforeChange() {
+        FSSnapshots manager = snapshots();
+        if (manager == null) {
+            return;
+        }
+        long epoch = manager.getCurrentEpoch();
+        if (capturedEpoch < epoch && manager.getLatestSnapshotEpoch() >= capturedEpoch) {
+            Version[] versions = Arrays.copyOf(history, history.length + 1);
+            versions[history.length] = new Version(epoch - 1,
+                Collections.unmodifiableMap(new HashMap<>(children)),
+                Collections.unmodifiableMap(new HashMap<>(files)));
+            if (history.length == 0) {
+                manager.recordHistory(this);
+            }
+            history = versions;
+        }
+        capturedEpoch = epoch;
+        for (Directory dir = this; dir != null && dir.subtreeChangedEpoch < epoch; dir = dir.parent) {
+            dir.subtreeChangedEpoch = epoch;
+        }
+    }
+
+    /**
+     * Entries as seen by the snapshot taken at {@code epoch}, or the live
+     * entries if {@code epoch} is negative. The maps are read-only.
+     */
+    Version entriesAt(long epoch) {
+        if (epoch >= 0) {
+            Version version = versionCovering(epoch);
+            if (version != null) {
+                return version;
+            }
+        }
+        ensureLoaded();
+        Version live = new Version(Long.MAX_VALUE,
+            Collections.unmodifiableMap(new HashMap<>(children)),
+            Collections.unmodifiableMap(new HashMap<>(files)));
+        // A change racing with the copy preserves the old entries first; prefer those
+        if (epoch >= 0) {
+            Version version = versionCovering(epoch);
+            if (version != null) {
+                return version;
+            }
+        }
+        return live;
+    }
+
+    private Version versionCovering(long epoch) {
+        for (Version version : history) {
+            if (version.lastEpoch >= epoch) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    long getSubtreeChangedEpoch() {
+        return subtreeChangedEpoch;
+    }
+
+    /**
+     * Puts back the entries seen by the snapshot at {@code epoch}, with
+     * directories removed since attached again. Returns false if they are
+     * unchanged since. The caller holds every stripe lock.
+     */
+    synchronized boolean restore(long epoch, long currentEpoch) {
+        Version version = versionCovering(epoch);
+        if (version == null) {
+            return false;
+        }
+        children.clear();
+        children.putAll(version.children);
+        for (Directory child : children.values()) {
+            child.reattach();
+        }
+        for (FSFile file : files.values()) {
+            if (version.files.get(file.getName()) != file) {
+                file.release();
+            }
+        }
+        files.clear();
+        files.putAll(version.files);
+        capturedEpoch = currentEpoch;
+        for (Directory dir = this; dir != null && dir.subtreeChangedEpoch < currentEpoch; dir = dir.parent) {
+            dir.subtreeChangedEpoch = currentEpoch;
+        }
+        return true;
+    }
+
+    /**
+     * Drops versions no remaining snapshot can see. Returns true if any are left.
+     */
+    synchronized boolean pruneHistory(long[] snapshotEpochs) {
+        Version[] kept = new Version[history.length];
+        int count = 0;
+        long previous = Long.MIN_VALUE;
+        for (Version version : history) {
+            // A version serves the snapshots taken after the version before it, up to its own epoch
+            for (long epoch : snapshotEpochs) {
+                if (epoch > previous && epoch <= version.lastEpoch) {
+                    kept[count++] = version;
+                    break;
+                }
+            }
+            previous = version.lastEpoch;
+        }
+        history = count == 0 ? NO_HISTORY : Arrays.copyOf(kept, count);
+        return count > 0;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ensureLoaded();
+        out.defaultWriteObject();
+    }
+}
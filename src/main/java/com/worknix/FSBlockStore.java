@@ -0,0 +1,102 @@
+package com.worknix;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressed store of file bodies shared by every file in the JVM.
+ *
+ * Files whose bodies are identical hold the same block instead of their own
+ * copy. Blocks are keyed by the content's hash, with equality confirmed by
+ * comparing the text, and reference counted: a block is dropped when the last
+ * file holding it is overwritten or removed from the tree.
+ *
+ * Bodies longer than {@link #MAX_BLOCK_CHARS} are not shared; they are
+ * compressed instead (see {@link CompressedContent}), and hashing them on
+ * every write would cost more than sharing saves.
+ */
+public final class FSBlockStore {
+    static final int MAX_BLOCK_CHARS = CompressedContent.THRESHOLD;
+
+    private static final FSBlockStore SHARED = new FSBlockStore();
+
+    private final ConcurrentHashMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * A shared body and the number of files holding it. The count is only
+     * changed inside the map's per-key locking; volatile so statistics can
+     * read it without locking.
+     */
+    static final class Block {
+        final String content;
+        private volatile int references;
+
+        private Block(String content) {
+            this.content = content;
+        }
+    }
+
+    private FSBlockStore() {
+    }
+
+    public static FSBlockStore shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the block holding {@code content}, adding it if it is new, and
+     * takes a reference to it. Returns null for bodies too large to share.
+     */
+    Block acquire(String content) {
+        if (content == null || content.length() > MAX_BLOCK_CHARS) {
+            return null;
+        }
+        return blocks.compute(content, (key, block) -> {
+            if (block == null) {
+                block = new Block(key);
+            }
+            block.references++;
+            return block;
+        });
+    }
+
+    /**
+     * Drops a reference taken by {@link #acquire(String)}.
+     */
+    void release(Block block) {
+        blocks.computeIfPresent(block.content, (key, current) -> {
+            if (current != block) {
+                return current;
+            }
+            return --block.references == 0 ? null : block;
+        });
+    }
+
+    /**
+     * Number of distinct bodies currently stored.
+     */
+    public int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Characters held by the store, counting each distinct body once.
+     */
+    public long getStoredChars() {
+        long chars = 0;
+        for (String content : blocks.keySet()) {
+            chars += content.length();
+        }
+        return chars;
+    }
+
+    /**
+     * Total references, i.e. the number of files whose body is in the store.
+     */
+    public long getReferenceCount() {
+        long references = 0;
+        for (Block block : blocks.values()) {
+            references += block.references;
+        }
+        return references;
+    }
+}
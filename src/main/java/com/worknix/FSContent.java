@@ -0,0 +1,30 @@
+package com.worknix;
+
+import java.io.Reader;
+
+/**
+ * Storage behind the body of an {@link FSFile}. Implementations allow a
+ * range of the body to be read without materialising the whole file.
+ */
+public interface FSContent {
+    /**
+     * Length of the body in characters.
+     */
+    int length();
+
+    /**
+     * Returns {@code count} characters starting at {@code offset}, clamped to
+     * the end of the body.
+     */
+    String read(int offset, int count);
+
+    /**
+     * Opens a reader that streams the body from the beginning.
+     */
+    Reader openReader();
+
+    /**
+     * Materialises the whole body.
+     */
+    String asString();
+}
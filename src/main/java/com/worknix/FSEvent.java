@@ -0,0 +1,53 @@
+package com.worknix;
+
+/**
+ * Change notification published by {@link FileSystem} after a mutation.
+ */
+public class FSEvent {
+    public enum Type {
+        CREATED,
+        DELETED,
+        MODIFIED
+    }
+
+    private final Type type;
+    private final String path;
+    private final boolean directory;
+
+    public FSEvent(Type type, String path, boolean directory) {
+        this.type = type;
+        this.path = path;
+        this.directory = directory;
+    }
+
+    public Type getType() { return type; }
+    public String getPath() { return path; }
+    public boolean isDirectory() { return directory; }
+
+    /**
+     * Absolute path of the directory containing the changed entry.
+     */
+    public String getParentPath() {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    /**
+     * Name of the changed entry within its parent directory.
+     */
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Joins a directory path and an entry name into an absolute path.
+     */
+    public static String childPath(String dirPath, String name) {
+        return dirPath.equals("/") ? "/" + name : dirPath + "/" + name;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path + (directory ? "/" : "");
+    }
+}
@@ -1,32 +1,116 @@
 package com.worknix;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 public class FSFile implements Serializable {
     private static final long serialVersionUID = 1L;
     
     private final String name;
-    private String content;
+    // Inline body; null while the body is held by a paged store
+    private volatile String content;
+    private transient volatile FSContent store;
+    // Shared block holding the inline body, if it is small enough to share
+    private transient FSBlockStore.Block block;
     private final long creationTime;
-    private long modificationTime;
+    private volatile long modificationTime;
+    // Bumped by every change to the body in place, so readers can tell a body they saw from a changed one
+    private transient volatile long revision;
+    // Name of the owning user; null in trees saved before owners were recorded
+    private volatile String owner;
+    // Snapshot epoch in which the file entered its directory; snapshots
+    // taken from then on may share it, see FSSnapshots
+    transient volatile long epoch;
 
     public FSFile(String name, String content) {
-        this.name = name;
-        this.content = content;
+        this.name = PathResolver.atom(name);
+        share(content);
         this.creationTime = System.currentTimeMillis();
         this.modificationTime = this.creationTime;
     }
 
+    FSFile(String name, FSContent store, long creationTime, long modificationTime) {
+        this.name = PathResolver.atom(name);
+        if (store instanceof InlineContent) {
+            share(store.asString());
+        } else {
+            this.store = store;
+        }
+        this.creationTime = creationTime;
+        this.modificationTime = modificationTime;
+    }
+
     public String getName() {
         return name;
     }
 
     public String getContent() {
-        return content;
+        FSContent paged = store;
+        return paged != null ? paged.asString() : content;
+    }
+
+    /**
+     * Returns the body as a content store, so callers can read ranges or
+     * stream it without materialising large files.
+     */
+    public FSContent getContentStore() {
+        FSContent paged = store;
+        return paged != null ? paged : new InlineContent(content);
+    }
+
+    public int length() {
+        FSContent paged = store;
+        if (paged != null) {
+            return paged.length();
+        }
+        String inline = content;
+        return inline == null ? 0 : inline.length();
+    }
+
+    public synchronized void setContent(String content) {
+        revision++;
+        FSBlockStore.Block previous = block;
+        this.store = null;
+        share(content);
+        if (previous != null) {
+            FSBlockStore.shared().release(previous);
+        }
+    }
+
+    /**
+     * Appends to the body without copying what is already there.
+     */
+    public synchronized void append(String text) {
+        revision++;
+        FSContent current = store;
+        if (!(current instanceof ChunkedContent)) {
+            ChunkedContent chunked = new ChunkedContent(current != null ? current.asString() : content);
+            store = chunked;
+            content = null;
+            current = chunked;
+            release();
+        }
+        ((ChunkedContent) current).append(text);
     }
 
-    public void setContent(String content) {
-        this.content = content;
+    /**
+     * Returns a file with the same name, times and body that can be changed
+     * without affecting this one. Bodies are immutable except while
+     * appended to, so only those are copied.
+     */
+    synchronized FSFile copy() {
+        FSContent current = store;
+        FSContent body;
+        if (current instanceof ChunkedContent) {
+            body = ((ChunkedContent) current).copy();
+        } else {
+            body = current != null ? current : new InlineContent(content);
+        }
+        FSFile copy = new FSFile(name, body, creationTime, modificationTime);
+        copy.owner = owner;
+        return copy;
     }
 
     public long getCreationTime() {
@@ -37,7 +121,90 @@ public class FSFile implements Serializable {
         return modificationTime;
     }
 
+    /**
+     * Changes whenever the body of this file changes; a file that is
+     * rewritten is replaced by another file instead.
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Name of the user owning the file. Files from trees saved before owners
+     * were recorded belong to root.
+     */
+    public String getOwner() {
+        String name = owner;
+        return name != null ? name : "root";
+    }
+
+    void setOwner(String owner) {
+        this.owner = owner;
+    }
+
     public void updateModificationTime() {
         this.modificationTime = System.currentTimeMillis();
     }
-} 
\ No newline at end of file
+
+    // Sets the time a journaled change was made, when it is replayed
+    void setModificationTime(long modificationTime) {
+        this.modificationTime = modificationTime;
+    }
+
+    /**
+     * Stores {@code text} as the body: small bodies are shared through the
+     * block store, large ones are compressed.
+     */
+    private void share(String text) {
+        if (text != null && text.length() > CompressedContent.THRESHOLD) {
+            store = CompressedContent.compress(new InlineContent(text));
+            block = null;
+            content = null;
+            return;
+        }
+        FSBlockStore.Block shared = FSBlockStore.shared().acquire(text);
+        block = shared;
+        content = shared != null ? shared.content : text;
+    }
+
+    /**
+     * Moves a body built up by appends into its final tier. Called once a
+     * writer is done with the file.
+     */
+    synchronized void compact() {
+        FSContent current = store;
+        if (!(current instanceof ChunkedContent)) {
+            return;
+        }
+        if (current.length() > CompressedContent.THRESHOLD) {
+            store = CompressedContent.compress(current);
+        } else {
+            share(current.asString());
+            store = null;
+        }
+    }
+
+    /**
+     * Gives up this file's reference to its shared block. Called when the
+     * file leaves the tree.
+     */
+    synchronized void release() {
+        if (block != null) {
+            FSBlockStore.shared().release(block);
+            block = null;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        share(content);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (store != null) {
+            content = store.asString();
+            store = null;
+        }
+        out.defaultWriteObject();
+    }
+}
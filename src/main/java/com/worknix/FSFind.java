@@ -0,0 +1,344 @@
+package com.worknix;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the tree for entries matching find(1) style tests.
+ *
+ * Directories are walked in parallel on a fork-join pool of their own, one
+ * task per directory, so idle workers steal whole subtrees. Walks wait while
+ * the output is behind as managed blockers, so the pool makes up for the
+ * workers they hold and a session that stops reading its output does not
+ * stall the searches of the others. Tests are checked
+ * cheapest first, and the ones that say something about a whole subtree
+ * ({@code -maxdepth}, the literal prefix of a {@code -path} pattern, and
+ * {@code -type d} for file entries) stop the walk before it gets there.
+ * Matches are handed to the calling thread through a bounded queue and
+ * printed as they are found, in no particular order; the walk stops when
+ * the output is closed.
+ */
+public class FSFind {
+    private static final int QUEUE_SIZE = 4096;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private int minDepth = 0;
+    private int maxDepth = Integer.MAX_VALUE;
+    private char type;
+    private Pattern name;
+    private Pattern path;
+    // Part of the -path pattern before its first wildcard
+    private String pathPrefix;
+    private String user;
+    private int sizeSign;
+    private long sizeUnits;
+    private long sizeUnit;
+    private int ageSign;
+    private long age;
+    private long ageUnit;
+
+    /**
+     * Parses the tests of a find command line, for example
+     * {@code -name "*.conf" -type f -size +4k}. Every test must hold.
+     *
+     * @throws IllegalArgumentException naming the offending test
+     */
+    public static FSFind parse(List<String> args) {
+        FSFind find = new FSFind();
+        for (int i = 0; i < args.size(); i++) {
+            String test = args.get(i);
+            if (i + 1 >= args.size()) {
+                throw new IllegalArgumentException("missing argument to `" + test + "'");
+            }
+            String value = args.get(++i);
+            switch (test) {
+                case "-name":
+                    find.name = Pattern.compile(globToRegex(value));
+                    break;
+                case "-iname":
+                    find.name = Pattern.compile(globToRegex(value), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+                    break;
+                case "-path":
+                    find.path = Pattern.compile(globToRegex(value));
+                    find.pathPrefix = value.split("[*?\\[]", 2)[0];
+                    break;
+                case "-type":
+                    if (!value.equals("f") && !value.equals("d")) {
+                        throw new IllegalArgumentException("unknown argument to -type: " + value);
+                    }
+                    find.type = value.charAt(0);
+                    break;
+                case "-user":
+                    find.user = value;
+                    break;
+                case "-size":
+                    find.sizeSign = sign(value);
+                    find.sizeUnit = sizeUnit(value);
+                    find.sizeUnits = number(test, value.replaceAll("[ckMG]$", ""));
+                    break;
+                case "-mtime":
+                    find.ageSign = sign(value);
+                    find.ageUnit = DAY_MILLIS;
+                    find.age = number(test, value);
+                    break;
+                case "-mmin":
+                    find.ageSign = sign(value);
+                    find.ageUnit = 60 * 1000;
+                    find.age = number(test, value);
+                    break;
+                case "-maxdepth":
+                    find.maxDepth = (int) number(test, value);
+                    break;
+                case "-mindepth":
+                    find.minDepth = (int) number(test, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown predicate `" + test + "'");
+            }
+        }
+        return find;
+    }
+
+    /**
+     * Prints the path of every entry at or below {@code start} that passes
+     * all tests, with {@code startPath} as the prefix of every path printed.
+     * Returns the number of matches.
+     */
+    public long run(Directory start, String startPath, PrintWriter out) {
+        Search search = new Search(out);
+        ForkJoinTask<Void> walk = POOL.submit(new Walk(search, start, startPath, 0));
+        search.drain(walk);
+        return search.matches;
+    }
+
+    /**
+     * Prints {@code file} if it passes all tests at depth 0, as when find is
+     * given a file to start from.
+     */
+    public long run(FSFile file, String filePath, PrintWriter out) {
+        if (matches(file, filePath, 0)) {
+            out.println(filePath);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * State shared by the tasks of one search.
+     */
+    private static final class Search {
+        final PrintWriter out;
+        final BlockingQueue<String> found = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        volatile boolean stopped;
+        long matches;
+
+        Search(PrintWriter out) {
+            this.out = out;
+        }
+
+        // Waits for room while the consumer is behind, until it stops
+        void offer(String path) {
+            if (stopped || found.offer(path)) {
+                return;
+            }
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean queued;
+
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        while (!queued && !stopped) {
+                            queued = found.offer(path, 10, TimeUnit.MILLISECONDS);
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        if (!queued && !stopped) {
+                            queued = found.offer(path);
+                        }
+                        return queued || stopped;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+
+        // Prints matches on the calling thread until the walk is done, then
+        // rethrows anything the walk failed with
+        void drain(ForkJoinTask<Void> walk) {
+            try {
+                while (!walk.isDone() || !found.isEmpty()) {
+                    String path = found.poll(10, TimeUnit.MILLISECONDS);
+                    if (path == null) {
+                        continue;
+                    }
+                    out.println(path);
+                    matches++;
+                    if (out.checkError()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                stopped = true;
+                found.clear();
+            }
+            if (walk.isDone()) {
+                walk.join();
+            }
+        }
+    }
+
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final Directory dir;
+        private final String dirPath;
+        private final int depth;
+
+        Walk(Search search, Directory dir, String dirPath, int depth) {
+            this.search = search;
+            this.dir = dir;
+            this.dirPath = dirPath;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.stopped) {
+                return;
+            }
+            if (matches(dir, dirPath, depth)) {
+                search.offer(dirPath);
+            }
+            if (depth >= maxDepth) {
+                return;
+            }
+            List<Walk> subtrees = new ArrayList<>();
+            for (Directory child : dir.getChildren().values()) {
+                String childPath = childPath(dirPath, child.getName());
+                if (mayContainMatches(childPath)) {
+                    subtrees.add(new Walk(search, child, childPath, depth + 1));
+                }
+            }
+            if (type != 'd' && depth + 1 >= minDepth) {
+                for (FSFile file : dir.getFiles().values()) {
+                    String filePath = childPath(dirPath, file.getName());
+                    if (matches(file, filePath, depth + 1)) {
+                        search.offer(filePath);
+                    }
+                }
+            }
+            invokeAll(subtrees);
+        }
+    }
+
+    private boolean matches(Directory dir, String dirPath, int depth) {
+        // Sizes and times are only recorded for files
+        return type != 'f' && depth >= minDepth && sizeUnit == 0 && ageUnit == 0
+            && (name == null || name.matcher(dir.getName()).matches())
+            && (path == null || path.matcher(dirPath).matches())
+            && (user == null || user.equals(dir.getOwner()));
+    }
+
+    private boolean matches(FSFile file, String filePath, int depth) {
+        if (type == 'd' || depth < minDepth
+                || (name != null && !name.matcher(file.getName()).matches())
+                || (path != null && !path.matcher(filePath).matches())
+                || (user != null && !user.equals(file.getOwner()))) {
+            return false;
+        }
+        if (sizeUnit != 0) {
+            // Sizes round up to whole units, as in find(1)
+            long units = (file.length() + sizeUnit - 1) / sizeUnit;
+            if (!compare(units, sizeSign, sizeUnits)) {
+                return false;
+            }
+        }
+        if (ageUnit != 0) {
+            long units = (System.currentTimeMillis() - file.getModificationTime()) / ageUnit;
+            return compare(units, ageSign, age);
+        }
+        return true;
+    }
+
+    // Whether a directory at this path can hold entries matching the -path pattern
+    private boolean mayContainMatches(String dirPath) {
+        if (pathPrefix == null) {
+            return true;
+        }
+        String prefix = dirPath.endsWith("/") ? dirPath : dirPath + "/";
+        return prefix.startsWith(pathPrefix) || pathPrefix.startsWith(prefix)
+            || pathPrefix.equals(dirPath);
+    }
+
+    private static boolean compare(long actual, int sign, long expected) {
+        return sign > 0 ? actual > expected : sign < 0 ? actual < expected : actual == expected;
+    }
+
+    private static int sign(String value) {
+        return value.startsWith("+") ? 1 : value.startsWith("-") ? -1 : 0;
+    }
+
+    private static long sizeUnit(String value) {
+        switch (value.charAt(value.length() - 1)) {
+            case 'c': return 1;
+            case 'k': return 1024;
+            case 'M': return 1024 * 1024;
+            case 'G': return 1024 * 1024 * 1024;
+            default: return 512;
+        }
+    }
+
+    private static long number(String test, String value) {
+        String digits = value.startsWith("+") || value.startsWith("-") ? value.substring(1) : value;
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid argument `" + value + "' to `" + test + "'");
+        }
+    }
+
+    private static String childPath(String dirPath, String name) {
+        return dirPath.endsWith("/") ? dirPath + name : dirPath + "/" + name;
+    }
+
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                int close = glob.indexOf(']', i + 2);
+                if (close < 0) {
+                    regex.append("\\[");
+                } else {
+                    String set = glob.substring(i + 1, close).replace("\\", "\\\\");
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = close;
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return regex.toString();
+    }
+}
@@ -0,0 +1,541 @@
+package com.worknix;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Versioned binary on-disk image of the file system tree.
+ *
+ * <pre>
+ * header        magic, version, inode count, checkpoint generation, region
+ *               offsets and the totals of the whole tree
+ * content       UTF-8 file bodies, back to back, each distinct body stored
+ *               once and shared by every inode with that body; bodies
+ *               above the compression threshold are split into separately
+ *               deflated pages followed by a page table
+ * inode table   fixed-size records, inode 0 is the root; the entries of a
+ *               directory occupy a contiguous range of inodes, and directory
+ *               records carry the size and entry counts of their subtree
+ * string table  UTF-8 entry and owner names, identical names stored once
+ * </pre>
+ *
+ * The image is read through a memory mapping and directories are decoded
+ * lazily, the first time their entries are accessed. Pages of large files
+ * stay compressed in the mapping and are only inflated when that part of the
+ * file is read.
+ */
+public class FSImage {
+    static final int MAGIC = 0x574E5849; // "WNXI"
+    static final int VERSION = 5;
+
+    static final byte TYPE_DIRECTORY = 1;
+    static final byte TYPE_FILE = 2;
+
+    static final byte FLAG_PAGED = 1;
+    // Pages are deflated; written from version 3 on
+    static final byte FLAG_COMPRESSED = 2;
+
+    // Files longer than this many characters are stored as separate pages
+    static final int PAGE_CHARS = 16 * 1024;
+
+    private static final int HEADER_SIZE = 64;
+    // Header size before version 5 added the tree totals
+    private static final int MIN_HEADER_SIZE = 40;
+    private static final int INODE_SIZE = 48;
+
+    // Inode record layout
+    private static final int I_TYPE = 0;
+    private static final int I_FLAGS = 1;
+    // Owner name in the string table; written from version 4 on, zero before
+    private static final int I_OWNER_LENGTH = 2;
+    private static final int I_NAME_OFFSET = 4;
+    private static final int I_NAME_LENGTH = 8;
+    private static final int I_FIRST_CHILD = 12;
+    private static final int I_CONTENT_OFFSET = 16;
+    private static final int I_COUNT = 24;
+    private static final int I_CREATION_TIME = 28;
+    private static final int I_MODIFICATION_TIME = 36;
+    private static final int I_OWNER_OFFSET = 44;
+    // Directory records reuse the content and time fields for subtree totals,
+    // written from version 5 on
+    private static final int I_TOTAL_SIZE = 16;
+    private static final int I_TOTAL_FILES = 28;
+    private static final int I_TOTAL_DIRECTORIES = 36;
+
+    private final MappedByteBuffer buffer;
+    private final int inodeCount;
+    private final long inodeTableOffset;
+    private final long stringTableOffset;
+    private final long contentOffset;
+    private final boolean hasTotals;
+
+    private FSImage(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < MIN_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a WorkNix file system image");
+        }
+        int version = buffer.getInt(4);
+        // Version 1 images never contain paged files, version 2 pages are
+        // never compressed and images before version 4 record no owners; all
+        // are read as is
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported image version: " + version);
+        }
+        this.inodeCount = buffer.getInt(8);
+        this.inodeTableOffset = buffer.getLong(16);
+        this.stringTableOffset = buffer.getLong(24);
+        this.contentOffset = buffer.getLong(32);
+        this.hasTotals = version >= 5;
+    }
+
+    /**
+     * Maps an image file and returns its root directory, undecoded.
+     */
+    public static Directory open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FSImage image = new FSImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (image.inodeCount == 0) {
+                throw new IOException("Image has no root inode");
+            }
+            Directory root = new Directory("/", null, image, 0);
+            if (image.hasTotals) {
+                image.readTotals(root, 0);
+            } else {
+                // Counted once here; the next checkpoint records them
+                root.recomputeTotals();
+            }
+            return root;
+        }
+    }
+
+    /**
+     * Returns the checkpoint generation recorded in an image file, or 0 if
+     * there is no readable image.
+     */
+    public static long readGeneration(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            return header.getInt(0) == MAGIC ? header.getInt(12) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the size, file count and directory count of the whole tree
+     * recorded in an image file's header, or null if there is no readable
+     * image or it predates these totals.
+     */
+    public static long[] readTreeTotals(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) < 5) {
+                return null;
+            }
+            return new long[] {header.getLong(40), header.getLong(48), header.getLong(56)};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void readTotals(Directory dir, int inode) {
+        int base = inodeBase(inode);
+        dir.setTotals(buffer.getLong(base + I_TOTAL_SIZE), buffer.getLong(base + I_TOTAL_FILES),
+            buffer.getLong(base + I_TOTAL_DIRECTORIES));
+    }
+
+    /**
+     * Decodes the entries of a directory inode into the given maps.
+     */
+    void decodeDirectory(Directory dir, int inode, Map<String, Directory> children, Map<String, FSFile> files) {
+        int base = inodeBase(inode);
+        int first = buffer.getInt(base + I_FIRST_CHILD);
+        int count = buffer.getInt(base + I_COUNT);
+        for (int i = first; i < first + count; i++) {
+            int entry = inodeBase(i);
+            String name = readName(entry);
+            String owner = readOwner(entry);
+            if (buffer.get(entry + I_TYPE) == TYPE_DIRECTORY) {
+                Directory child = new Directory(name, dir, this, i);
+                child.setOwner(owner);
+                if (hasTotals) {
+                    readTotals(child, i);
+                }
+                children.put(child.getName(), child);
+            } else {
+                FSContent content = decodeContent(entry);
+                FSFile file = new FSFile(name, content,
+                    buffer.getLong(entry + I_CREATION_TIME),
+                    buffer.getLong(entry + I_MODIFICATION_TIME));
+                file.setOwner(owner);
+                files.put(file.getName(), file);
+            }
+        }
+    }
+
+    private String readOwner(int entry) {
+        int length = buffer.getShort(entry + I_OWNER_LENGTH);
+        if (length == 0) {
+            return null;
+        }
+        return PathResolver.atom(readString(stringTableOffset + buffer.getInt(entry + I_OWNER_OFFSET), length));
+    }
+
+    private FSContent decodeContent(int entry) {
+        long offset = contentOffset + buffer.getLong(entry + I_CONTENT_OFFSET);
+        if ((buffer.get(entry + I_FLAGS) & FLAG_PAGED) == 0) {
+            return new InlineContent(readString(offset, buffer.getInt(entry + I_COUNT)));
+        }
+
+        // Page table: count, then (byte offset, byte length, first char) per page, then total chars
+        int pages = buffer.getInt((int) offset);
+        long[] byteOffsets = new long[pages];
+        int[] byteLengths = new int[pages];
+        int[] pageStarts = new int[pages + 1];
+        int position = (int) offset + 4;
+        for (int i = 0; i < pages; i++) {
+            byteOffsets[i] = contentOffset + buffer.getLong(position);
+            byteLengths[i] = buffer.getInt(position + 8);
+            pageStarts[i] = buffer.getInt(position + 12);
+            position += 16;
+        }
+        pageStarts[pages] = buffer.getInt(position);
+        if ((buffer.get(entry + I_FLAGS) & FLAG_COMPRESSED) != 0) {
+            long compressedSize = 0;
+            for (int length : byteLengths) {
+                compressedSize += length;
+            }
+            return new CompressedContent(page -> readBytes(byteOffsets[page], byteLengths[page]),
+                pageStarts, compressedSize);
+        }
+        return new PagedContent(page -> readString(byteOffsets[page], byteLengths[page]), pageStarts);
+    }
+
+    private int inodeBase(int inode) {
+        return (int) (inodeTableOffset + (long) inode * INODE_SIZE);
+    }
+
+    private String readString(long offset, int length) {
+        return new String(readBytes(offset, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(long offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the whole tree rooted at {@code root} as an image file.
+     * Directories whose entries are still undecoded have their records and
+     * bodies copied from the image they live in, so a checkpoint never pulls
+     * the rest of a lazily loaded tree onto the heap.
+     *
+     * @throws IOException if the image would not fit in one mapping
+     */
+    public static void write(Directory root, File file, long generation) throws IOException {
+        // Number inodes breadth-first so every directory's entries are contiguous
+        List<Object> nodes = new ArrayList<>();
+        nodes.add(root);
+        int[] firstChild = new int[16];
+        int[] childCount = new int[16];
+        for (int i = 0; i < nodes.size(); i++) {
+            Object node = nodes.get(i);
+            FSImage image;
+            int inode;
+            if (node instanceof Directory) {
+                image = ((Directory) node).mappedImage();
+                inode = ((Directory) node).mappedInode();
+            } else if (node instanceof Mapped && ((Mapped) node).isDirectory()) {
+                image = ((Mapped) node).image;
+                inode = ((Mapped) node).inode;
+            } else {
+                continue;
+            }
+            if (i >= firstChild.length) {
+                firstChild = Arrays.copyOf(firstChild, Math.max(i + 1, firstChild.length * 2));
+                childCount = Arrays.copyOf(childCount, firstChild.length);
+            }
+            firstChild[i] = nodes.size();
+            // Subdirectory records only carry totals from version 5 on; older ones are decoded
+            if (image != null && image.hasTotals) {
+                int first = image.buffer.getInt(image.inodeBase(inode) + I_FIRST_CHILD);
+                int count = image.buffer.getInt(image.inodeBase(inode) + I_COUNT);
+                for (int entry = first; entry < first + count; entry++) {
+                    nodes.add(new Mapped(image, entry));
+                }
+            } else {
+                Directory dir = (Directory) node;
+                nodes.addAll(dir.getChildren().values());
+                nodes.addAll(dir.getFiles().values());
+            }
+            childCount[i] = nodes.size() - firstChild[i];
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long contentStart = HEADER_SIZE;
+            channel.position(contentStart);
+
+            // Content region
+            long[] contentOffsets = new long[nodes.size()];
+            int[] contentLengths = new int[nodes.size()];
+            boolean[] paged = new boolean[nodes.size()];
+            Counter position = new Counter(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            DataOutputStream content = new DataOutputStream(position);
+            // Offset and length of each distinct small body already written
+            Map<String, long[]> written = new HashMap<>();
+            // New offsets of the bodies copied from each older image, by their offset there
+            Map<FSImage, Map<Long, Long>> copied = new IdentityHashMap<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                Object node = nodes.get(i);
+                if (node instanceof FSFile) {
+                    FSContent body = ((FSFile) node).getContentStore();
+                    if (body.length() <= CompressedContent.THRESHOLD) {
+                        String text = body.asString();
+                        long[] block = written.get(text);
+                        if (block == null) {
+                            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                            block = new long[] {position.count, bytes.length};
+                            written.put(text, block);
+                            content.write(bytes);
+                        }
+                        contentOffsets[i] = block[0];
+                        contentLengths[i] = (int) block[1];
+                    } else {
+                        contentOffsets[i] = writePages(body, content, position);
+                        contentLengths[i] = body.length();
+                        paged[i] = true;
+                    }
+                } else if (node instanceof Mapped && !((Mapped) node).isDirectory()) {
+                    Mapped mapped = (Mapped) node;
+                    contentOffsets[i] = mapped.image.copyContent(mapped.inode, content, position,
+                        copied.computeIfAbsent(mapped.image, image -> new HashMap<>()));
+                }
+                checkSize(contentStart + position.count);
+            }
+            content.flush();
+
+            // Inode table, collecting names into the string table as we go
+            long inodeStart = contentStart + position.count;
+            checkSize(inodeStart + (long) nodes.size() * INODE_SIZE);
+            ByteArrayOutputStream strings = new ByteArrayOutputStream();
+            Map<String, Integer> stringOffsets = new HashMap<>();
+            ByteBuffer inodes = ByteBuffer.allocate(nodes.size() * INODE_SIZE);
+            for (int i = 0; i < nodes.size(); i++) {
+                Object node = nodes.get(i);
+                int base = i * INODE_SIZE;
+                String name;
+                String owner;
+                if (node instanceof Mapped) {
+                    // Type, flags, sizes, times and totals stay as they were
+                    Mapped mapped = (Mapped) node;
+                    mapped.image.copyInode(mapped.inode, inodes, base);
+                    name = mapped.image.readName(mapped.image.inodeBase(mapped.inode));
+                    owner = mapped.image.readOwner(mapped.image.inodeBase(mapped.inode));
+                    if (owner == null) {
+                        owner = "root";
+                    }
+                    if (mapped.isDirectory()) {
+                        inodes.putInt(base + I_FIRST_CHILD, firstChild[i]);
+                        inodes.putInt(base + I_COUNT, childCount[i]);
+                    } else {
+                        inodes.putLong(base + I_CONTENT_OFFSET, contentOffsets[i]);
+                    }
+                } else if (node instanceof Directory) {
+                    Directory d = (Directory) node;
+                    name = d.getName();
+                    owner = d.getOwner();
+                    inodes.put(base + I_TYPE, TYPE_DIRECTORY);
+                    inodes.putInt(base + I_FIRST_CHILD, firstChild[i]);
+                    inodes.putInt(base + I_COUNT, childCount[i]);
+                    inodes.putLong(base + I_TOTAL_SIZE, d.getTotalSize());
+                    inodes.putLong(base + I_TOTAL_FILES, d.getTotalFiles());
+                    inodes.putLong(base + I_TOTAL_DIRECTORIES, d.getTotalDirectories());
+                } else {
+                    FSFile f = (FSFile) node;
+                    name = f.getName();
+                    owner = f.getOwner();
+                    inodes.put(base + I_TYPE, TYPE_FILE);
+                    inodes.put(base + I_FLAGS, paged[i] ? (byte) (FLAG_PAGED | FLAG_COMPRESSED) : 0);
+                    inodes.putLong(base + I_CONTENT_OFFSET, contentOffsets[i]);
+                    inodes.putInt(base + I_COUNT, contentLengths[i]);
+                    inodes.putLong(base + I_CREATION_TIME, f.getCreationTime());
+                    inodes.putLong(base + I_MODIFICATION_TIME, f.getModificationTime());
+                }
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+                inodes.putInt(base + I_NAME_OFFSET, intern(name, nameBytes, strings, stringOffsets));
+                inodes.putInt(base + I_NAME_LENGTH, nameBytes.length);
+                inodes.putInt(base + I_OWNER_OFFSET, intern(owner, ownerBytes, strings, stringOffsets));
+                inodes.putShort(base + I_OWNER_LENGTH, (short) ownerBytes.length);
+            }
+            long stringStart = inodeStart + inodes.capacity();
+            checkSize(stringStart + strings.size());
+            channel.write(inodes, inodeStart);
+            channel.write(ByteBuffer.wrap(strings.toByteArray()), stringStart);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(nodes.size());
+            header.putInt((int) generation);
+            header.putLong(inodeStart);
+            header.putLong(stringStart);
+            header.putLong(contentStart);
+            header.putLong(root.getTotalSize());
+            header.putLong(root.getTotalFiles());
+            header.putLong(root.getTotalDirectories());
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+    }
+
+    // Images are read through a single mapping, which cannot be larger than this
+    private static void checkSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File system image would exceed " + Integer.MAX_VALUE + " bytes");
+        }
+    }
+
+    private void copyInode(int inode, ByteBuffer target, int base) {
+        int from = inodeBase(inode);
+        for (int i = 0; i < INODE_SIZE; i += 8) {
+            target.putLong(base + i, buffer.getLong(from + i));
+        }
+    }
+
+    private String readName(int entry) {
+        return readString(stringTableOffset + buffer.getInt(entry + I_NAME_OFFSET), buffer.getInt(entry + I_NAME_LENGTH));
+    }
+
+    /*
+     * Copies the body of a file inode to out as it is stored here, pages and
+     * all, and returns its offset in the new content region. A body copied
+     * before is shared rather than copied again.
+     */
+    private long copyContent(int inode, DataOutputStream out, Counter position, Map<Long, Long> copied)
+            throws IOException {
+        int entry = inodeBase(inode);
+        long offset = contentOffset + buffer.getLong(entry + I_CONTENT_OFFSET);
+        Long done = copied.get(offset);
+        if (done != null) {
+            return done;
+        }
+        long target;
+        if ((buffer.get(entry + I_FLAGS) & FLAG_PAGED) == 0) {
+            target = position.count;
+            out.write(readBytes(offset, buffer.getInt(entry + I_COUNT)));
+        } else {
+            int pages = buffer.getInt((int) offset);
+            long[] pageOffsets = new long[pages];
+            int table = (int) offset + 4;
+            for (int i = 0; i < pages; i++) {
+                pageOffsets[i] = position.count;
+                out.write(readBytes(contentOffset + buffer.getLong(table + i * 16), buffer.getInt(table + i * 16 + 8)));
+            }
+            target = position.count;
+            out.writeInt(pages);
+            for (int i = 0; i < pages; i++) {
+                out.writeLong(pageOffsets[i]);
+                out.writeInt(buffer.getInt(table + i * 16 + 8));
+                out.writeInt(buffer.getInt(table + i * 16 + 12));
+            }
+            out.writeInt(buffer.getInt(table + pages * 16));
+        }
+        copied.put(offset, target);
+        return target;
+    }
+
+    // Offset of a string in the string table, adding it the first time it is seen
+    private static int intern(String text, byte[] bytes, ByteArrayOutputStream strings, Map<String, Integer> offsets) {
+        Integer offset = offsets.get(text);
+        if (offset == null) {
+            offset = strings.size();
+            offsets.put(text, offset);
+            strings.write(bytes, 0, bytes.length);
+        }
+        return offset;
+    }
+
+    /**
+     * Writes a large body as deflated pages followed by its page table and
+     * returns the offset of the page table within the content region. Bodies
+     * that are already compressed are copied without recompressing.
+     */
+    private static long writePages(FSContent body, DataOutputStream out, Counter position) throws IOException {
+        CompressedContent compressed = body instanceof CompressedContent
+            ? (CompressedContent) body : CompressedContent.compress(body);
+        int pageCount = compressed.getPageCount();
+        long[] offsets = new long[pageCount];
+        int[] lengths = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            byte[] bytes = compressed.getCompressedPage(i);
+            offsets[i] = position.count;
+            lengths[i] = bytes.length;
+            out.write(bytes);
+        }
+
+        long tableOffset = position.count;
+        out.writeInt(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+            out.writeInt(compressed.getPageStart(i));
+        }
+        out.writeInt(compressed.length());
+        return tableOffset;
+    }
+
+    /**
+     * An entry still undecoded in an older image, copied from there.
+     */
+    private static final class Mapped {
+        final FSImage image;
+        final int inode;
+
+        Mapped(FSImage image, int inode) {
+            this.image = image;
+            this.inode = inode;
+        }
+
+        boolean isDirectory() {
+            return image.buffer.get(image.inodeBase(inode) + I_TYPE) == TYPE_DIRECTORY;
+        }
+    }
+
+    /**
+     * Counts the bytes written through it, as {@link DataOutputStream#size()}
+     * stops counting at 2 GB.
+     */
+    private static final class Counter extends FilterOutputStream {
+        long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.worknix;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Full-text inverted index over file bodies.
+ *
+ * Every indexed file is a document with an id; each term maps to the ids of
+ * the documents containing it, in ascending order, with the token positions
+ * at which it occurs so phrases can be matched. Ids are handed out in
+ * increasing order and never reused: changing a file retires its old id and
+ * indexes the body under a new one, so postings only ever grow at the end.
+ * Retired ids are filtered out of results and dropped once they make up
+ * half of the index.
+ *
+ * Mutations only mark paths dirty, which is cheap enough to do under the
+ * file system's locks; dirty paths are (re)indexed from the current tree
+ * before the next query and before the index is saved with a checkpoint.
+ */
+public class FSIndex {
+    // Bodies beyond this many characters are only indexed up to it
+    static final int MAX_INDEXED_CHARS = 1 << 20;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAGIC = 0x574E5853; // "WNXS"
+    private static final int VERSION = 1;
+
+    private final Directory root;
+    private final PathResolver resolver;
+
+    // Live documents by path, sorted so a removed directory's files form one range
+    private final TreeMap<String, Integer> documents = new TreeMap<>();
+    private final List<String> paths = new ArrayList<>();
+    private final BitSet retired = new BitSet();
+    private final Map<String, Postings> postings = new HashMap<>();
+    // Paths changed since the last update, directories mapped to true
+    private final Map<String, Boolean> dirty = new LinkedHashMap<>();
+    private boolean rebuildNeeded;
+
+    /**
+     * Documents containing one term, with the positions of each occurrence.
+     */
+    private static final class Postings {
+        int[] docs = new int[1];
+        // Start of each document's positions, plus the end of the last
+        int[] starts = new int[2];
+        int[] positions = new int[1];
+        int size;
+
+        void add(int doc, int[] termPositions, int count) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                starts = Arrays.copyOf(starts, size * 2 + 1);
+            }
+            int end = starts[size];
+            if (end + count > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(end + count, positions.length * 2));
+            }
+            System.arraycopy(termPositions, 0, positions, end, count);
+            docs[size] = doc;
+            starts[++size] = end + count;
+        }
+
+        /**
+         * Index of the first document at or after {@code from} whose id is
+         * at least {@code doc}, galloping so that walking a long list in
+         * step with a short one stays cheap.
+         */
+        int seek(int from, int doc) {
+            int step = 1;
+            int low = from;
+            int high = from;
+            while (high < size && docs[high] < doc) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(docs, low, Math.min(high + 1, size), doc);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        boolean hasPosition(int index, int position) {
+            return Arrays.binarySearch(positions, starts[index], starts[index + 1], position) >= 0;
+        }
+    }
+
+    FSIndex(Directory root, PathResolver resolver) {
+        this.root = root;
+        this.resolver = resolver;
+        this.rebuildNeeded = true;
+    }
+
+    /**
+     * Notes that the file at {@code path} was created, changed or deleted.
+     */
+    synchronized void fileChanged(String path) {
+        if (!rebuildNeeded) {
+            dirty.remove(path);
+            dirty.put(path, false);
+        }
+    }
+
+    /**
+     * Notes that the directory at {@code path} was deleted with everything
+     * in it.
+     */
+    synchronized void directoryDeleted(String path) {
+        if (!rebuildNeeded) {
+            dirty.remove(path);
+            dirty.put(path, true);
+        }
+    }
+
+    /**
+     * Discards the index; it is rebuilt from the tree before the next query.
+     */
+    synchronized void invalidate() {
+        rebuildNeeded = true;
+        dirty.clear();
+    }
+
+    /**
+     * Brings the index up to date with the tree.
+     */
+    synchronized void update() {
+        if (rebuildNeeded) {
+            rebuild();
+            return;
+        }
+        for (Map.Entry<String, Boolean> entry : dirty.entrySet()) {
+            String path = entry.getKey();
+            if (entry.getValue()) {
+                String prefix = path.equals("/") ? "/" : path + "/";
+                Map<String, Integer> range = documents.subMap(prefix, prefix + Character.MAX_VALUE);
+                for (int doc : range.values()) {
+                    retire(doc);
+                }
+                range.clear();
+                continue;
+            }
+            Integer doc = documents.remove(path);
+            if (doc != null) {
+                retire(doc);
+            }
+            int slash = path.lastIndexOf('/');
+            Directory dir = resolver.resolve(root, slash == 0 ? "/" : path.substring(0, slash));
+            FSFile file = dir != null ? dir.getFile(path.substring(slash + 1)) : null;
+            if (file != null) {
+                add(path, file);
+            }
+        }
+        dirty.clear();
+        if (retired.cardinality() > documents.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns the paths of files containing every clause of the query, in
+     * path order. A clause of several words matches them as a phrase.
+     * Only files under {@code dirPath} are returned if it is not null.
+     */
+    public synchronized List<String> search(List<String> clauses, String dirPath) {
+        update();
+        List<int[]> phrases = new ArrayList<>();
+        List<Postings> lists = new ArrayList<>();
+        for (String clause : clauses) {
+            List<String> terms = tokenize(clause);
+            int[] phrase = new int[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                Postings list = postings.get(terms.get(i));
+                if (list == null) {
+                    return new ArrayList<>();
+                }
+                phrase[i] = lists.size();
+                lists.add(list);
+            }
+            if (phrase.length > 1) {
+                phrases.add(phrase);
+            }
+        }
+        if (lists.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Walk the shortest list and probe the others
+        Postings shortest = lists.get(0);
+        for (Postings list : lists) {
+            if (list.size < shortest.size) {
+                shortest = list;
+            }
+        }
+        String prefix = dirPath == null || dirPath.equals("/") ? null : dirPath + "/";
+        List<String> results = new ArrayList<>();
+        int[] found = new int[lists.size()];
+        candidates:
+        for (int i = 0; i < shortest.size; i++) {
+            int doc = shortest.docs[i];
+            if (retired.get(doc) || (prefix != null && !paths.get(doc).startsWith(prefix))) {
+                continue;
+            }
+            for (int j = 0; j < lists.size(); j++) {
+                Postings list = lists.get(j);
+                found[j] = list.seek(found[j], doc);
+                if (found[j] == list.size) {
+                    break candidates;
+                }
+                if (list.docs[found[j]] != doc) {
+                    continue candidates;
+                }
+            }
+            for (int[] phrase : phrases) {
+                if (!matchesPhrase(lists, found, phrase)) {
+                    continue candidates;
+                }
+            }
+            results.add(paths.get(doc));
+        }
+        results.sort(null);
+        return results;
+    }
+
+    private static boolean matchesPhrase(List<Postings> lists, int[] found, int[] phrase) {
+        Postings first = lists.get(phrase[0]);
+        for (int p = first.starts[found[phrase[0]]]; p < first.starts[found[phrase[0]] + 1]; p++) {
+            int start = first.positions[p];
+            boolean match = true;
+            for (int k = 1; k < phrase.length && match; k++) {
+                match = lists.get(phrase[k]).hasPosition(found[phrase[k]], start + k);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getDocumentCount() {
+        update();
+        return documents.size();
+    }
+
+    public synchronized int getTermCount() {
+        update();
+        return postings.size();
+    }
+
+    private void rebuild() {
+        documents.clear();
+        paths.clear();
+        retired.clear();
+        postings.clear();
+        dirty.clear();
+        rebuildNeeded = false;
+        addTree(root);
+    }
+
+    private void addTree(Directory dir) {
+        for (FSFile file : dir.getFiles().values()) {
+            add(FSEvent.childPath(dir.getFullPath(), file.getName()), file);
+        }
+        for (Directory child : dir.getChildren().values()) {
+            addTree(child);
+        }
+    }
+
+    private void add(String path, FSFile file) {
+        int doc = paths.size();
+        paths.add(path);
+        documents.put(path, doc);
+
+        // Positions of every term in the body, in order
+        Map<String, Occurrences> occurrences = new HashMap<>();
+        int position = 0;
+        try (Reader reader = file.getContentStore().openReader()) {
+            StringBuilder term = new StringBuilder();
+            char[] buffer = new char[8192];
+            int remaining = MAX_INDEXED_CHARS;
+            int n;
+            while (remaining > 0 && (n = reader.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+                remaining -= n;
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (Character.isLetterOrDigit(c)) {
+                        term.append(Character.toLowerCase(c));
+                    } else if (term.length() > 0) {
+                        addOccurrence(occurrences, term, position++);
+                    }
+                }
+            }
+            if (term.length() > 0) {
+                addOccurrence(occurrences, term, position);
+            }
+        } catch (IOException e) {
+            System.err.println("Error indexing " + path + ": " + e.getMessage());
+        }
+        for (Map.Entry<String, Occurrences> entry : occurrences.entrySet()) {
+            Occurrences found = entry.getValue();
+            postings.computeIfAbsent(entry.getKey(), t -> new Postings()).add(doc, found.positions, found.count);
+        }
+    }
+
+    /**
+     * Positions of one term within the body being indexed.
+     */
+    private static final class Occurrences {
+        int[] positions = new int[2];
+        int count;
+    }
+
+    private static void addOccurrence(Map<String, Occurrences> occurrences, StringBuilder term, int position) {
+        if (term.length() <= MAX_TERM_LENGTH) {
+            Occurrences found = occurrences.computeIfAbsent(term.toString(), t -> new Occurrences());
+            if (found.count == found.positions.length) {
+                found.positions = Arrays.copyOf(found.positions, found.count * 2);
+            }
+            found.positions[found.count++] = position;
+        }
+        term.setLength(0);
+    }
+
+    private void retire(int doc) {
+        retired.set(doc);
+    }
+
+    /**
+     * Drops retired documents and renumbers the rest, keeping their order.
+     */
+    private void compact() {
+        int[] renumbered = new int[paths.size()];
+        List<String> kept = new ArrayList<>(documents.size());
+        for (int doc = 0; doc < paths.size(); doc++) {
+            if (retired.get(doc)) {
+                renumbered[doc] = -1;
+            } else {
+                renumbered[doc] = kept.size();
+                kept.add(paths.get(doc));
+            }
+        }
+        postings.values().removeIf(list -> {
+            Postings copy = new Postings();
+            for (int i = 0; i < list.size; i++) {
+                int doc = renumbered[list.docs[i]];
+                if (doc >= 0) {
+                    copy.add(doc, Arrays.copyOfRange(list.positions, list.starts[i], list.starts[i + 1]),
+                        list.starts[i + 1] - list.starts[i]);
+                }
+            }
+            list.docs = copy.docs;
+            list.starts = copy.starts;
+            list.positions = copy.positions;
+            list.size = copy.size;
+            return list.size == 0;
+        });
+        paths.clear();
+        paths.addAll(kept);
+        retired.clear();
+        for (Map.Entry<String, Integer> entry : documents.entrySet()) {
+            entry.setValue(renumbered[entry.getValue()]);
+        }
+    }
+
+    /**
+     * Splits text into lower-case terms the way file bodies are indexed.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Writes the index, brought up to date, for the checkpoint of the given
+     * generation.
+     */
+    synchronized void write(File file, long generation) throws IOException {
+        update();
+        compact();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(paths.size());
+            for (String path : paths) {
+                out.writeUTF(path);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings list = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(list.size);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeInt(list.docs[i]);
+                    out.writeInt(list.starts[i + 1] - list.starts[i]);
+                    for (int p = list.starts[i]; p < list.starts[i + 1]; p++) {
+                        out.writeInt(list.positions[p]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads an index saved with checkpoint {@code generation}. Leaves the
+     * index to be rebuilt if the file is missing, damaged or belongs to
+     * another checkpoint.
+     */
+    synchronized void read(File file, long generation) {
+        invalidate();
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != generation) {
+                return;
+            }
+            documents.clear();
+            paths.clear();
+            retired.clear();
+            postings.clear();
+            int documentCount = in.readInt();
+            for (int doc = 0; doc < documentCount; doc++) {
+                String path = in.readUTF();
+                paths.add(path);
+                documents.put(path, doc);
+            }
+            int termCount = in.readInt();
+            int[] buffer = new int[16];
+            for (int t = 0; t < termCount; t++) {
+                String term = in.readUTF();
+                Postings list = new Postings();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    int doc = in.readInt();
+                    int count = in.readInt();
+                    if (count > buffer.length) {
+                        buffer = new int[count];
+                    }
+                    for (int p = 0; p < count; p++) {
+                        buffer[p] = in.readInt();
+                    }
+                    list.add(doc, buffer, count);
+                }
+                postings.put(term, list);
+            }
+            rebuildNeeded = false;
+        } catch (IOException e) {
+            System.err.println("Error loading search index: " + e.getMessage());
+            invalidate();
+        }
+    }
+}
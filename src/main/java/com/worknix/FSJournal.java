@@ -0,0 +1,333 @@
+package com.worknix;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of file system mutations.
+ *
+ * The file starts with a header naming the checkpoint generation the records
+ * apply on top of. Every record is laid out as {@code [int length][payload][int crc32]}
+ * where the payload starts with a one byte opcode followed by length-prefixed
+ * UTF-8 strings. Records that create entries end with the owner's name, and
+ * those that write files with the file's times; records written before
+ * owners or times were recorded end without them. Records are flushed to the OS as soon as they are appended,
+ * so a crash of the JVM only loses the record being written; replay stops at
+ * the first torn or corrupt record and truncates the tail. File bodies too
+ * large for one record are journaled as a create or append followed by
+ * further appends, so no record is ever larger than replay accepts.
+ *
+ * A journal whose generation does not match the checkpoint it is replayed
+ * over is already covered by that checkpoint (the process died between
+ * writing the checkpoint and resetting the journal) and is discarded.
+ */
+public class FSJournal {
+    static final byte OP_CREATE_DIRECTORY = 1;
+    static final byte OP_CREATE_FILE = 2;
+    static final byte OP_DELETE_FILE = 3;
+    static final byte OP_DELETE_DIRECTORY = 4;
+    static final byte OP_APPEND_FILE = 5;
+    static final byte OP_SET_QUOTA = 6;
+
+    private static final int MAGIC = 0x574E584A; // "WNXJ"
+    private static final int HEADER_SIZE = 12;
+    // Records longer than this are taken for garbage on replay
+    private static final int MAX_RECORD_SIZE = 64 << 20;
+    // Characters of file text per record; UTF-8 takes at most three bytes per char, leaving room for the paths
+    private static final int MAX_TEXT_CHARS = MAX_RECORD_SIZE / 4;
+
+    private final File file;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private int recordCount;
+    private long generation;
+
+    /**
+     * Callback used by {@link #replay(Handler)} to apply journaled operations.
+     * Paths are absolute paths of the directory the entry lives in. Owners
+     * are null and times are -1 for records written before they were
+     * recorded.
+     */
+    public interface Handler {
+        void createDirectory(String parentPath, String name, String owner);
+        void createFile(String dirPath, String name, String content, String owner,
+            long creationTime, long modificationTime);
+        void deleteFile(String dirPath, String name);
+        void deleteDirectory(String parentPath, String name);
+        void appendFile(String dirPath, String name, String text, long modificationTime);
+        void setQuota(String owner, long softSize, long hardSize, long softEntries, long hardEntries);
+    }
+
+    public FSJournal(String path) {
+        this.file = new File(path);
+    }
+
+    public void logCreateDirectory(String parentPath, String name, String owner) {
+        append(OP_CREATE_DIRECTORY, parentPath, name, owner);
+    }
+
+    public synchronized void logCreateFile(String dirPath, String name, String content, String owner,
+            long creationTime, long modificationTime) {
+        String text = content == null ? "" : content;
+        int end = chunkEnd(text, 0);
+        append(OP_CREATE_FILE, dirPath, name, text.substring(0, end), owner,
+            Long.toString(creationTime), Long.toString(modificationTime));
+        appendChunks(dirPath, name, text, end, modificationTime);
+    }
+
+    public void logDeleteFile(String dirPath, String name) {
+        append(OP_DELETE_FILE, dirPath, name);
+    }
+
+    public void logDeleteDirectory(String parentPath, String name) {
+        append(OP_DELETE_DIRECTORY, parentPath, name);
+    }
+
+    public synchronized void logAppendFile(String dirPath, String name, String text, long modificationTime) {
+        appendChunks(dirPath, name, text == null ? "" : text, 0, modificationTime);
+    }
+
+    // Journals text from start on as appends of at most MAX_TEXT_CHARS each
+    private void appendChunks(String dirPath, String name, String text, int start, long modificationTime) {
+        String time = Long.toString(modificationTime);
+        do {
+            int end = chunkEnd(text, start);
+            append(OP_APPEND_FILE, dirPath, name, text.substring(start, end), time);
+            start = end;
+        } while (start < text.length());
+    }
+
+    // End of the chunk of text starting at start, never splitting a surrogate pair
+    private static int chunkEnd(String text, int start) {
+        if (text.length() - start <= MAX_TEXT_CHARS) {
+            return text.length();
+        }
+        int end = start + MAX_TEXT_CHARS;
+        return Character.isHighSurrogate(text.charAt(end - 1)) ? end - 1 : end;
+    }
+
+    public void logSetQuota(String owner, long softSize, long hardSize, long softEntries, long hardEntries) {
+        append(OP_SET_QUOTA, owner, Long.toString(softSize), Long.toString(hardSize),
+            Long.toString(softEntries), Long.toString(hardEntries));
+    }
+
+    /**
+     * Generation of the checkpoint these records apply on top of.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Number of records appended or replayed since the last checkpoint.
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Replays every intact record in the journal through the given handler,
+     * provided the journal belongs to checkpoint {@code expectedGeneration}.
+     * Returns the number of records applied.
+     */
+    public synchronized int replay(Handler handler, long expectedGeneration) {
+        generation = expectedGeneration;
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+        int applied = 0;
+        long validLength = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (file.length() < HEADER_SIZE || in.readInt() != MAGIC || in.readLong() != expectedGeneration) {
+                System.err.println("Journal: discarding records not based on the current checkpoint");
+                truncate(0);
+                return 0;
+            }
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+                apply(payload, handler);
+                validLength += payload.length + 8;
+                applied++;
+            }
+        } catch (IOException e) {
+            System.err.println("Error replaying journal: " + e.getMessage());
+        }
+        if (validLength < file.length()) {
+            System.err.println("Journal: discarding " + (file.length() - validLength) + " bytes of incomplete records");
+            truncate(validLength);
+        }
+        recordCount += applied;
+        return applied;
+    }
+
+    /**
+     * Forces all appended records to stable storage.
+     */
+    public synchronized void sync() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("Error syncing journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Discards all records. Called once checkpoint {@code newGeneration},
+     * which covers them, is durable.
+     */
+    public synchronized void reset(long newGeneration) {
+        close();
+        truncate(0);
+        recordCount = 0;
+        generation = newGeneration;
+    }
+
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal: " + e.getMessage());
+        }
+        out = null;
+        fileOut = null;
+    }
+
+    private synchronized void append(byte op, String... fields) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(buffer);
+            payload.writeByte(op);
+            for (String field : fields) {
+                byte[] bytes = (field == null ? "" : field).getBytes(StandardCharsets.UTF_8);
+                payload.writeInt(bytes.length);
+                payload.write(bytes);
+            }
+            byte[] record = buffer.toByteArray();
+            if (record.length > MAX_RECORD_SIZE) {
+                throw new IOException("record of " + record.length + " bytes is too large");
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(record);
+
+            DataOutputStream stream = openForAppend();
+            stream.writeInt(record.length);
+            stream.write(record);
+            stream.writeInt((int) crc.getValue());
+            stream.flush();
+            recordCount++;
+        } catch (IOException e) {
+            System.err.println("Error writing journal: " + e.getMessage());
+        }
+    }
+
+    private DataOutputStream openForAppend() throws IOException {
+        if (out == null) {
+            boolean empty = !file.exists() || file.length() == 0;
+            fileOut = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            if (empty) {
+                out.writeInt(MAGIC);
+                out.writeLong(generation);
+            }
+        }
+        return out;
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_RECORD_SIZE) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        int checksum;
+        try {
+            in.readFully(payload);
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    private static void apply(byte[] payload, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        switch (op) {
+            case OP_CREATE_DIRECTORY:
+                handler.createDirectory(readString(in), readString(in), readOptionalString(in));
+                break;
+            case OP_CREATE_FILE:
+                handler.createFile(readString(in), readString(in), readString(in), readOptionalString(in),
+                    readOptionalTime(in), readOptionalTime(in));
+                break;
+            case OP_DELETE_FILE:
+                handler.deleteFile(readString(in), readString(in));
+                break;
+            case OP_DELETE_DIRECTORY:
+                handler.deleteDirectory(readString(in), readString(in));
+                break;
+            case OP_APPEND_FILE:
+                handler.appendFile(readString(in), readString(in), readString(in), readOptionalTime(in));
+                break;
+            case OP_SET_QUOTA:
+                try {
+                    handler.setQuota(readString(in), Long.parseLong(readString(in)), Long.parseLong(readString(in)),
+                        Long.parseLong(readString(in)), Long.parseLong(readString(in)));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed quota record");
+                }
+                break;
+            default:
+                throw new IOException("Unknown journal opcode: " + op);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A trailing field added after the record type was introduced
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.available() > 0 ? readString(in) : null;
+    }
+
+    // A trailing time, -1 if the record predates it
+    private static long readOptionalTime(DataInputStream in) throws IOException {
+        String time = readOptionalString(in);
+        try {
+            return time == null ? -1 : Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed time in journal record");
+        }
+    }
+
+    private void truncate(long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException e) {
+            System.err.println("Error truncating journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.worknix;
+
+/**
+ * Receives change events from a {@link FileSystem}. Listeners are invoked on
+ * the thread that performed the mutation.
+ */
+public interface FSListener {
+    void onEvent(FSEvent event);
+}
@@ -0,0 +1,104 @@
+package com.worknix;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of inflated pages of compressed files, least recently used
+ * pages evicted first. The bound is in characters so a few large files can't
+ * crowd the heap.
+ */
+public final class FSPageCache {
+    // About 16 MB of text
+    static final long CAPACITY_CHARS = 8L * 1024 * 1024;
+
+    private static final FSPageCache SHARED = new FSPageCache(CAPACITY_CHARS);
+
+    private final long capacity;
+    private final LinkedHashMap<Key, String> pages = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private long hits;
+    private long misses;
+
+    private static final class Key {
+        final CompressedContent content;
+        final int page;
+
+        Key(CompressedContent content, int page) {
+            this.content = content;
+            this.page = page;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return content == other.content && page == other.page;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(content) * 31 + page;
+        }
+    }
+
+    FSPageCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public static FSPageCache shared() {
+        return SHARED;
+    }
+
+    String get(CompressedContent content, int page) {
+        Key key = new Key(content, page);
+        synchronized (this) {
+            String text = pages.get(key);
+            if (text != null) {
+                hits++;
+                return text;
+            }
+            misses++;
+        }
+
+        // Inflate outside the lock so readers of other pages are not held up
+        String text = content.inflate(page);
+        synchronized (this) {
+            String previous = pages.put(key, text);
+            size += text.length() - (previous != null ? previous.length() : 0);
+            Iterator<Map.Entry<Key, String>> eldest = pages.entrySet().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                Map.Entry<Key, String> entry = eldest.next();
+                if (entry.getKey().equals(key)) {
+                    continue;
+                }
+                size -= entry.getValue().length();
+                eldest.remove();
+            }
+        }
+        return text;
+    }
+
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    public synchronized long getCachedChars() {
+        return size;
+    }
+
+    public long getCapacityChars() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -1,24 +1,110 @@
 package com.worknix;
 
 import java.io.*;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class FSPersistence {
-    private static final String SAVE_FILE = "worknix_fs.dat";
+    private static final String IMAGE_FILE = "worknix_fs.img";
+    // Java-serialized tree written by older releases, read once for migration
+    private static final String LEGACY_SAVE_FILE = "worknix_fs.dat";
+    static final String JOURNAL_FILE = "worknix_fs.journal";
+    private static final String INDEX_FILE = "worknix_fs.idx";
+    private static final String QUOTA_FILE = "worknix_fs.quota";
 
-    public static void saveFileSystem(Directory root) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(SAVE_FILE))) {
-            oos.writeObject(root);
+    public static boolean saveFileSystem(Directory root, long generation) {
+        // Write to a temporary file first so a crash never leaves a torn checkpoint
+        File target = new File(IMAGE_FILE);
+        File temp = new File(IMAGE_FILE + ".tmp");
+        try {
+            FSImage.write(root, temp, generation);
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
         } catch (IOException e) {
             System.err.println("Error saving file system: " + e.getMessage());
+            return false;
         }
     }
 
+    /**
+     * Saves the search index next to the image of the same generation. A
+     * failure only costs a rebuild on the next start.
+     */
+    public static void saveIndex(FSIndex index, long generation) {
+        File target = new File(INDEX_FILE);
+        File temp = new File(INDEX_FILE + ".tmp");
+        try {
+            index.write(temp, generation);
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving search index: " + e.getMessage());
+            target.delete();
+        }
+    }
+
+    public static void loadIndex(FSIndex index, long generation) {
+        index.read(new File(INDEX_FILE), generation);
+    }
+
+    /**
+     * Saves quota limits and usage for the checkpoint of {@code generation}.
+     */
+    public static void saveQuotas(FSQuotas quotas, long generation) {
+        File target = new File(QUOTA_FILE);
+        File temp = new File(QUOTA_FILE + ".tmp");
+        try {
+            quotas.write(temp, generation);
+            Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error saving quotas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads quota limits, and usage if it matches the checkpoint. Returns
+     * false if usage has to be recounted from the tree.
+     */
+    public static boolean loadQuotas(FSQuotas quotas, long generation) {
+        return quotas.read(new File(QUOTA_FILE), generation);
+    }
+
+    /**
+     * Generation of the last checkpoint, which the journal must match.
+     */
+    public static long loadGeneration() {
+        return FSImage.readGeneration(new File(IMAGE_FILE));
+    }
+
+    /**
+     * Size, file count and directory count of the tree in the last
+     * checkpoint, read from the image header alone, or null if unknown.
+     */
+    public static long[] loadTreeTotals() {
+        return FSImage.readTreeTotals(new File(IMAGE_FILE));
+    }
+
     public static Directory loadFileSystem() {
+        File image = new File(IMAGE_FILE);
+        if (image.exists()) {
+            try {
+                return FSImage.open(image);
+            } catch (IOException e) {
+                System.err.println("Error loading file system: " + e.getMessage());
+                return null;
+            }
+        }
+        return loadLegacyFileSystem();
+    }
+
+    private static Directory loadLegacyFileSystem() {
         try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(SAVE_FILE))) {
-            return (Directory) ois.readObject();
+                new FileInputStream(LEGACY_SAVE_FILE))) {
+            Directory root = (Directory) ois.readObject();
+            root.recomputeTotals();
+            return root;
         } catch (FileNotFoundException e) {
             return null;
         } catch (IOException | ClassNotFoundException e) {
@@ -26,4 +112,4 @@ public class FSPersistence {
             return null;
         }
     }
-} 
\ No newline at end of file
+}
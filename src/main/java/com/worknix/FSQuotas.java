@@ -0,0 +1,234 @@
+package com.worknix;
+
+import java.io.*;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user disk quotas on stored characters and on entries (files and
+ * directories), each with a soft and a hard limit.
+ *
+ * Usage is counted per owner as entries are created, changed and removed.
+ * A write first reserves what it adds with one atomic add per counter and
+ * backs out if that crosses a limit, so enforcement costs the same however
+ * much a user owns and concurrent writers cannot overshoot together. A soft
+ * limit may be exceeded for a grace period, after which it is enforced like
+ * a hard one until usage drops below it again. A limit of 0 means unlimited.
+ */
+public class FSQuotas {
+    public static final long GRACE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /** Outcome of a reservation. */
+    public enum Result {
+        OK,
+        // Allowed, but usage just went over a soft limit
+        SOFT_LIMIT_EXCEEDED,
+        DENIED
+    }
+
+    private static final int MAGIC = 0x574E5851; // "WNXQ"
+    private static final int VERSION = 1;
+
+    /**
+     * Usage and limits of one user.
+     */
+    public static final class Usage {
+        private final AtomicLong size = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private volatile long softSize;
+        private volatile long hardSize;
+        private volatile long softEntries;
+        private volatile long hardEntries;
+        // When usage went over the soft limit, 0 while below it
+        private volatile long sizeOverSince;
+        private volatile long entriesOverSince;
+
+        public long getSize() { return size.get(); }
+        public long getEntries() { return entries.get(); }
+        public long getSoftSize() { return softSize; }
+        public long getHardSize() { return hardSize; }
+        public long getSoftEntries() { return softEntries; }
+        public long getHardEntries() { return hardEntries; }
+        public long getSizeOverSince() { return sizeOverSince; }
+        public long getEntriesOverSince() { return entriesOverSince; }
+
+        boolean hasLimits() {
+            return softSize > 0 || hardSize > 0 || softEntries > 0 || hardEntries > 0;
+        }
+    }
+
+    private final Map<String, Usage> users = new ConcurrentHashMap<>();
+
+    public Usage getUsage(String owner) {
+        return users.computeIfAbsent(owner, o -> new Usage());
+    }
+
+    /**
+     * Usage of every user that owns something or has limits, by name.
+     */
+    public Map<String, Usage> getUsages() {
+        Map<String, Usage> sorted = new TreeMap<>();
+        for (Map.Entry<String, Usage> entry : users.entrySet()) {
+            Usage usage = entry.getValue();
+            if (usage.getSize() != 0 || usage.getEntries() != 0 || usage.hasLimits()) {
+                sorted.put(entry.getKey(), usage);
+            }
+        }
+        return sorted;
+    }
+
+    void setLimits(String owner, long softSize, long hardSize, long softEntries, long hardEntries) {
+        Usage usage = getUsage(owner);
+        usage.softSize = softSize;
+        usage.hardSize = hardSize;
+        usage.softEntries = softEntries;
+        usage.hardEntries = hardEntries;
+        long now = System.currentTimeMillis();
+        usage.sizeOverSince = overSince(usage.size.get(), softSize, usage.sizeOverSince, now);
+        usage.entriesOverSince = overSince(usage.entries.get(), softEntries, usage.entriesOverSince, now);
+    }
+
+    /**
+     * Charges {@code owner} for {@code size} more characters and
+     * {@code entries} more entries, unless that would break a limit.
+     * Releasing space (negative amounts) is never denied.
+     */
+    Result reserve(String owner, long size, long entries) {
+        Usage usage = getUsage(owner);
+        long newSize = usage.size.addAndGet(size);
+        long newEntries = usage.entries.addAndGet(entries);
+        long now = System.currentTimeMillis();
+        if ((size > 0 && exceeds(newSize, usage.softSize, usage.hardSize, usage.sizeOverSince, now))
+                || (entries > 0 && exceeds(newEntries, usage.softEntries, usage.hardEntries,
+                    usage.entriesOverSince, now))) {
+            usage.size.addAndGet(-size);
+            usage.entries.addAndGet(-entries);
+            return Result.DENIED;
+        }
+        boolean wasOver = usage.sizeOverSince != 0 || usage.entriesOverSince != 0;
+        usage.sizeOverSince = overSince(newSize, usage.softSize, usage.sizeOverSince, now);
+        usage.entriesOverSince = overSince(newEntries, usage.softEntries, usage.entriesOverSince, now);
+        boolean over = usage.sizeOverSince != 0 || usage.entriesOverSince != 0;
+        return over && !wasOver ? Result.SOFT_LIMIT_EXCEEDED : Result.OK;
+    }
+
+    /**
+     * Charges usage that has already happened, such as a change replayed
+     * from the journal or a removal, without checking limits.
+     */
+    void charge(String owner, long size, long entries) {
+        Usage usage = getUsage(owner);
+        long now = System.currentTimeMillis();
+        usage.sizeOverSince = overSince(usage.size.addAndGet(size), usage.softSize, usage.sizeOverSince, now);
+        usage.entriesOverSince = overSince(usage.entries.addAndGet(entries), usage.softEntries,
+            usage.entriesOverSince, now);
+    }
+
+    /**
+     * Charges everything in a subtree, including the directory itself, once
+     * per entry times {@code sign}.
+     */
+    void chargeTree(Directory dir, int sign) {
+        charge(dir.getOwner(), 0, sign);
+        for (FSFile file : dir.getFiles().values()) {
+            charge(file.getOwner(), sign * (long) file.length(), sign);
+        }
+        for (Directory child : dir.getChildren().values()) {
+            chargeTree(child, sign);
+        }
+    }
+
+    /**
+     * Recounts all usage from the tree, keeping the limits.
+     */
+    void recompute(Directory root) {
+        for (Usage usage : users.values()) {
+            usage.size.set(0);
+            usage.entries.set(0);
+            usage.sizeOverSince = 0;
+            usage.entriesOverSince = 0;
+        }
+        chargeTree(root, 1);
+    }
+
+    private static boolean exceeds(long value, long soft, long hard, long overSince, long now) {
+        return (hard > 0 && value > hard)
+            || (soft > 0 && value > soft && overSince != 0 && now - overSince > GRACE_MILLIS);
+    }
+
+    private static long overSince(long value, long soft, long overSince, long now) {
+        if (soft <= 0 || value <= soft) {
+            return 0;
+        }
+        return overSince != 0 ? overSince : now;
+    }
+
+    /**
+     * Writes limits and usage for the checkpoint of the given generation.
+     */
+    void write(File file, long generation) throws IOException {
+        Map<String, Usage> usages = getUsages();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(usages.size());
+            for (Map.Entry<String, Usage> entry : usages.entrySet()) {
+                Usage usage = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(usage.softSize);
+                out.writeLong(usage.hardSize);
+                out.writeLong(usage.softEntries);
+                out.writeLong(usage.hardEntries);
+                out.writeLong(usage.size.get());
+                out.writeLong(usage.entries.get());
+                out.writeLong(usage.sizeOverSince);
+                out.writeLong(usage.entriesOverSince);
+            }
+        }
+    }
+
+    /**
+     * Loads limits, and usage if it was saved with checkpoint
+     * {@code generation}. Returns false if usage has to be recounted.
+     */
+    boolean read(File file, long generation) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            // Limits are written before the image, so they are current even
+            // when usage belongs to another checkpoint
+            boolean current = in.readLong() == generation;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Usage usage = getUsage(in.readUTF());
+                usage.softSize = in.readLong();
+                usage.hardSize = in.readLong();
+                usage.softEntries = in.readLong();
+                usage.hardEntries = in.readLong();
+                long size = in.readLong();
+                long entries = in.readLong();
+                long sizeOverSince = in.readLong();
+                long entriesOverSince = in.readLong();
+                if (current) {
+                    usage.size.set(size);
+                    usage.entries.set(entries);
+                    usage.sizeOverSince = sizeOverSince;
+                    usage.entriesOverSince = entriesOverSince;
+                }
+            }
+            return current;
+        } catch (IOException e) {
+            System.err.println("Error loading quotas: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.worknix;
+
+/**
+ * State that belongs to one user of a shared {@link FileSystem} rather than
+ * to the tree itself, such as the working directory.
+ */
+public class FSSession {
+    private volatile Directory currentDirectory;
+
+    FSSession(Directory currentDirectory) {
+        this.currentDirectory = currentDirectory;
+    }
+
+    public Directory getCurrentDirectory() {
+        return currentDirectory;
+    }
+
+    void setCurrentDirectory(Directory currentDirectory) {
+        this.currentDirectory = currentDirectory;
+    }
+}
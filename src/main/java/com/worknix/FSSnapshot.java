@@ -0,0 +1,69 @@
+package com.worknix;
+
+/**
+ * A named, read-only point-in-time view of the tree. Taking one copies
+ * nothing; directories preserve their entries the first time they change
+ * afterwards.
+ */
+public class FSSnapshot {
+    private final String name;
+    private final long epoch;
+    private final long creationTime;
+    private final SnapshotDirectory root;
+
+    FSSnapshot(String name, long epoch, Directory liveRoot) {
+        this.name = name;
+        this.epoch = epoch;
+        this.creationTime = System.currentTimeMillis();
+        this.root = new SnapshotDirectory(liveRoot, epoch, null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Root of the tree as it was when the snapshot was taken. Its directories
+     * can be read while the live tree keeps changing, but not modified.
+     */
+    public Directory getRoot() {
+        return root;
+    }
+
+    /**
+     * Looks up a directory in the snapshot by absolute path. Returns null if
+     * it did not exist.
+     */
+    public Directory getDirectory(String path) {
+        Directory current = root;
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            current = part.equals("..") ? (current.getParent() != null ? current.getParent() : current)
+                : current.getChild(part);
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Looks up a file in the snapshot by absolute path. Returns null if it
+     * did not exist.
+     */
+    public FSFile getFile(String path) {
+        int slash = path.lastIndexOf('/');
+        Directory dir = getDirectory(slash <= 0 ? "/" : path.substring(0, slash));
+        return dir != null ? dir.getFile(path.substring(slash + 1)) : null;
+    }
+}
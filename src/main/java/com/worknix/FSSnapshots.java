@@ -0,0 +1,227 @@
+package com.worknix;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Copy-on-write snapshots of one tree.
+ *
+ * Time is divided into epochs; taking a snapshot records the current epoch
+ * and starts the next one, so it costs the same however large the tree is.
+ * A directory that changes in a later epoch first preserves its entry maps
+ * (shallow copies, subdirectories and files are shared) as a version
+ * covering the snapshots that can still see them. Files are replaced by a
+ * copy instead of being appended to in place once a snapshot shares them.
+ * Unchanged subtrees are therefore shared by every snapshot and the live
+ * tree, and a snapshot resolves each directory to the oldest version that
+ * covers its epoch, or to the live entries if there is none.
+ *
+ * Snapshots live in memory for the lifetime of the process; export one to
+ * an image file for a durable backup. Exports only go to one host directory,
+ * since shell sessions name the file.
+ */
+class FSSnapshots {
+    static final String DEFAULT_EXPORT_DIR = "worknix_snapshots";
+
+    private final Directory root;
+    private final Map<String, FSSnapshot> snapshots = new LinkedHashMap<>();
+    // Directories holding preserved versions
+    private final List<Directory> changed = new ArrayList<>();
+    private volatile long currentEpoch;
+    private volatile long latestSnapshotEpoch = -1;
+    private volatile File exportDirectory = new File(DEFAULT_EXPORT_DIR);
+
+    FSSnapshots(Directory root) {
+        this.root = root;
+        root.setSnapshots(this);
+    }
+
+    File getExportDirectory() {
+        return exportDirectory;
+    }
+
+    void setExportDirectory(File exportDirectory) {
+        this.exportDirectory = exportDirectory;
+    }
+
+    long getCurrentEpoch() {
+        return currentEpoch;
+    }
+
+    long getLatestSnapshotEpoch() {
+        return latestSnapshotEpoch;
+    }
+
+    /**
+     * Whether a snapshot may see {@code file}, so that it must be copied
+     * before it is changed in place.
+     */
+    boolean isShared(FSFile file) {
+        return file.epoch <= latestSnapshotEpoch;
+    }
+
+    synchronized void recordHistory(Directory dir) {
+        changed.add(dir);
+    }
+
+    /**
+     * Takes a snapshot of the tree. The caller must hold every lock that
+     * guards mutations so that no change straddles the epoch boundary.
+     * Returns null if a snapshot with that name exists.
+     */
+    synchronized FSSnapshot create(String name) {
+        if (snapshots.containsKey(name)) {
+            return null;
+        }
+        FSSnapshot snapshot = new FSSnapshot(name, currentEpoch, root);
+        snapshots.put(name, snapshot);
+        latestSnapshotEpoch = currentEpoch;
+        currentEpoch++;
+        return snapshot;
+    }
+
+    synchronized FSSnapshot get(String name) {
+        return snapshots.get(name);
+    }
+
+    synchronized List<FSSnapshot> list() {
+        return new ArrayList<>(snapshots.values());
+    }
+
+    /**
+     * Deletes a snapshot and drops the versions only it could see.
+     */
+    synchronized boolean delete(String name) {
+        if (snapshots.remove(name) == null) {
+            return false;
+        }
+        prune();
+        return true;
+    }
+
+    /**
+     * Puts the tree back into the state seen by the named snapshot, deleting
+     * the snapshots taken after it. Only directories changed since are
+     * visited. The caller must hold every mutation lock. Returns false if
+     * there is no such snapshot.
+     */
+    boolean rollback(String name) {
+        FSSnapshot target;
+        List<Directory> candidates;
+        long epoch;
+        synchronized (this) {
+            target = snapshots.get(name);
+            if (target == null) {
+                return false;
+            }
+            snapshots.values().removeIf(s -> s.getEpoch() > target.getEpoch());
+            // Changes from here on must not disturb the versions the target still needs
+            currentEpoch++;
+            epoch = currentEpoch;
+            candidates = new ArrayList<>(changed);
+        }
+        // Restored directories and everything above them need their totals recounted, deepest first
+        Set<Directory> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Directory dir : candidates) {
+            if (dir.restore(target.getEpoch(), epoch)) {
+                // Stops where the path of another restored directory joins
+                Directory above = dir;
+                while (above != null && stale.add(above)) {
+                    above = above.getParent();
+                }
+            }
+        }
+        List<Directory> recount = new ArrayList<>(stale);
+        recount.sort(Comparator.comparingInt(FSSnapshots::depth).reversed());
+        for (Directory dir : recount) {
+            dir.recomputeOwnTotals();
+        }
+        synchronized (this) {
+            prune();
+        }
+        return true;
+    }
+
+    private static int depth(Directory dir) {
+        int depth = 0;
+        for (Directory above = dir.getParent(); above != null; above = above.getParent()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private void prune() {
+        long[] epochs = new long[snapshots.size()];
+        long latest = -1;
+        int i = 0;
+        for (FSSnapshot snapshot : snapshots.values()) {
+            epochs[i++] = snapshot.getEpoch();
+            latest = Math.max(latest, snapshot.getEpoch());
+        }
+        latestSnapshotEpoch = latest;
+        changed.removeIf(dir -> !dir.pruneHistory(epochs));
+    }
+
+    /**
+     * Writes the entries that differ between two snapshots, or between a
+     * snapshot and the live tree if {@code to} is null, one per line as
+     * {@code A}dded, {@code D}eleted or {@code M}odified followed by the path.
+     * Subtrees untouched since {@code from} was taken are skipped without
+     * being visited.
+     */
+    void diff(FSSnapshot from, FSSnapshot to, PrintWriter out) {
+        long fromEpoch = from.getEpoch();
+        long toEpoch = to != null ? to.getEpoch() : -1;
+        if (to != null && toEpoch < fromEpoch) {
+            out.println("(listing changes from " + to.getName() + " to " + from.getName() + ")");
+            long swap = fromEpoch;
+            fromEpoch = toEpoch;
+            toEpoch = swap;
+        }
+        diff(root, root, fromEpoch, toEpoch, out);
+    }
+
+    private static void diff(Directory before, Directory after, long fromEpoch, long toEpoch, PrintWriter out) {
+        if (before == after && after.getSubtreeChangedEpoch() <= fromEpoch) {
+            return;
+        }
+        Directory.Version old = before.entriesAt(fromEpoch);
+        Directory.Version now = after.entriesAt(toEpoch);
+        String path = after.getFullPath();
+
+        TreeSet<String> names = new TreeSet<>(old.children.keySet());
+        names.addAll(now.children.keySet());
+        for (String name : names) {
+            Directory was = old.children.get(name);
+            Directory is = now.children.get(name);
+            if (was == null) {
+                out.println("A " + FSEvent.childPath(path, name) + "/");
+            } else if (is == null) {
+                out.println("D " + FSEvent.childPath(path, name) + "/");
+            } else {
+                diff(was, is, fromEpoch, toEpoch, out);
+            }
+        }
+
+        names = new TreeSet<>(old.files.keySet());
+        names.addAll(now.files.keySet());
+        for (String name : names) {
+            FSFile was = old.files.get(name);
+            FSFile is = now.files.get(name);
+            if (was == is) {
+                continue;
+            }
+            String code = was == null ? "A " : is == null ? "D " : "M ";
+            out.println(code + FSEvent.childPath(path, name));
+        }
+    }
+}
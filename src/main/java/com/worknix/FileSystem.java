@@ -1,26 +1,109 @@
 package com.worknix;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import com.worknix.user.UserManager;
 
+/**
+ * The virtual file system. One instance owns the tree; further views onto the
+ * same tree, each with its own working directory, come from {@link #openSession()}.
+ *
+ * Reads never lock: directory entries live in concurrent maps. Mutations lock
+ * the directory they change through a small set of striped locks, which keeps
+ * the journal in the same order as the changes it records. A checkpoint holds
+ * every stripe while it writes the tree, so each change is either in the
+ * checkpoint or in the journal that follows it, never both.
+ */
 public class FileSystem {
+    // Journal records accumulated before saveState() writes a full checkpoint
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final int LOCK_STRIPES = 64;
+    // Characters buffered by a file writer before they are appended and journaled
+    private static final int WRITE_CHUNK = 8192;
+    // Capacity of the virtual disk the tree lives on, as reported by df and the boot prompt
+    public static final long DISK_SIZE = 1024L * 1024 * 1024;
+
     private final Directory root;
-    private Directory currentDirectory;
+    private final FSSession session;
+    // Every open session's state, so a rollback can move all of them; sessions are never closed, hence weak
+    private final Set<FSSession> sessions;
     private final UserManager userManager;
-    private boolean setupMode = false;
+    private final FSJournal journal;
+    private final PathResolver resolver;
+    private final List<FSListener> listeners;
+    private final ReentrantLock[] locks;
+    private final FSSnapshots snapshots;
+    private final FSIndex index;
+    private final FSQuotas quotas;
+    private volatile boolean setupMode = false;
     
     public FileSystem() {
+        this.journal = new FSJournal(FSPersistence.JOURNAL_FILE);
         Directory loadedRoot = FSPersistence.loadFileSystem();
-        if (loadedRoot != null) {
-            this.root = loadedRoot;
-            this.currentDirectory = root;
-        } else {
-            this.root = new Directory("/");
-            this.currentDirectory = root;
-            initializeBasicStructure();
+        this.root = loadedRoot != null ? loadedRoot : new Directory("/");
+        this.snapshots = new FSSnapshots(root);
+        this.session = new FSSession(root);
+        this.sessions = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        sessions.add(session);
+        this.resolver = new PathResolver(root);
+        this.index = new FSIndex(root, resolver);
+        this.quotas = new FSQuotas();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
         }
+
+        long generation = FSPersistence.loadGeneration();
+        FSPersistence.loadIndex(index, generation);
+        if (!FSPersistence.loadQuotas(quotas, generation)) {
+            quotas.recompute(root);
+        }
+        int replayed = journal.replay(new JournalReplayer(), generation);
         this.userManager = new UserManager(this);
+        if (loadedRoot == null && replayed == 0) {
+            // Nobody is logged in yet, so lay out the base system as during setup
+            setupMode = true;
+            initializeBasicStructure();
+            setupMode = false;
+        }
+    }
+
+    private FileSystem(FileSystem shared) {
+        this.root = shared.root;
+        this.session = new FSSession(shared.getCurrentDirectory());
+        this.sessions = shared.sessions;
+        sessions.add(session);
+        this.userManager = shared.userManager.openSession(this);
+        this.journal = shared.journal;
+        this.resolver = shared.resolver;
+        this.listeners = shared.listeners;
+        this.locks = shared.locks;
+        this.snapshots = shared.snapshots;
+        this.index = shared.index;
+        this.quotas = shared.quotas;
+    }
+
+    /**
+     * Returns a new view of this file system with its own working directory
+     * and login state. The tree, journal, listeners and user database are
+     * shared with this instance.
+     */
+    public FileSystem openSession() {
+        return new FileSystem(this);
     }
     
     private void initializeBasicStructure() {
@@ -54,7 +137,7 @@ public class FileSystem {
     }
     
     public String getCurrentPath() {
-        return currentDirectory.getFullPath();
+        return session.getCurrentDirectory().getFullPath();
     }
     
     public void createDirectory(String path) {
@@ -62,38 +145,129 @@ public class FileSystem {
             System.out.println("Permission denied");
             return;
         }
-        if (path.startsWith("/")) {
-            String[] parts = path.split("/");
-            Directory current = root;
-            
-            for (String part : parts) {
-                if (!part.isEmpty()) {
-                    Directory child = current.getChild(part);
-                    if (child == null) {
-                        child = new Directory(part, current);
-                        current.addChild(child);
-                    }
-                    current = child;
-                }
+        String absolute = path.startsWith("/") ? path : FSEvent.childPath(getCurrentPath(), path);
+        List<String> parts = PathResolver.components(absolute);
+        if (parts.isEmpty()) {
+            return;
+        }
+
+        // Start from the deepest existing ancestor the resolver can find
+        int existing = parts.size() - 1;
+        Directory current = resolver.resolve(root, parentPathOf(parts, existing));
+        while (current == null) {
+            existing--;
+            current = resolver.resolve(root, parentPathOf(parts, existing));
+        }
+        for (int i = existing; i < parts.size(); i++) {
+            current = applyCreateDirectory(current, parts.get(i), currentOwner(), true);
+            if (current == null) {
+                return;
             }
-        } else {
-            Directory newDir = new Directory(path, currentDirectory);
-            currentDirectory.addChild(newDir);
         }
     }
     
-    public void createFile(String name, String content) {
+    public void createFile(String path, String content) {
         if (!checkPermission("write")) {
             System.out.println("Permission denied");
             return;
         }
-        currentDirectory.addFile(new FSFile(name, content));
+        Directory dir = resolveParent(path);
+        if (dir == null) {
+            System.out.println("Directory not found: " + path);
+            return;
+        }
+        String name = baseName(path);
+        boolean existed;
+        ReentrantLock lock = lockFor(dir);
+        lock.lock();
+        try {
+            if (!dir.isAttached()) {
+                System.out.println("Directory not found: " + path);
+                return;
+            }
+            FSFile previous = dir.getFile(name);
+            existed = previous != null;
+            // Rewriting a file keeps its owner
+            String owner = existed ? previous.getOwner() : currentOwner();
+            int length = content == null ? 0 : content.length();
+            if (!reserve(owner, length - (existed ? previous.length() : 0), existed ? 0 : 1)) {
+                return;
+            }
+            FSFile file = new FSFile(name, content);
+            file.setOwner(owner);
+            journal.logCreateFile(dir.getFullPath(), name, content, owner,
+                file.getCreationTime(), file.getModificationTime());
+            dir.addFile(file);
+            index.fileChanged(FSEvent.childPath(dir.getFullPath(), name));
+        } finally {
+            lock.unlock();
+        }
+        fireEvent(existed ? FSEvent.Type.MODIFIED : FSEvent.Type.CREATED,
+            FSEvent.childPath(dir.getFullPath(), name), false);
+    }
+
+    /**
+     * Looks up a file by absolute path or by path relative to the current
+     * directory. Returns null if it does not exist.
+     */
+    public FSFile getFile(String path) {
+        Directory dir = resolveParent(path);
+        return dir != null ? dir.getFile(baseName(path)) : null;
+    }
+
+    /**
+     * Looks up a directory by absolute path or by path relative to the current
+     * directory. Returns null if it does not exist.
+     */
+    public Directory getDirectory(String path) {
+        return resolver.resolve(session.getCurrentDirectory(), path);
     }
     
+    /**
+     * Opens a file for streaming reads.
+     */
+    public Reader openFileReader(String path) throws FileNotFoundException {
+        FSFile file = getFile(path);
+        if (file == null) {
+            throw new FileNotFoundException(path + ": No such file");
+        }
+        return file.getContentStore().openReader();
+    }
+
+    /**
+     * Opens a writer that streams into a file, creating or truncating it
+     * unless {@code append} is set. Text reaches the file in chunks as it is
+     * written; listeners see a single MODIFIED event when the writer is closed.
+     */
+    public Writer openFileWriter(String path, boolean append) throws IOException {
+        if (!checkPermission("write")) {
+            throw new IOException("Permission denied");
+        }
+        Directory dir = resolveParent(path);
+        if (dir == null) {
+            throw new FileNotFoundException(path + ": No such directory");
+        }
+        String name = baseName(path);
+        if (!append || dir.getFile(name) == null) {
+            createFile(path, "");
+        }
+        return new FileWriter(dir, name);
+    }
+
     public void readFile(String name) {
-        FSFile file = currentDirectory.getFile(name);
+        FSFile file = getFile(name);
         if (file != null) {
-            System.out.println(file.getContent());
+            // Stream the body so large paged files are never materialised
+            char[] buffer = new char[8192];
+            try (Reader reader = file.getContentStore().openReader()) {
+                int n;
+                while ((n = reader.read(buffer)) != -1) {
+                    System.out.print(String.valueOf(buffer, 0, n));
+                }
+            } catch (IOException e) {
+                System.out.print("Error reading file: " + e.getMessage());
+            }
+            System.out.println();
         } else {
             System.out.println("File not found: " + name);
         }
@@ -104,7 +278,9 @@ public class FileSystem {
             System.out.println("Permission denied");
             return;
         }
-        if (currentDirectory.removeFile(name)) {
+        Directory dir = resolveParent(name);
+        if (dir != null && removeFile(dir, baseName(name))) {
+            fireEvent(FSEvent.Type.DELETED, FSEvent.childPath(dir.getFullPath(), baseName(name)), false);
             System.out.println("Removed: " + name);
         } else {
             System.out.println("File not found: " + name);
@@ -112,33 +288,217 @@ public class FileSystem {
     }
     
     public void changeDirectory(String path) {
-        if (path.equals("/")) {
-            currentDirectory = root;
-            return;
-        }
-        
-        if (path.equals("..")) {
-            Directory parent = currentDirectory.getParent();
-            if (parent != null) {
-                currentDirectory = parent;
-            }
-            return;
-        }
-
-        Directory target = currentDirectory.getChild(path);
+        Directory target = resolver.resolve(session.getCurrentDirectory(), path);
         if (target != null) {
-            currentDirectory = target;
+            session.setCurrentDirectory(target);
         } else {
             System.out.println("Directory not found: " + path);
         }
     }
     
     public void listCurrentDirectory() {
-        currentDirectory.list();
+        session.getCurrentDirectory().list();
     }
 
+    /**
+     * Makes all changes durable. Normally this only forces the journal to disk;
+     * once enough records have accumulated the whole tree is checkpointed and
+     * the journal is truncated.
+     */
     public void saveState() {
-        FSPersistence.saveFileSystem(root);
+        if (journal.getRecordCount() >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        } else {
+            journal.sync();
+        }
+    }
+
+    /**
+     * Writes a full snapshot of the tree and discards the journal it covers.
+     */
+    public void checkpoint() {
+        lockAll();
+        try {
+            journal.sync();
+            long generation = journal.getGeneration() + 1;
+            // Limits must not depend on the image, so they go first
+            FSPersistence.saveQuotas(quotas, generation);
+            if (FSPersistence.saveFileSystem(root, generation)) {
+                FSPersistence.saveIndex(index, generation);
+                journal.reset(generation);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Takes a named snapshot of the whole tree. This only starts a new epoch,
+     * so it takes the same time however large the tree is. Returns null if
+     * the name is taken.
+     */
+    public FSSnapshot createSnapshot(String name) {
+        lockAll();
+        try {
+            return snapshots.create(name);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public FSSnapshot getSnapshot(String name) {
+        return snapshots.get(name);
+    }
+
+    public List<FSSnapshot> listSnapshots() {
+        return snapshots.list();
+    }
+
+    public boolean deleteSnapshot(String name) {
+        return snapshots.delete(name);
+    }
+
+    /**
+     * Returns the tree to the state of a snapshot, discarding later
+     * snapshots, and checkpoints the result since the journal cannot express
+     * a rollback. Returns false if there is no such snapshot.
+     */
+    public boolean rollbackSnapshot(String name) {
+        lockAll();
+        try {
+            if (!snapshots.rollback(name)) {
+                return false;
+            }
+            resolver.invalidate("/");
+            index.invalidate();
+            quotas.recompute(root);
+            // Working directories the snapshot does not have fall back to the root
+            synchronized (sessions) {
+                for (FSSession open : sessions) {
+                    Directory cwd = resolver.resolve(root, open.getCurrentDirectory().getFullPath());
+                    open.setCurrentDirectory(cwd != null ? cwd : root);
+                }
+            }
+            checkpoint();
+        } finally {
+            unlockAll();
+        }
+        fireEvent(FSEvent.Type.MODIFIED, "/", true);
+        return true;
+    }
+
+    /**
+     * Lists what changed between two snapshots, or since a snapshot if
+     * {@code to} is null. Returns false if a snapshot does not exist.
+     */
+    public boolean diffSnapshots(String from, String to, PrintWriter out) {
+        FSSnapshot before = snapshots.get(from);
+        FSSnapshot after = to != null ? snapshots.get(to) : null;
+        if (before == null || (to != null && after == null)) {
+            return false;
+        }
+        snapshots.diff(before, after, out);
+        return true;
+    }
+
+    /**
+     * Writes a snapshot to a standalone image file named {@code fileName} in
+     * the export directory, and returns the file. No locks are held, so this
+     * yields a consistent backup while the live tree keeps changing.
+     */
+    public File exportSnapshot(FSSnapshot snapshot, String fileName) throws IOException {
+        if (fileName.isEmpty() || fileName.contains("/") || fileName.contains(File.separator)
+                || fileName.equals(".") || fileName.equals("..")) {
+            throw new IOException("Invalid export file name: " + fileName);
+        }
+        File directory = snapshots.getExportDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory.getPath());
+        }
+        File file = new File(directory, fileName);
+        FSImage.write(snapshot.getRoot(), file, 0);
+        return file;
+    }
+
+    /**
+     * Sets the host directory snapshots are exported to, for every session.
+     * Not reachable from a shell, so sessions cannot write elsewhere on the host.
+     */
+    public void setExportDirectory(File directory) {
+        snapshots.setExportDirectory(directory);
+    }
+
+    /**
+     * Returns the paths of files whose bodies contain every clause, each
+     * clause matched as a phrase, in path order. Only files under
+     * {@code dirPath} are returned if it is not null.
+     */
+    public List<String> search(List<String> clauses, String dirPath) {
+        Directory dir = dirPath != null ? getDirectory(dirPath) : null;
+        if (dirPath != null && dir == null) {
+            return new ArrayList<>();
+        }
+        return index.search(clauses, dir != null ? dir.getFullPath() : null);
+    }
+
+    /**
+     * Number of files and distinct terms in the search index.
+     */
+    public int[] getIndexStats() {
+        return new int[] { index.getDocumentCount(), index.getTermCount() };
+    }
+
+    /**
+     * Sets the quota limits of a user; 0 leaves a limit off. Usage over a
+     * new soft limit starts its grace period now.
+     */
+    public void setQuota(String user, long softSize, long hardSize, long softEntries, long hardEntries) {
+        // Limits are saved by checkpoints, so the record must fall on one side of a checkpoint
+        lockAll();
+        try {
+            journal.logSetQuota(user, softSize, hardSize, softEntries, hardEntries);
+            quotas.setLimits(user, softSize, hardSize, softEntries, hardEntries);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public FSQuotas.Usage getQuota(String user) {
+        return quotas.getUsage(user);
+    }
+
+    public Map<String, FSQuotas.Usage> getQuotas() {
+        return quotas.getUsages();
+    }
+
+    /**
+     * Formats a size with a binary unit suffix, e.g. {@code 1.5K} or {@code 12M}.
+     */
+    public static String formatSize(long size) {
+        String units = "KMGTPE";
+        if (size < 1024) {
+            return Long.toString(size);
+        }
+        int unit = -1;
+        double value = size;
+        // Moves up a unit as soon as the value would round to 1024
+        while (value >= 1023.5 && unit < units.length() - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return (value < 10 ? String.format("%.1f", value) : String.format("%.0f", value)) + units.charAt(unit);
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.unlock();
+        }
     }
 
     // Add this method to Terminal.java's processCommand method
@@ -147,6 +507,30 @@ public class FileSystem {
         System.out.println("File system state saved.");
     }
 
+    /**
+     * User that new entries belong to: whoever is logged in, also while
+     * using sudo, or root while the system is being set up.
+     */
+    private String currentOwner() {
+        if (setupMode || userManager == null || userManager.getCurrentUser() == null) {
+            return "root";
+        }
+        return userManager.getCurrentUsername();
+    }
+
+    // Charges a live change to its owner, reporting a refusal or a newly exceeded soft limit
+    private boolean reserve(String owner, long size, long entries) {
+        FSQuotas.Result result = quotas.reserve(owner, size, entries);
+        if (result == FSQuotas.Result.DENIED) {
+            System.out.println("Disk quota exceeded");
+            return false;
+        }
+        if (result == FSQuotas.Result.SOFT_LIMIT_EXCEEDED) {
+            System.out.println("Warning: " + owner + " is over the disk quota soft limit");
+        }
+        return true;
+    }
+
     private boolean checkPermission(String operation) {
         // Bypass permission check during setup
         if (setupMode) {
@@ -156,7 +540,7 @@ public class FileSystem {
     }
 
     public Directory getCurrentDirectory() {
-        return currentDirectory;
+        return session.getCurrentDirectory();
     }
 
     public void setSetupMode(boolean setupMode) {
@@ -167,56 +551,304 @@ public class FileSystem {
         return userManager;
     }
 
+    public void addListener(FSListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(FSListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireEvent(FSEvent.Type type, String path, boolean directory) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        FSEvent event = new FSEvent(type, path, directory);
+        for (FSListener listener : listeners) {
+            listener.onEvent(event);
+        }
+    }
+
     public void deleteDirectory(String path) {
         if (!checkPermission("write")) {
             System.out.println("Permission denied");
             return;
         }
 
-        if (path.equals("/") || path.equals("/root")) {
+        Directory target = resolver.resolve(session.getCurrentDirectory(), path);
+        if (target == null) {
+            System.out.println("Directory not found: " + path);
+            return;
+        }
+        if (target == root || target.getFullPath().equals("/root")) {
             System.out.println("Cannot delete root or /root directory");
             return;
         }
 
-        if (path.startsWith("/")) {
-            String[] parts = path.split("/");
-            Directory current = root;
-            Directory parent = null;
-            String lastPart = "";
-            
-            for (String part : parts) {
-                if (!part.isEmpty()) {
-                    parent = current;
-                    current = current.getChild(part);
-                    lastPart = part;
-                    if (current == null) {
-                        System.out.println("Directory not found: " + path);
-                        return;
-                    }
-                }
-            }
-            
-            if (parent != null && current != null) {
-                parent.getChildren().remove(lastPart);
-                System.out.println("Removed directory: " + path);
-            }
-        } else {
-            Directory target = currentDirectory.getChild(path);
-            if (target != null) {
-                currentDirectory.getChildren().remove(path);
-                System.out.println("Removed directory: " + path);
-            } else {
-                System.out.println("Directory not found: " + path);
+        Directory parent = target.getParent();
+        // Writers below the target hold other stripes, so all are taken
+        // to settle its totals and keep later writes out of it
+        lockAll();
+        try {
+            if (parent.isAttached() && parent.getChild(target.getName()) == target) {
+                journal.logDeleteDirectory(parent.getFullPath(), target.getName());
+                quotas.chargeTree(target, -1);
+                target.detach();
+                parent.removeChild(target.getName());
+                resolver.invalidate(target.getFullPath());
+                index.directoryDeleted(target.getFullPath());
             }
+        } finally {
+            unlockAll();
         }
+        fireEvent(FSEvent.Type.DELETED, target.getFullPath(), true);
+        System.out.println("Removed directory: " + path);
     }
 
     // Add this method to FileSystem class
     public String readFileContent(String filename) {
-        FSFile file = currentDirectory.getFile(filename);
+        FSFile file = getFile(filename);
         if (file != null) {
             return file.getContent();
         }
         throw new RuntimeException("File not found: " + filename);
     }
-} 
\ No newline at end of file
+
+    private Directory applyCreateDirectory(Directory parent, String name, String owner, boolean live) {
+        Directory child = parent.getChild(name);
+        if (child != null) {
+            return child;
+        }
+        ReentrantLock lock = lockFor(parent);
+        lock.lock();
+        try {
+            if (!parent.isAttached()) {
+                if (live) {
+                    System.out.println("Directory not found: " + parent.getFullPath());
+                }
+                return null;
+            }
+            child = parent.getChild(name);
+            if (child != null) {
+                return child;
+            }
+            if (live) {
+                if (!reserve(owner, 0, 1)) {
+                    return null;
+                }
+                journal.logCreateDirectory(parent.getFullPath(), name, owner);
+            } else {
+                quotas.charge(owner != null ? owner : "root", 0, 1);
+            }
+            child = new Directory(name, parent);
+            child.setOwner(owner);
+            parent.addChild(child);
+        } finally {
+            lock.unlock();
+        }
+        if (live) {
+            fireEvent(FSEvent.Type.CREATED, child.getFullPath(), true);
+        }
+        return child;
+    }
+
+    private boolean removeFile(Directory dir, String name) {
+        ReentrantLock lock = lockFor(dir);
+        lock.lock();
+        try {
+            FSFile file = dir.getFile(name);
+            if (file == null || !dir.isAttached()) {
+                return false;
+            }
+            journal.logDeleteFile(dir.getFullPath(), name);
+            quotas.charge(file.getOwner(), -file.length(), -1);
+            index.fileChanged(FSEvent.childPath(dir.getFullPath(), name));
+            return dir.removeFile(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(Directory dir) {
+        return locks[System.identityHashCode(dir) & (LOCK_STRIPES - 1)];
+    }
+
+    private Directory lookupDirectory(String path) {
+        return resolver.resolve(root, path);
+    }
+
+    // Directory holding the entry named by the last component of path
+    private Directory resolveParent(String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash < 0) {
+            return session.getCurrentDirectory();
+        }
+        return resolver.resolve(session.getCurrentDirectory(), slash == 0 ? "/" : path.substring(0, slash));
+    }
+
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String parentPathOf(List<String> parts, int count) {
+        return count == 0 ? "/" : "/" + String.join("/", parts.subList(0, count));
+    }
+
+    private class FileWriter extends Writer {
+        private final Directory dir;
+        private final String name;
+        private final StringBuilder buffer = new StringBuilder();
+        private boolean closed;
+
+        FileWriter(Directory dir, String name) {
+            this.dir = dir;
+            this.name = name;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Writer closed");
+            }
+            buffer.append(cbuf, off, len);
+            if (buffer.length() >= WRITE_CHUNK) {
+                flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.length() == 0) {
+                return;
+            }
+            String chunk = buffer.toString();
+            buffer.setLength(0);
+            ReentrantLock lock = lockFor(dir);
+            lock.lock();
+            try {
+                FSFile file = dir.getFile(name);
+                // Text for a file whose directory was removed goes nowhere, as for a deleted file
+                if (file != null && dir.isAttached()) {
+                    if (quotas.reserve(file.getOwner(), chunk.length(), 0) == FSQuotas.Result.DENIED) {
+                        throw new IOException("Disk quota exceeded");
+                    }
+                    if (snapshots.isShared(file)) {
+                        // Leave the body and times a snapshot sees untouched
+                        file = file.copy();
+                        dir.addFile(file);
+                    }
+                    file.updateModificationTime();
+                    journal.logAppendFile(dir.getFullPath(), name, chunk, file.getModificationTime());
+                    file.append(chunk);
+                    dir.addToTotals(chunk.length(), 0, 0);
+                    index.fileChanged(FSEvent.childPath(dir.getFullPath(), name));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                closed = true;
+                finish();
+            }
+        }
+
+        private void finish() {
+            ReentrantLock lock = lockFor(dir);
+            lock.lock();
+            try {
+                FSFile file = dir.getFile(name);
+                if (file != null) {
+                    file.compact();
+                }
+            } finally {
+                lock.unlock();
+            }
+            fireEvent(FSEvent.Type.MODIFIED, FSEvent.childPath(dir.getFullPath(), name), false);
+        }
+    }
+
+    /**
+     * Applies journaled operations directly to the tree, bypassing permission
+     * checks and without re-journaling them.
+     */
+    private class JournalReplayer implements FSJournal.Handler {
+        @Override
+        public void createDirectory(String parentPath, String name, String owner) {
+            Directory parent = lookupDirectory(parentPath);
+            if (parent != null) {
+                applyCreateDirectory(parent, name, owner, false);
+            }
+        }
+
+        @Override
+        public void createFile(String dirPath, String name, String content, String owner,
+                long creationTime, long modificationTime) {
+            Directory dir = lookupDirectory(dirPath);
+            if (dir != null) {
+                // Records from before times were journaled take the time of replay
+                FSFile file = creationTime < 0 ? new FSFile(name, content)
+                    : new FSFile(name, new InlineContent(content), creationTime, modificationTime);
+                file.setOwner(owner);
+                FSFile previous = dir.getFile(name);
+                if (previous != null) {
+                    quotas.charge(previous.getOwner(), -previous.length(), -1);
+                }
+                quotas.charge(file.getOwner(), file.length(), 1);
+                dir.addFile(file);
+                index.fileChanged(FSEvent.childPath(dirPath, name));
+            }
+        }
+
+        @Override
+        public void deleteFile(String dirPath, String name) {
+            Directory dir = lookupDirectory(dirPath);
+            FSFile file = dir != null ? dir.getFile(name) : null;
+            if (file != null) {
+                quotas.charge(file.getOwner(), -file.length(), -1);
+                dir.removeFile(name);
+                index.fileChanged(FSEvent.childPath(dirPath, name));
+            }
+        }
+
+        @Override
+        public void appendFile(String dirPath, String name, String text, long modificationTime) {
+            Directory dir = lookupDirectory(dirPath);
+            FSFile file = dir != null ? dir.getFile(name) : null;
+            if (file != null) {
+                file.append(text);
+                if (modificationTime >= 0) {
+                    file.setModificationTime(modificationTime);
+                }
+                dir.addToTotals(text.length(), 0, 0);
+                quotas.charge(file.getOwner(), text.length(), 0);
+                index.fileChanged(FSEvent.childPath(dirPath, name));
+            }
+        }
+
+        @Override
+        public void setQuota(String owner, long softSize, long hardSize, long softEntries, long hardEntries) {
+            quotas.setLimits(owner, softSize, hardSize, softEntries, hardEntries);
+        }
+
+        @Override
+        public void deleteDirectory(String parentPath, String name) {
+            Directory parent = lookupDirectory(parentPath);
+            Directory target = parent != null ? parent.getChild(name) : null;
+            if (target != null) {
+                quotas.chargeTree(target, -1);
+                parent.removeChild(name);
+                resolver.invalidate(FSEvent.childPath(parentPath, name));
+                index.directoryDeleted(FSEvent.childPath(parentPath, name));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.worknix;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * File body held directly on the heap. Used for small files and for files
+ * written since the last checkpoint.
+ */
+public class InlineContent implements FSContent {
+    private final String content;
+
+    public InlineContent(String content) {
+        this.content = content == null ? "" : content;
+    }
+
+    @Override
+    public int length() {
+        return content.length();
+    }
+
+    @Override
+    public String read(int offset, int count) {
+        int start = Math.min(Math.max(offset, 0), content.length());
+        int end = Math.min(content.length(), start + Math.max(count, 0));
+        return content.substring(start, end);
+    }
+
+    @Override
+    public Reader openReader() {
+        return new StringReader(content);
+    }
+
+    @Override
+    public String asString() {
+        return content;
+    }
+}
@@ -2,6 +2,7 @@ package com.worknix;
 
 import com.worknix.boot.BootManager;
 import com.worknix.desktop.WorkNixDE;
+import com.worknix.server.ShellServer;
 
 public class Main {
     public static void main(String[] args) {
@@ -11,8 +12,15 @@ public class Main {
         
         // Check for GUI mode
         boolean guiMode = args.length > 0 && args[0].equals("--gui");
+        boolean serverMode = args.length > 0 && args[0].equals("--server");
         
-        if (guiMode) {
+        if (serverMode) {
+            // Serve shell sessions to local clients from one shared file system
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : ShellServer.DEFAULT_PORT;
+            FileSystem fileSystem = new FileSystem();
+            Terminal.runFirstBootSetup(fileSystem);
+            new ShellServer(fileSystem, port).start();
+        } else if (guiMode) {
             // Start desktop environment
             javax.swing.SwingUtilities.invokeLater(() -> {
                 WorkNixDE de = new WorkNixDE();
@@ -0,0 +1,120 @@
+package com.worknix;
+
+import java.io.Reader;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+
+/**
+ * File body split into pages that stay in the mapped image until read.
+ * Decoded pages are only softly reachable, so the collector drops them under
+ * memory pressure and they are decoded again on the next access.
+ */
+public class PagedContent implements FSContent {
+    /**
+     * Loads the characters of one page from backing storage.
+     */
+    public interface PageSource {
+        String loadPage(int page);
+    }
+
+    private final PageSource source;
+    // Character offset at which each page starts, plus the total length
+    private final int[] pageStarts;
+    private SoftReference<String>[] cache;
+
+    public PagedContent(PageSource source, int[] pageStarts) {
+        this.source = source;
+        this.pageStarts = pageStarts;
+    }
+
+    public int getPageCount() {
+        return pageStarts.length - 1;
+    }
+
+    /**
+     * Character offset at which a page starts; {@code getPageStart(getPageCount())}
+     * is the length of the body.
+     */
+    public int getPageStart(int page) {
+        return pageStarts[page];
+    }
+
+    @Override
+    public int length() {
+        return pageStarts[pageStarts.length - 1];
+    }
+
+    @Override
+    public String read(int offset, int count) {
+        int start = Math.min(Math.max(offset, 0), length());
+        int end = Math.min(length(), start + Math.max(count, 0));
+        StringBuilder sb = new StringBuilder(end - start);
+        int page = pageOf(start);
+        while (start < end) {
+            String text = page(page);
+            int from = start - pageStarts[page];
+            int to = Math.min(text.length(), end - pageStarts[page]);
+            sb.append(text, from, to);
+            start = pageStarts[page] + to;
+            page++;
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Reader openReader() {
+        return new Reader() {
+            private int page = 0;
+            private int position = 0;
+
+            @Override
+            public int read(char[] buf, int off, int len) {
+                while (page < getPageCount() && position >= pageStarts[page + 1] - pageStarts[page]) {
+                    page++;
+                    position = 0;
+                }
+                if (page >= getPageCount()) {
+                    return -1;
+                }
+                String text = page(page);
+                int n = Math.min(len, text.length() - position);
+                text.getChars(position, position + n, buf, off);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public String asString() {
+        return read(0, length());
+    }
+
+    private int pageOf(int offset) {
+        int index = Arrays.binarySearch(pageStarts, 0, getPageCount(), offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the text of one page, loading it if it is not cached.
+     */
+    protected synchronized String page(int page) {
+        if (cache == null) {
+            // Arrays of a generic type can only be made as a wildcard array and cast
+            @SuppressWarnings("unchecked")
+            SoftReference<String>[] pages = (SoftReference<String>[]) new SoftReference<?>[getPageCount()];
+            cache = pages;
+        }
+        SoftReference<String> ref = cache[page];
+        String text = ref != null ? ref.get() : null;
+        if (text == null) {
+            text = source.loadPage(page);
+            cache[page] = new SoftReference<>(text);
+        }
+        return text;
+    }
+}
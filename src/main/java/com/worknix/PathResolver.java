@@ -0,0 +1,172 @@
+package com.worknix;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Resolves slash-separated paths to directories.
+ *
+ * Names stored in the tree are interned so that equal names across it share
+ * one String; the table holds them weakly, so names no entry uses any more
+ * drop out, and names that are only looked up are never added. Resolved absolute paths are kept in a bounded LRU cache, which
+ * {@link FileSystem} invalidates whenever a directory is removed. The tree is
+ * walked without holding the cache lock, so a walk that overlaps an
+ * invalidation does not put its result in the cache.
+ */
+public class PathResolver {
+    private static final int CACHE_SIZE = 1024;
+    // Guarded by itself
+    private static final Map<String, WeakReference<String>> ATOMS = new WeakHashMap<>();
+
+    private final Directory root;
+    private final Map<String, Directory> cache =
+        new LinkedHashMap<String, Directory>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Directory> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    // Bumped by every invalidation, guarded by the cache lock
+    private long generation;
+
+    public PathResolver(Directory root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the canonical instance of a name stored in the tree.
+     */
+    public static String atom(String name) {
+        synchronized (ATOMS) {
+            WeakReference<String> ref = ATOMS.get(name);
+            String existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            ATOMS.put(name, new WeakReference<>(name));
+            return name;
+        }
+    }
+
+    /**
+     * Resolves {@code path}, absolute or relative to {@code base}, to a
+     * directory. Returns null if any component does not exist.
+     */
+    public Directory resolve(Directory base, String path) {
+        if (path.equals("/")) {
+            return root;
+        }
+        String absolute = path.startsWith("/") ? path : FSEvent.childPath(base.getFullPath(), path);
+        if (!isNormalized(absolute)) {
+            absolute = normalize(absolute);
+        }
+        long walkGeneration;
+        synchronized (cache) {
+            Directory cached = cache.get(absolute);
+            if (cached != null) {
+                return cached;
+            }
+            walkGeneration = generation;
+        }
+
+        Directory current = root;
+        for (String part : components(absolute)) {
+            current = current.getChild(part);
+            if (current == null) {
+                return null;
+            }
+        }
+        synchronized (cache) {
+            // The walk may have passed a directory that has since been removed
+            if (generation == walkGeneration) {
+                cache.put(absolute, current);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Drops cached entries for {@code path} and everything below it.
+     */
+    public void invalidate(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (cache) {
+            generation++;
+            Iterator<String> it = cache.keySet().iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                if (key.equals(path) || key.startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits an absolute path into components, applying "." and "..".
+     */
+    public static List<String> components(String path) {
+        List<String> parts = new ArrayList<>();
+        int length = path.length();
+        int start = 0;
+        while (start < length) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                slash = length;
+            }
+            if (slash > start) {
+                String part = path.substring(start, slash);
+                if (part.equals("..")) {
+                    if (!parts.isEmpty()) {
+                        parts.remove(parts.size() - 1);
+                    }
+                } else if (!part.equals(".")) {
+                    parts.add(part);
+                }
+            }
+            start = slash + 1;
+        }
+        return parts;
+    }
+
+    /**
+     * Returns the canonical form of an absolute path.
+     */
+    public static String normalize(String path) {
+        List<String> parts = components(path);
+        return parts.isEmpty() ? "/" : "/" + String.join("/", parts);
+    }
+
+    // True when the path has no empty, "." or ".." components and no trailing slash
+    private static boolean isNormalized(String path) {
+        int length = path.length();
+        if (length == 0 || path.charAt(0) != '/') {
+            return false;
+        }
+        if (length == 1) {
+            return true;
+        }
+        int start = 1;
+        while (start <= length) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                slash = length;
+            }
+            int partLength = slash - start;
+            if (partLength == 0) {
+                return false;
+            }
+            if (path.charAt(start) == '.' && (partLength == 1
+                    || (partLength == 2 && path.charAt(start + 1) == '.'))) {
+                return false;
+            }
+            start = slash + 1;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+package com.worknix;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only view of a live directory as a snapshot sees it. Entries are
+ * resolved through the directory's history on every access, so the view
+ * stays stable while the live directory changes.
+ */
+class SnapshotDirectory extends Directory {
+    private static final long serialVersionUID = 1L;
+
+    private final Directory target;
+    private final long epoch;
+
+    SnapshotDirectory(Directory target, long epoch, SnapshotDirectory parent) {
+        super(target.getName(), parent);
+        this.target = target;
+        this.epoch = epoch;
+    }
+
+    Directory getTarget() {
+        return target;
+    }
+
+    @Override
+    public String getOwner() {
+        return target.getOwner();
+    }
+
+    // A snapshot's totals are not maintained, so they are counted on demand
+
+    @Override
+    public long getTotalSize() {
+        long size = 0;
+        for (FSFile file : getFiles().values()) {
+            size += file.length();
+        }
+        for (Directory child : getChildren().values()) {
+            size += child.getTotalSize();
+        }
+        return size;
+    }
+
+    @Override
+    public long getTotalFiles() {
+        long count = getFiles().size();
+        for (Directory child : getChildren().values()) {
+            count += child.getTotalFiles();
+        }
+        return count;
+    }
+
+    @Override
+    public long getTotalDirectories() {
+        long count = 0;
+        for (Directory child : getChildren().values()) {
+            count += child.getTotalDirectories() + 1;
+        }
+        return count;
+    }
+
+    @Override
+    public Directory getChild(String name) {
+        Directory child = target.entriesAt(epoch).children.get(name);
+        return child != null ? new SnapshotDirectory(child, epoch, this) : null;
+    }
+
+    @Override
+    public FSFile getFile(String name) {
+        return target.entriesAt(epoch).files.get(name);
+    }
+
+    @Override
+    public Map<String, Directory> getChildren() {
+        Map<String, Directory> views = new LinkedHashMap<>();
+        for (Directory child : target.entriesAt(epoch).children.values()) {
+            views.put(child.getName(), new SnapshotDirectory(child, epoch, this));
+        }
+        return views;
+    }
+
+    @Override
+    public Map<String, FSFile> getFiles() {
+        return target.entriesAt(epoch).files;
+    }
+
+    @Override
+    public void list() {
+        Directory.Version entries = target.entriesAt(epoch);
+        System.out.println("Contents of " + getFullPath() + ":");
+        for (String childName : entries.children.keySet()) {
+            System.out.println(childName + "/");
+        }
+        for (String fileName : entries.files.keySet()) {
+            System.out.println(fileName);
+        }
+    }
+
+    @Override
+    public void addChild(Directory child) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public void addFile(FSFile file) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public boolean removeFile(String name) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public Directory removeChild(String name) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+
+    @Override
+    public void setParent(Directory parent) {
+        throw new UnsupportedOperationException("Snapshot is read-only");
+    }
+}
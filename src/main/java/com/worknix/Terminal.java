@@ -2,40 +2,66 @@ package com.worknix;
 
 import com.worknix.user.UserManager;
 import com.worknix.setup.SystemSetupWizard;
+import com.worknix.shell.Pipeline;
+import com.worknix.shell.PipelineExecutor;
+import com.worknix.shell.ScriptInterpreter;
+import com.worknix.shell.ShellParser;
 import java.util.Scanner;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 
 public class Terminal {
     private final FileSystem fileSystem;
     private final BusyBox busyBox;
     private final Scanner scanner;
     private final UserManager userManager;
-    private boolean running;
+    private final PipelineExecutor executor;
+    private volatile boolean running;
     private static final String SETUP_FLAG_FILE = "worknix_setup_complete";
     
     public Terminal() {
-        this.fileSystem = new FileSystem();
+        this(new FileSystem(), System.in);
+
+        runFirstBootSetup(fileSystem);
+        if (!login()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates a terminal that reads commands from {@code in} and prints to
+     * System.out. The caller is responsible for calling {@link #login()}.
+     */
+    public Terminal(FileSystem fileSystem, InputStream in) {
+        this.fileSystem = fileSystem;
         this.userManager = fileSystem.getUserManager();
         this.busyBox = new BusyBox(fileSystem);
-        this.scanner = new Scanner(System.in);
+        this.scanner = new Scanner(in);
+        this.executor = new PipelineExecutor(fileSystem, this::processCommand);
         this.running = true;
+        registerSessionApplets();
+    }
 
+    /**
+     * Runs the setup wizard on the console if this system has never been set up.
+     */
+    public static void runFirstBootSetup(FileSystem fileSystem) {
         if (isFirstBoot()) {
-            SystemSetupWizard wizard = new SystemSetupWizard(userManager, fileSystem);
+            SystemSetupWizard wizard = new SystemSetupWizard(fileSystem.getUserManager(), fileSystem);
             wizard.runSetup();
             markSetupComplete();
         }
-        
-        login();
     }
 
-    private boolean isFirstBoot() {
+    private static boolean isFirstBoot() {
         File setupFlag = new File(SETUP_FLAG_FILE);
         return !setupFlag.exists();
     }
 
-    private void markSetupComplete() {
+    private static void markSetupComplete() {
         try {
             File setupFlag = new File(SETUP_FLAG_FILE);
             setupFlag.createNewFile();
@@ -44,26 +70,35 @@ public class Terminal {
         }
     }
 
-    private void login() {
+    /**
+     * Prompts for credentials. Returns false after three failed attempts.
+     */
+    public boolean login() {
         int attempts = 0;
         while (attempts < 3) {
             System.out.print("login: ");
+            if (!scanner.hasNextLine()) {
+                return false;
+            }
             String username = scanner.nextLine();
             System.out.print("password: ");
+            if (!scanner.hasNextLine()) {
+                return false;
+            }
             String password = scanner.nextLine();
 
             if (userManager.login(username, password)) {
                 System.out.println("Welcome to WorkNix!");
                 String homeDir = userManager.getCurrentUser().getHomeDirectory();
                 fileSystem.changeDirectory(homeDir);
-                return;
+                return true;
             } else {
                 System.out.println("Login incorrect");
                 attempts++;
             }
         }
         System.out.println("Too many failed attempts. Please try again later.");
-        System.exit(1);
+        return false;
     }
     
     public void start() {
@@ -73,149 +108,81 @@ public class Terminal {
         while (running) {
             String prompt = userManager.isRoot() ? "# " : "$ ";
             System.out.print(userManager.getCurrentUsername() + "@worknix:" + fileSystem.getCurrentPath() + prompt);
+            if (!scanner.hasNextLine()) {
+                // Input closed, e.g. a remote session disconnected
+                fileSystem.saveState();
+                break;
+            }
             String input = scanner.nextLine().trim();
             if (!input.isEmpty()) {
-                processCommand(input.split("\\s+"));
+                runLine(input);
             }
         }
     }
-    
-    private void processCommand(String[] args) {
-        String command = args[0].toLowerCase();
-        
-        switch (command) {
-            case "sudo":
-                if (args.length > 1) {
-                    System.out.print("[sudo] password for " + userManager.getCurrentUsername() + ": ");
-                    String password = scanner.nextLine();
-                    if (userManager.sudo(password)) {
-                        String[] newArgs = new String[args.length - 1];
-                        System.arraycopy(args, 1, newArgs, 0, args.length - 1);
-                        processCommand(newArgs);
-                        userManager.exitSudo();
-                    } else {
-                        System.out.println("Sorry, try again.");
-                    }
-                } else {
-                    System.out.println("usage: sudo command");
-                }
-                break;
-            case "whoami":
-                System.out.println(userManager.getCurrentUsername());
-                break;
-            case "su":
-                if (args.length > 1) {
-                    System.out.print("Password: ");
-                    String password = scanner.nextLine();
-                    if (!userManager.login(args[1], password)) {
-                        System.out.println("su: Authentication failure");
-                    }
-                } else {
-                    System.out.print("Password: ");
-                    String password = scanner.nextLine();
-                    userManager.login("root", password);
-                }
-                break;
-            case "exit":
-                fileSystem.saveState();
-                running = false;
-                break;
-            case "help":
-                showHelp();
-                break;
-            case "ls":
-                fileSystem.listCurrentDirectory();
-                break;
-            case "pwd":
-                busyBox.pwd();
-                break;
-            case "date":
-                busyBox.date();
-                break;
-            case "echo":
-                busyBox.echo(args);
-                break;
-            case "cat":
-                busyBox.cat(args);
-                break;
-            case "touch":
-                busyBox.touch(args);
-                break;
-            case "mkdir":
-                busyBox.mkdir(args);
-                break;
-            case "rm":
-                busyBox.rm(args);
-                break;
-            case "cd":
-                busyBox.cd(args);
-                break;
-            case "sync":
-                fileSystem.sync();
-                break;
-            case "vi":
-                busyBox.vi(args);
-                break;
-            case "pkg":
-                if (!userManager.isRoot()) {
-                    System.out.println("Package management requires root privileges");
-                    System.out.println("Try: sudo pkg ...");
-                    return;
-                }
-                busyBox.pkg(args);
-                break;
-            case "useradd":
-                if (!userManager.isRoot()) {
-                    System.out.println("This operation requires root privileges");
-                    System.out.println("Try: sudo useradd ...");
-                    return;
-                }
-                busyBox.useradd(args);
-                break;
-            case "userdel":
-                if (!userManager.isRoot()) {
-                    System.out.println("This operation requires root privileges");
-                    System.out.println("Try: sudo userdel ...");
-                    return;
-                }
-                busyBox.userdel(args);
-                break;
-            case "passwd":
-                busyBox.passwd(args);
-                break;
-            default:
-                if (command.startsWith("/")) {
-                    // Check if trying to execute a file
-                    if (!userManager.isRoot()) {
-                        System.out.println("Permission denied");
-                        return;
-                    }
+
+    private void runLine(String line) {
+        try {
+            for (Pipeline pipeline : ShellParser.parseLine(line).expand(ScriptInterpreter.environment(fileSystem))) {
+                executor.execute(pipeline);
+                if (!running) {
+                    break;
                 }
-                System.out.println("Unknown command: " + command);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("sh: " + e.getMessage());
         }
     }
     
-    private void showHelp() {
-        System.out.println("Available commands:");
-        System.out.println("  help   - Show this help message");
-        System.out.println("  ls     - List files in current directory");
-        System.out.println("  pwd    - Print working directory");
-        System.out.println("  cd     - Change directory");
-        System.out.println("  mkdir  - Create directory");
-        System.out.println("  touch  - Create empty file");
-        System.out.println("  cat    - Display file contents");
-        System.out.println("  rm     - Remove file");
-        System.out.println("  echo   - Display a line of text");
-        System.out.println("  date   - Display current date and time");
-        System.out.println("  exit   - Exit the terminal");
-        System.out.println("  sync   - Save file system state to disk");
-        System.out.println("  sudo   - Execute command as superuser");
-        System.out.println("  su     - Switch user");
-        System.out.println("  whoami - Print current user name");
-        System.out.println("  vi     - Text editor");
-        System.out.println("  pkg    - Package manager");
-        System.out.println("  useradd - Create a new user");
-        System.out.println("  userdel - Delete a user");
-        System.out.println("  passwd  - Change password");
+    /**
+     * Adds the applets that act on this terminal's session rather than on
+     * the file system.
+     */
+    private void registerSessionApplets() {
+        busyBox.register(Applet.of("sudo", "Execute command as superuser", false, this::sudo));
+        busyBox.register(Applet.of("su", "Switch user", false, (args, in, out) -> su(args)));
+        busyBox.register(Applet.of("exit", "Exit the terminal", false, (args, in, out) -> {
+            fileSystem.saveState();
+            running = false;
+        }));
+    }
+
+    /**
+     * Runs one command of a pipeline. Commands that produce or consume data
+     * use {@code in} and {@code out}; the rest print to System.out, which the
+     * pipeline executor routes to the same place.
+     */
+    private void processCommand(String[] args, BufferedReader in, PrintWriter out) {
+        busyBox.execute(args, in, out);
+    }
+
+    private void sudo(String[] args, BufferedReader in, PrintWriter out) {
+        if (args.length > 1) {
+            System.out.print("[sudo] password for " + userManager.getCurrentUsername() + ": ");
+            String password = scanner.nextLine();
+            if (userManager.sudo(password)) {
+                String[] newArgs = new String[args.length - 1];
+                System.arraycopy(args, 1, newArgs, 0, args.length - 1);
+                processCommand(newArgs, in, out);
+                userManager.exitSudo();
+            } else {
+                System.out.println("Sorry, try again.");
+            }
+        } else {
+            System.out.println("usage: sudo command");
+        }
+    }
+
+    private void su(String[] args) {
+        if (args.length > 1) {
+            System.out.print("Password: ");
+            String password = scanner.nextLine();
+            if (!userManager.login(args[1], password)) {
+                System.out.println("su: Authentication failure");
+            }
+        } else {
+            System.out.print("Password: ");
+            String password = scanner.nextLine();
+            userManager.login("root", password);
+        }
     }
-} 
\ No newline at end of file
+}
@@ -2,6 +2,8 @@ package com.worknix.boot;
 
 import java.util.Scanner;
 import java.io.IOException;
+import com.worknix.FSPersistence;
+import com.worknix.FileSystem;
 
 public class BootManager {
     private static final String BANNER = 
@@ -149,7 +151,15 @@ public class BootManager {
         System.out.println("Available disk devices:");
         System.out.println("/virtual-devices/disk@0,0");
         System.out.println("    Label: WorkNix-Root");
-        System.out.println("    Size: 1024MB");
+        System.out.println("    Size: " + FileSystem.formatSize(FileSystem.DISK_SIZE));
+        // Read from the image header, without loading the file system
+        long[] totals = FSPersistence.loadTreeTotals();
+        if (totals != null) {
+            System.out.println("    Used: " + FileSystem.formatSize(totals[0])
+                + " (" + totals[1] + " files, " + totals[2] + " directories)");
+        } else {
+            System.out.println("    Used: unknown");
+        }
         System.out.println("    Type: Virtual Disk");
     }
 
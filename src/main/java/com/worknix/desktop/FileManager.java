@@ -5,8 +5,14 @@ import java.awt.*;
 import java.awt.event.*;
 import com.worknix.FileSystem;
 import com.worknix.Directory;
+import com.worknix.FSEvent;
+import com.worknix.FSListener;
 import com.worknix.FSFile;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class FileManager extends JFrame {
     private final FileSystem fileSystem;
@@ -14,13 +20,15 @@ public class FileManager extends JFrame {
     private final DefaultListModel<String> listModel;
     private final JLabel pathLabel;
     private Directory currentDirectory;
+    // Applies changes made by other windows without reloading the listing
+    private final FSListener listener = event -> SwingUtilities.invokeLater(() -> applyEvent(event));
 
-    public FileManager() {
+    public FileManager(FileSystem fileSystem) {
         super("WorkNix File Manager");
         setSize(800, 600);
         setLocationRelativeTo(null);
 
-        this.fileSystem = new FileSystem();
+        this.fileSystem = fileSystem;
         this.currentDirectory = fileSystem.getCurrentDirectory();
 
         // Create toolbar
@@ -30,10 +38,15 @@ public class FileManager extends JFrame {
         JButton upButton = new JButton("Up");
         JButton newFolderButton = new JButton("New Folder");
         JButton deleteButton = new JButton("Delete");
+        JTextField searchField = new JTextField(20);
+        JButton searchButton = new JButton("Search");
         
         toolbar.add(upButton);
         toolbar.add(newFolderButton);
         toolbar.add(deleteButton);
+        toolbar.addSeparator();
+        toolbar.add(searchField);
+        toolbar.add(searchButton);
 
         // Create path label
         pathLabel = new JLabel();
@@ -43,6 +56,15 @@ public class FileManager extends JFrame {
         listModel = new DefaultListModel<>();
         fileList = new JList<>(listModel);
         fileList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // Sizes come from the totals each folder keeps, so showing them costs no walk
+        fileList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, describe((String) value), index,
+                    isSelected, cellHasFocus);
+            }
+        });
         
         // Layout
         setLayout(new BorderLayout());
@@ -54,6 +76,8 @@ public class FileManager extends JFrame {
         upButton.addActionListener(e -> navigateUp());
         newFolderButton.addActionListener(e -> createNewFolder());
         deleteButton.addActionListener(e -> deleteSelected());
+        searchButton.addActionListener(e -> search(searchField.getText()));
+        searchField.addActionListener(e -> search(searchField.getText()));
 
         // Double click to navigate
         fileList.addMouseListener(new MouseAdapter() {
@@ -67,6 +91,55 @@ public class FileManager extends JFrame {
         refreshFileList();
     }
 
+    // The window follows the file system only while it is displayable, so once disposed nothing keeps it alive
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        fileSystem.addListener(listener);
+        // Changes made while the window was disposed were never seen
+        refreshFileList();
+    }
+
+    @Override
+    public void removeNotify() {
+        fileSystem.removeListener(listener);
+        super.removeNotify();
+    }
+
+    private String describe(String entry) {
+        if (entry.startsWith("[DIR] ")) {
+            Directory dir = currentDirectory.getChild(entry.substring(6));
+            return dir == null ? entry : entry + "    " + FileSystem.formatSize(dir.getTotalSize())
+                + ", " + dir.getTotalFiles() + " files";
+        }
+        FSFile file = currentDirectory.getFile(entry);
+        return file == null ? entry : entry + "    " + FileSystem.formatSize(file.length());
+    }
+
+    private void applyEvent(FSEvent event) {
+        // Any change below this folder may change the sizes shown
+        String path = currentDirectory.getFullPath();
+        if (event.getPath().startsWith(path.equals("/") ? "/" : path + "/")) {
+            fileList.repaint();
+        }
+        if (!event.getParentPath().equals(currentDirectory.getFullPath())) {
+            return;
+        }
+        String entry = event.isDirectory() ? "[DIR] " + event.getName() : event.getName();
+        switch (event.getType()) {
+            case CREATED:
+                if (!listModel.contains(entry)) {
+                    listModel.addElement(entry);
+                }
+                break;
+            case DELETED:
+                listModel.removeElement(entry);
+                break;
+            default:
+                break;
+        }
+    }
+
     private void refreshFileList() {
         listModel.clear();
         
@@ -107,11 +180,47 @@ public class FileManager extends JFrame {
         }
     }
 
+    /**
+     * Searches file contents below the current folder. Quoted text is
+     * matched as a phrase; choosing a result opens its folder.
+     */
+    private void search(String query) {
+        List<String> clauses = new ArrayList<>();
+        Matcher matcher = Pattern.compile("\"([^\"]*)\"|(\\S+)").matcher(query);
+        while (matcher.find()) {
+            clauses.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+        if (clauses.isEmpty()) {
+            return;
+        }
+        List<String> matches = fileSystem.search(clauses, currentDirectory.getFullPath());
+        if (matches.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No files found.", "Search", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JList<String> results = new JList<>(matches.toArray(new String[0]));
+        results.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        JScrollPane pane = new JScrollPane(results);
+        pane.setPreferredSize(new Dimension(500, 300));
+        int choice = JOptionPane.showConfirmDialog(this, pane, matches.size() + " files found",
+            JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        String selected = results.getSelectedValue();
+        if (choice == JOptionPane.OK_OPTION && selected != null) {
+            int slash = selected.lastIndexOf('/');
+            Directory dir = fileSystem.getDirectory(slash == 0 ? "/" : selected.substring(0, slash));
+            if (dir != null) {
+                currentDirectory = dir;
+                refreshFileList();
+                updatePathLabel();
+                fileList.setSelectedValue(selected.substring(slash + 1), true);
+            }
+        }
+    }
+
     private void createNewFolder() {
         String name = JOptionPane.showInputDialog(this, "Enter folder name:");
         if (name != null && !name.isEmpty()) {
-            fileSystem.createDirectory(name);
-            refreshFileList();
+            fileSystem.createDirectory(FSEvent.childPath(currentDirectory.getFullPath(), name));
         }
     }
 
@@ -124,13 +233,13 @@ public class FileManager extends JFrame {
                 JOptionPane.YES_NO_OPTION);
                 
             if (confirm == JOptionPane.YES_OPTION) {
+                String dirPath = currentDirectory.getFullPath();
                 if (selected.startsWith("[DIR] ")) {
                     String dirName = selected.substring(6);
-                    fileSystem.deleteDirectory(dirName);
+                    fileSystem.deleteDirectory(FSEvent.childPath(dirPath, dirName));
                 } else {
-                    fileSystem.deleteFile(selected);
+                    fileSystem.deleteFile(FSEvent.childPath(dirPath, selected));
                 }
-                refreshFileList();
             }
         }
     }
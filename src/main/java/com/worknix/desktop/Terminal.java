@@ -3,8 +3,22 @@ package com.worknix.desktop;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import com.worknix.Applet;
+import com.worknix.BusyBox;
 import com.worknix.FileSystem;
+import com.worknix.server.SessionConsole;
+import com.worknix.shell.Pipeline;
+import com.worknix.shell.PipelineExecutor;
+import com.worknix.shell.ScriptInterpreter;
+import com.worknix.shell.ShellParser;
 import com.worknix.user.UserManager;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.Charset;
 
 public class Terminal extends JFrame {
     private final JTextArea textArea;
@@ -12,15 +26,25 @@ public class Terminal extends JFrame {
     private final FileSystem fileSystem;
     private final UserManager userManager;
     private final StringBuilder commandHistory;
+    private final BusyBox busyBox;
+    private final PipelineExecutor executor;
 
-    public Terminal() {
+    public Terminal(FileSystem fileSystem) {
         super("WorkNix Terminal");
         setSize(600, 400);
         setLocationRelativeTo(null);
 
-        this.fileSystem = new FileSystem();
+        this.fileSystem = fileSystem;
         this.userManager = fileSystem.getUserManager();
         this.commandHistory = new StringBuilder();
+        this.busyBox = new BusyBox(fileSystem);
+        busyBox.register(Applet.of("clear", "Clear terminal screen", false,
+            (args, in, out) -> SwingUtilities.invokeLater(this::clearScreen)));
+        busyBox.register(Applet.of("exit", "Close terminal window", false,
+            (args, in, out) -> SwingUtilities.invokeLater(this::dispose)));
+        busyBox.register(Applet.of("sudo", "Execute command as superuser", false, this::sudo));
+        busyBox.register(Applet.of("su", "Switch user", false, (args, in, out) -> su(args)));
+        this.executor = new PipelineExecutor(fileSystem, busyBox::execute);
 
         // Create terminal text area
         textArea = new JTextArea();
@@ -44,8 +68,8 @@ public class Terminal extends JFrame {
         // Handle input
         inputField.addActionListener(e -> {
             String command = inputField.getText();
-            processCommand(command);
             inputField.setText("");
+            processCommand(command);
         });
 
         // Initial text
@@ -55,28 +79,95 @@ public class Terminal extends JFrame {
     }
 
     private void processCommand(String command) {
-        appendText(getPrompt() + command + "\n");
-        
-        if (command.equals("clear")) {
-            textArea.setText("");
+        appendText(command + "\n");
+        inputField.setEnabled(false);
+
+        // Commands run on a worker thread with System.out sent to the window, so
+        // the window stays responsive; there is no keyboard input, so commands
+        // that prompt see end of input
+        Thread worker = new Thread(() -> {
+            SessionConsole.bind(new ByteArrayInputStream(new byte[0]), new TextAreaOutputStream());
+            try {
+                for (Pipeline pipeline : ShellParser.parseLine(command).expand(ScriptInterpreter.environment(fileSystem))) {
+                    executor.execute(pipeline);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("sh: " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Error: " + e.getMessage());
+            } finally {
+                SessionConsole.unbind();
+                // Queued behind the command's output
+                SwingUtilities.invokeLater(this::commandFinished);
+            }
+        }, "terminal-command");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void commandFinished() {
+        if (isDisplayable()) {
             updatePrompt();
+            inputField.setEnabled(true);
+            inputField.requestFocusInWindow();
+        }
+    }
+
+    private void sudo(String[] args, BufferedReader in, PrintWriter out) {
+        if (args.length < 2) {
+            System.out.println("usage: sudo command");
+            return;
+        }
+        String password = askPassword("[sudo] password for " + userManager.getCurrentUsername() + ":");
+        if (password == null || !userManager.sudo(password)) {
+            System.out.println("Sorry, try again.");
             return;
         }
+        try {
+            String[] command = new String[args.length - 1];
+            System.arraycopy(args, 1, command, 0, command.length);
+            busyBox.execute(command, in, out);
+        } finally {
+            userManager.exitSudo();
+        }
+    }
 
-        // Process command and capture output
-        // This is a simplified version - you'll want to integrate with your existing Terminal class
-        if (command.equals("help")) {
-            appendText("Available commands:\n");
-            appendText("  help  - Show this help message\n");
-            appendText("  clear - Clear terminal screen\n");
-            appendText("  exit  - Close terminal window\n");
-        } else if (command.equals("exit")) {
-            dispose();
-        } else {
-            appendText("Unknown command: " + command + "\n");
+    private void su(String[] args) {
+        String user = args.length > 1 ? args[1] : "root";
+        String password = askPassword("Password for " + user + ":");
+        if (password == null || !userManager.login(user, password)) {
+            System.out.println("su: Authentication failure");
         }
-        
-        updatePrompt();
+    }
+
+    /**
+     * Asks for a password in a dialog, from a command's worker thread.
+     * Returns null if the dialog is cancelled.
+     */
+    private String askPassword(String prompt) {
+        String[] password = new String[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                JPasswordField field = new JPasswordField(20);
+                JPanel panel = new JPanel(new BorderLayout(0, 4));
+                panel.add(new JLabel(prompt), BorderLayout.NORTH);
+                panel.add(field, BorderLayout.CENTER);
+                int choice = JOptionPane.showConfirmDialog(this, panel, "Authentication",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+                if (choice == JOptionPane.OK_OPTION) {
+                    password[0] = new String(field.getPassword());
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            System.err.println("Error reading password: " + e.getCause().getMessage());
+        }
+        return password[0];
+    }
+
+    private void clearScreen() {
+        textArea.setText("");
     }
 
     private void appendText(String text) {
@@ -95,4 +186,36 @@ public class Terminal extends JFrame {
     private void updatePrompt() {
         appendText(getPrompt());
     }
+
+    /**
+     * Decodes command output and appends it to the text area.
+     */
+    private class TextAreaOutputStream extends OutputStream {
+        // Pipeline stages write errors from their own threads
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) {
+            pending.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            pending.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() {
+            String text = new String(pending.toByteArray(), Charset.defaultCharset());
+            pending.reset();
+            if (text.isEmpty()) {
+                return;
+            }
+            if (SwingUtilities.isEventDispatchThread()) {
+                appendText(text);
+            } else {
+                SwingUtilities.invokeLater(() -> appendText(text));
+            }
+        }
+    }
 } 
\ No newline at end of file
@@ -27,7 +27,7 @@ public class WorkNixDE extends JFrame {
         setUndecorated(true);
         setExtendedState(JFrame.MAXIMIZED_BOTH);
         
-        // Initialize FileSystem first
+        // Initialize FileSystem first; every window shares this instance
         this.fileSystem = new FileSystem();
 
         // Set the look and feel to be more Unix-like
@@ -38,8 +38,9 @@ public class WorkNixDE extends JFrame {
         }
 
         // Initialize components first
-        terminal = new Terminal();
-        fileManager = new FileManager();
+        // The terminal gets its own session so cd there doesn't move other windows
+        terminal = new Terminal(fileSystem.openSession());
+        fileManager = new FileManager(fileSystem);
         clock = new Clock();
 
         // Initialize new applications
@@ -3,12 +3,18 @@ package com.worknix.desktop.apps;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import com.worknix.FSEvent;
+import com.worknix.FSListener;
 import com.worknix.FileSystem;
 
 public class Notepad extends JFrame {
     private final JTextArea textArea;
     private final FileSystem fileSystem;
     private String currentFile = null;
+    // Absolute path of the open file and the text last loaded from or saved to it
+    private String currentPath = null;
+    private String savedText = "";
+    private final FSListener listener = event -> SwingUtilities.invokeLater(() -> applyEvent(event));
 
     public Notepad(FileSystem fileSystem) {
         super("WorkNix Notepad");
@@ -49,9 +55,40 @@ public class Notepad extends JFrame {
         add(new JScrollPane(textArea), BorderLayout.CENTER);
     }
 
+    // Listens only while displayable; Exit disposes the window, which must not stay reachable from the file system
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        fileSystem.addListener(listener);
+    }
+
+    @Override
+    public void removeNotify() {
+        fileSystem.removeListener(listener);
+        super.removeNotify();
+    }
+
+    private void applyEvent(FSEvent event) {
+        if (event.getType() != FSEvent.Type.MODIFIED || !event.getPath().equals(currentPath)) {
+            return;
+        }
+        // Pick up changes made elsewhere unless there are unsaved edits
+        if (textArea.getText().equals(savedText)) {
+            try {
+                String content = fileSystem.readFileContent(currentPath);
+                savedText = content;
+                textArea.setText(content);
+            } catch (RuntimeException e) {
+                // The file was replaced and removed again before we got here
+            }
+        }
+    }
+
     private void newFile() {
         textArea.setText("");
         currentFile = null;
+        currentPath = null;
+        savedText = "";
         setTitle("WorkNix Notepad");
     }
 
@@ -61,7 +98,9 @@ public class Notepad extends JFrame {
             try {
                 String content = fileSystem.readFileContent(filename);
                 textArea.setText(content);
+                savedText = content;
                 currentFile = filename;
+                currentPath = FSEvent.childPath(fileSystem.getCurrentPath(), filename);
                 setTitle("WorkNix Notepad - " + filename);
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(this, "Error opening file: " + e.getMessage());
@@ -76,8 +115,10 @@ public class Notepad extends JFrame {
         }
         if (filename != null) {
             try {
-                fileSystem.createFile(filename, textArea.getText());
+                savedText = textArea.getText();
+                fileSystem.createFile(filename, savedText);
                 currentFile = filename;
+                currentPath = FSEvent.childPath(fileSystem.getCurrentPath(), filename);
                 setTitle("WorkNix Notepad - " + filename);
             } catch (Exception e) {
                 JOptionPane.showMessageDialog(this, "Error saving file: " + e.getMessage());
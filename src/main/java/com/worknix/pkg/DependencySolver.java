@@ -0,0 +1,603 @@
+package com.worknix.pkg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Chooses one version of every package a transaction needs, so that all
+ * version constraints hold and no two chosen or installed packages
+ * conflict.
+ *
+ * The search decides packages one at a time, newest version first, always
+ * the needed package that comes first in an order where every package comes
+ * after all that may depend on it through any of their versions; unless
+ * versions depend on each other in a cycle, by the time a package is
+ * decided, everything that constrains it has been. A version is only taken
+ * if every dependency not yet decided still has a version that fits and its
+ * chosen dependencies do not lead back to it, so dead ends show up at the
+ * decision that causes them.
+ * When a package has no acceptable version the search jumps straight back
+ * to the most recent decision that took part in ruling them out, skipping
+ * unrelated ones. The versions of those decisions are remembered as a
+ * combination that leads nowhere, so the search never explores the same
+ * dead end twice. Installed packages keep their version unless the solver
+ * is upgrading them and they were asked for. Whether a version can be
+ * installed at all, given every version of everything below it, is worked
+ * out once and remembered as well.
+ */
+class DependencySolver {
+    private final Function<String, List<Package>> versions;
+    private final boolean upgrade;
+    // Installed packages by name, and the installed packages that depend on or conflict with a name
+    private final Map<String, Package> installed = new HashMap<>();
+    private final Map<String, List<Package>> installedDependants = new HashMap<>();
+    private final Map<String, List<Package>> installedConflicts = new HashMap<>();
+    // Version to whether its dependencies can be satisfied at all; versions are the same objects throughout
+    private final Map<Package, Boolean> viable = new IdentityHashMap<>();
+    // Version key to the combinations of versions including it that cannot be completed
+    private final Map<String, List<Map<String, String>>> deadEnds = new HashMap<>();
+
+    // Search state: the chosen packages in order, and per name the chosen packages that depend on or conflict with it
+    private final Map<String, Package> chosen = new LinkedHashMap<>();
+    private final List<Package> trail = new ArrayList<>();
+    private final Map<String, List<Package>> dependants = new HashMap<>();
+    // Per name and version, how many chosen packages have a constraint ruling that version out
+    private final Map<String, int[]> excluded = new HashMap<>();
+    private final Map<String, List<Package>> conflicts = new HashMap<>();
+    // Every name the transaction may involve, in the order they are considered, and their positions in it
+    private final List<String> order = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Set<String> requested = new HashSet<>();
+    private String failure;
+
+    /**
+     * A decision, the versions not yet tried for it and the earlier
+     * decisions that ruled out the others.
+     */
+    private static final class Choice {
+        final String name;
+        final int trailSize;
+        final Set<String> culprits = new HashSet<>();
+        List<Package> candidates;
+        int next;
+
+        Choice(String name, int trailSize) {
+            this.name = name;
+            this.trailSize = trailSize;
+        }
+    }
+
+    /**
+     * @param versions every known version of a package, newest first; the
+     *        installed one, if any, is marked installed
+     * @param installedPackages the packages installed now
+     * @param upgrade whether requested packages may move to other versions
+     *        than the installed ones
+     */
+    DependencySolver(Function<String, List<Package>> versions, Collection<Package> installedPackages, boolean upgrade) {
+        // Remembered, so that positions in a list of versions stay put
+        Map<String, List<Package>> known = new HashMap<>();
+        this.versions = name -> {
+            List<Package> list = known.get(name);
+            if (list == null) {
+                list = versions.apply(name);
+                known.put(name, list);
+            }
+            return list;
+        };
+        this.upgrade = upgrade;
+        for (Package pkg : installedPackages) {
+            installed.put(pkg.getName(), pkg);
+            for (String dependency : pkg.getDependencies()) {
+                installedDependants.computeIfAbsent(dependency, d -> new ArrayList<>()).add(pkg);
+            }
+            for (String name : pkg.getConflicts().keySet()) {
+                installedConflicts.computeIfAbsent(name, n -> new ArrayList<>()).add(pkg);
+            }
+        }
+    }
+
+    /**
+     * Finds versions for the requested packages, name to constraint (null
+     * for any version), and everything they depend on.
+     *
+     * @return the chosen version of every package involved, installed ones
+     *         included, in the order they were decided
+     * @throws IllegalArgumentException if no consistent choice exists
+     */
+    Map<String, Package> solve(Map<String, String> requests) {
+        Map<String, String> constraints = new HashMap<>(requests);
+        requested.addAll(requests.keySet());
+        arrange(requests.keySet());
+        Deque<Choice> choices = new ArrayDeque<>();
+        String name;
+        while ((name = nextNeeded()) != null) {
+            Choice choice = new Choice(name, trail.size());
+            choice.candidates = candidates(name, constraints.get(name), choice.culprits);
+            choices.push(choice);
+            while (choice.next == choice.candidates.size()) {
+                // Back to the latest decision among those that ruled out every version
+                Set<String> culprits = choices.pop().culprits;
+                learn(culprits);
+                while (!choices.isEmpty() && !culprits.contains(choices.peek().name)) {
+                    choices.pop();
+                }
+                choice = choices.peek();
+                if (choice == null) {
+                    throw new IllegalArgumentException(failure);
+                }
+                undo(choice);
+                culprits.remove(choice.name);
+                choice.culprits.addAll(culprits);
+            }
+            choose(choice.candidates.get(choice.next++));
+        }
+        return new LinkedHashMap<>(chosen);
+    }
+
+    // The first name in order that is not decided but asked for or needed by a chosen package
+    private String nextNeeded() {
+        for (String name : order) {
+            if (!chosen.containsKey(name) && (requested.contains(name) || dependants.containsKey(name))) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks a solution found earlier against the current packages.
+     */
+    boolean verify(Map<String, String> requests, Map<String, Package> solution) {
+        requested.addAll(requests.keySet());
+        for (Map.Entry<String, String> request : requests.entrySet()) {
+            Package pkg = solution.get(request.getKey());
+            if (pkg == null || !Versions.satisfies(pkg.getVersion(), request.getValue())) {
+                return false;
+            }
+        }
+        for (Package pkg : solution.values()) {
+            Package current = installed.get(pkg.getName());
+            if (current != null && !current.getVersion().equals(pkg.getVersion()) && !mayReplace(pkg.getName())) {
+                return false;
+            }
+            for (String dependency : pkg.getDependencies()) {
+                Package chosenDependency = solution.get(dependency);
+                if (chosenDependency == null
+                        || !Versions.satisfies(chosenDependency.getVersion(), pkg.getConstraint(dependency))
+                        || cycle(solution, chosenDependency, pkg.getName()) != null) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, String> conflict : pkg.getConflicts().entrySet()) {
+                Package other = effective(solution, conflict.getKey());
+                if (other != null && Versions.satisfies(other.getVersion(), conflict.getValue())) {
+                    return false;
+                }
+            }
+            for (Package other : installedConflicts.getOrDefault(pkg.getName(), Collections.emptyList())) {
+                if (!mayReplace(other.getName())
+                        && Versions.satisfies(pkg.getVersion(), other.getConflicts().get(pkg.getName()))) {
+                    return false;
+                }
+            }
+            for (Package dependant : installedDependants.getOrDefault(pkg.getName(), Collections.emptyList())) {
+                if (!mayReplace(dependant.getName())
+                        && !Versions.satisfies(pkg.getVersion(), dependant.getConstraint(pkg.getName()))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Versions of name that fit everything chosen so far, best first. The
+     * decisions that needed name or ruled out a version go into culprits.
+     */
+    private List<Package> candidates(String name, String requestConstraint, Set<String> culprits) {
+        for (Package dependant : dependants.getOrDefault(name, Collections.emptyList())) {
+            culprits.add(dependant.getName());
+        }
+        List<Package> all = versions.apply(name);
+        if (all.isEmpty()) {
+            fail("Package not found: " + name + requiredBy(name));
+            return all;
+        }
+        List<Package> candidates = new ArrayList<>();
+        String reason = null;
+        boolean asked = false;
+        for (int i = 0; i < all.size(); i++) {
+            Package pkg = all.get(i);
+            String rejection = reject(pkg, i, requestConstraint, culprits);
+            if (rejection == null) {
+                candidates.add(pkg);
+            } else if (reason == null || !asked && Versions.satisfies(pkg.getVersion(), requestConstraint)) {
+                // Explain the first version that was asked for, when there is one
+                asked = Versions.satisfies(pkg.getVersion(), requestConstraint);
+                reason = rejection;
+            }
+        }
+        if (candidates.isEmpty()) {
+            fail("no version of " + name + " fits: " + reason);
+        }
+        return candidates;
+    }
+
+    // Why a version cannot be chosen now, or null if it can; chosen packages to blame go into culprits
+    private String reject(Package pkg, int index, String requestConstraint, Set<String> culprits) {
+        String name = pkg.getName();
+        String label = name + "-" + pkg.getVersion();
+        Package current = installed.get(name);
+        if (current != null && !current.getVersion().equals(pkg.getVersion()) && !mayReplace(name)) {
+            return label + " would replace installed " + name + "-" + current.getVersion();
+        }
+        if (!Versions.satisfies(pkg.getVersion(), requestConstraint)) {
+            return label + " does not match " + requestConstraint;
+        }
+        if (isExcluded(name, index)) {
+            for (Package dependant : dependants.get(name)) {
+                if (!Versions.satisfies(pkg.getVersion(), dependant.getConstraint(name))) {
+                    return dependant.getName() + "-" + dependant.getVersion() + " needs " + name + " "
+                        + dependant.getConstraint(name);
+                }
+            }
+        }
+        // Installed packages that stay as they are hold on to their constraints
+        for (Package dependant : installedDependants.getOrDefault(name, Collections.emptyList())) {
+            if (!mayReplace(dependant.getName())
+                    && !Versions.satisfies(pkg.getVersion(), dependant.getConstraint(name))) {
+                return "installed " + dependant.getName() + "-" + dependant.getVersion() + " needs " + name + " "
+                    + dependant.getConstraint(name);
+            }
+        }
+        for (Package other : conflicts.getOrDefault(name, Collections.emptyList())) {
+            if (Versions.satisfies(pkg.getVersion(), other.getConflicts().get(name))) {
+                culprits.add(other.getName());
+                return label + " conflicts with " + other.getName() + "-" + other.getVersion();
+            }
+        }
+        for (Package other : installedConflicts.getOrDefault(name, Collections.emptyList())) {
+            if (!mayReplace(other.getName())
+                    && Versions.satisfies(pkg.getVersion(), other.getConflicts().get(name))) {
+                return label + " conflicts with installed " + other.getName() + "-" + other.getVersion();
+            }
+        }
+        for (Map.Entry<String, String> conflict : pkg.getConflicts().entrySet()) {
+            Package other = effective(chosen, conflict.getKey());
+            if (other != null && Versions.satisfies(other.getVersion(), conflict.getValue())) {
+                if (chosen.containsKey(other.getName())) {
+                    culprits.add(other.getName());
+                }
+                return label + " conflicts with " + other.getName() + "-" + other.getVersion();
+            }
+        }
+        if (!isViable(pkg)) {
+            return label + " has dependencies that no version satisfies";
+        }
+        for (String dependency : pkg.getDependencies()) {
+            Package other = chosen.get(dependency);
+            if (dependency.equals(name)) {
+                return label + " depends on itself";
+            } else if (other != null) {
+                if (!Versions.satisfies(other.getVersion(), pkg.getConstraint(dependency))) {
+                    culprits.add(dependency);
+                    return label + " needs " + dependency + " " + pkg.getConstraint(dependency);
+                }
+                List<String> cycle = cycle(chosen, other, name);
+                if (cycle != null) {
+                    culprits.addAll(cycle);
+                    return label + " needs " + dependency + ", which would form a dependency cycle through "
+                        + String.join(", ", cycle);
+                }
+            } else if (!canFollow(pkg, dependency)) {
+                for (Package dependant : dependants.getOrDefault(dependency, Collections.emptyList())) {
+                    culprits.add(dependant.getName());
+                }
+                return label + " needs " + dependency + " " + pkg.getConstraint(dependency)
+                    + ", which rules out every version left";
+            }
+        }
+        for (Map<String, String> deadEnd : deadEnds.getOrDefault(key(pkg), Collections.emptyList())) {
+            if (matches(deadEnd, name)) {
+                List<String> others = new ArrayList<>();
+                for (Map.Entry<String, String> entry : deadEnd.entrySet()) {
+                    if (!entry.getKey().equals(name)) {
+                        culprits.add(entry.getKey());
+                        others.add(entry.getKey() + "-" + entry.getValue());
+                    }
+                }
+                return others.isEmpty() ? label + " leaves some dependency without a version"
+                    : label + " cannot be combined with " + String.join(", ", others);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The packages of a solution through which from depends on name, from
+     * first, or null if it does not. Taking a version of name that depends
+     * on from would close a cycle through them.
+     */
+    private static List<String> cycle(Map<String, Package> solution, Package from, String name) {
+        // Name of each package reached to the package it was reached from
+        Map<String, Package> reachedFrom = new HashMap<>();
+        Deque<Package> pending = new ArrayDeque<>();
+        reachedFrom.put(from.getName(), null);
+        pending.push(from);
+        while (!pending.isEmpty()) {
+            Package pkg = pending.pop();
+            for (String dependency : pkg.getDependencies()) {
+                if (dependency.equals(name)) {
+                    List<String> path = new ArrayList<>();
+                    for (Package step = pkg; step != null; step = reachedFrom.get(step.getName())) {
+                        path.add(step.getName());
+                    }
+                    Collections.reverse(path);
+                    return path;
+                }
+                Package next = solution.get(dependency);
+                if (next != null && !reachedFrom.containsKey(dependency)) {
+                    reachedFrom.put(dependency, pkg);
+                    pending.push(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Installed packages change version only in an upgrade that asked for them
+    private boolean mayReplace(String name) {
+        return upgrade && requested.contains(name);
+    }
+
+    // Remembers the versions of the decisions that together left some package without a version
+    private void learn(Set<String> culprits) {
+        Map<String, String> deadEnd = new HashMap<>();
+        for (String name : culprits) {
+            deadEnd.put(name, chosen.get(name).getVersion());
+        }
+        for (Map.Entry<String, String> entry : deadEnd.entrySet()) {
+            deadEnds.computeIfAbsent(entry.getKey() + "-" + entry.getValue(), k -> new ArrayList<>()).add(deadEnd);
+        }
+    }
+
+    // Whether every package of a dead end but the one being decided is chosen at its version
+    private boolean matches(Map<String, String> deadEnd, String deciding) {
+        for (Map.Entry<String, String> entry : deadEnd.entrySet()) {
+            if (entry.getKey().equals(deciding)) {
+                continue;
+            }
+            Package pkg = chosen.get(entry.getKey());
+            if (pkg == null || !pkg.getVersion().equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Whether an undecided dependency keeps a version that fits pkg and the packages already needing it
+    private boolean canFollow(Package pkg, String dependency) {
+        Package current = installed.get(dependency);
+        List<Package> candidates = versions.apply(dependency);
+        for (int i = 0; i < candidates.size(); i++) {
+            Package candidate = candidates.get(i);
+            if (current != null && !current.getVersion().equals(candidate.getVersion()) && !mayReplace(dependency)) {
+                continue;
+            }
+            if (!isExcluded(dependency, i) && Versions.satisfies(candidate.getVersion(), pkg.getConstraint(dependency))
+                    && isViable(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExcluded(String name, int index) {
+        int[] counts = excluded.get(name);
+        return counts != null && counts[index] > 0;
+    }
+
+    // Counts the versions of dependency that pkg rules out, one way or the other
+    private void exclude(Package pkg, String dependency, int delta) {
+        String constraint = pkg.getConstraint(dependency);
+        if (constraint == null) {
+            return;
+        }
+        List<Package> candidates = versions.apply(dependency);
+        int[] counts = excluded.computeIfAbsent(dependency, d -> new int[candidates.size()]);
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!Versions.satisfies(candidates.get(i).getVersion(), constraint)) {
+                counts[i] += delta;
+            }
+        }
+    }
+
+    // The chosen version of name, or the installed one if it is to stay
+    private Package effective(Map<String, Package> solution, String name) {
+        Package pkg = solution.get(name);
+        return pkg != null || mayReplace(name) ? pkg : installed.get(name);
+    }
+
+    private void choose(Package pkg) {
+        chosen.put(pkg.getName(), pkg);
+        trail.add(pkg);
+        for (String dependency : pkg.getDependencies()) {
+            dependants.computeIfAbsent(dependency, d -> new ArrayList<>()).add(pkg);
+            exclude(pkg, dependency, 1);
+        }
+        for (String name : pkg.getConflicts().keySet()) {
+            conflicts.computeIfAbsent(name, n -> new ArrayList<>()).add(pkg);
+        }
+    }
+
+    // Takes back everything decided since the choice was made, the choice itself included
+    private void undo(Choice choice) {
+        while (trail.size() > choice.trailSize) {
+            Package pkg = trail.remove(trail.size() - 1);
+            chosen.remove(pkg.getName());
+            for (String dependency : pkg.getDependencies()) {
+                removeLast(dependants, dependency);
+                exclude(pkg, dependency, -1);
+            }
+            for (String name : pkg.getConflicts().keySet()) {
+                removeLast(conflicts, name);
+            }
+        }
+    }
+
+    /*
+     * Orders every name reachable from the roots through the dependencies
+     * of any version so that each comes after all names that may depend on
+     * it. Names on a cycle are released in the order they were found.
+     */
+    private void arrange(Collection<String> roots) {
+        Map<String, Set<String>> edges = new LinkedHashMap<>();
+        Map<String, Integer> incoming = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>(roots);
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (edges.containsKey(name)) {
+                continue;
+            }
+            Set<String> dependencies = new LinkedHashSet<>();
+            for (Package pkg : versions.apply(name)) {
+                dependencies.addAll(pkg.getDependencies());
+            }
+            edges.put(name, dependencies);
+            for (String dependency : dependencies) {
+                incoming.merge(dependency, 1, Integer::sum);
+                if (!edges.containsKey(dependency)) {
+                    pending.push(dependency);
+                }
+            }
+        }
+        Deque<String> ready = new ArrayDeque<>();
+        for (String name : edges.keySet()) {
+            if (!incoming.containsKey(name)) {
+                ready.add(name);
+            }
+        }
+        Iterator<String> waiting = edges.keySet().iterator();
+        while (order.size() < edges.size()) {
+            if (ready.isEmpty()) {
+                String next = waiting.next();
+                if (positions.containsKey(next) || incoming.getOrDefault(next, 0) <= 0) {
+                    continue;
+                }
+                incoming.put(next, 0);
+                ready.add(next);
+            }
+            String name = ready.poll();
+            positions.put(name, order.size());
+            order.add(name);
+            for (String dependency : edges.get(name)) {
+                if (incoming.merge(dependency, -1, Integer::sum) == 0) {
+                    ready.add(dependency);
+                }
+            }
+        }
+    }
+
+    private static void removeLast(Map<String, List<Package>> map, String key) {
+        List<Package> list = map.get(key);
+        list.remove(list.size() - 1);
+        if (list.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    /*
+     * Whether every dependency of pkg has some version that meets its
+     * constraint and is viable in turn. Worked out depth-first with an
+     * explicit stack and remembered for every version visited. A version
+     * depending on one still being worked out counts as viable, which can
+     * only let the search try something it did not need to.
+     */
+    private boolean isViable(Package start) {
+        Boolean known = viable.get(start);
+        if (known != null) {
+            return known;
+        }
+        Deque<Package> path = new ArrayDeque<>();
+        Deque<int[]> next = new ArrayDeque<>();
+        Set<Package> onPath = Collections.newSetFromMap(new IdentityHashMap<>());
+        path.push(start);
+        next.push(new int[1]);
+        onPath.add(start);
+        while (!path.isEmpty()) {
+            Package pkg = path.peek();
+            int[] index = next.peek();
+            Boolean verdict = null;
+            Package unknown = null;
+            if (index[0] == pkg.getDependencies().size()) {
+                verdict = true;
+            } else {
+                String dependency = pkg.getDependencies().get(index[0]);
+                boolean satisfied = false;
+                for (Package candidate : versions.apply(dependency)) {
+                    if (!Versions.satisfies(candidate.getVersion(), pkg.getConstraint(dependency))) {
+                        continue;
+                    }
+                    Boolean state = onPath.contains(candidate) ? Boolean.TRUE : viable.get(candidate);
+                    if (state == null) {
+                        unknown = candidate;
+                        break;
+                    }
+                    if (state) {
+                        satisfied = true;
+                        break;
+                    }
+                }
+                if (satisfied) {
+                    index[0]++;
+                    continue;
+                }
+                if (unknown == null) {
+                    verdict = false;
+                }
+            }
+            if (verdict != null) {
+                viable.put(pkg, verdict);
+                onPath.remove(pkg);
+                path.pop();
+                next.pop();
+            } else {
+                path.push(unknown);
+                next.push(new int[1]);
+                onPath.add(unknown);
+            }
+        }
+        return viable.get(start);
+    }
+
+    private static String key(Package pkg) {
+        return pkg.getName() + "-" + pkg.getVersion();
+    }
+
+    private String requiredBy(String name) {
+        List<Package> needing = dependants.get(name);
+        if (needing == null || needing.isEmpty()) {
+            return "";
+        }
+        return " (required by " + needing.get(0).getName() + ")";
+    }
+
+    // The last dead end before the search gives up is the one reported
+    private void fail(String reason) {
+        failure = reason;
+    }
+}
@@ -0,0 +1,173 @@
+package com.worknix.pkg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * The packages an install transaction still has to install, as a
+ * dependency graph resolved before anything is touched.
+ *
+ * Installed packages are left out, together with everything below them.
+ * Steps are kept in dependency order, so each one comes after everything
+ * it needs, and each step counts the dependencies it is still waiting for
+ * so that independent branches can be installed side by side.
+ */
+class InstallPlan {
+    /**
+     * One package to install and its edges within the plan.
+     */
+    static final class Step {
+        final Package pkg;
+        final List<Step> dependencies = new ArrayList<>();
+        final List<Step> dependants = new ArrayList<>();
+        final AtomicInteger waiting = new AtomicInteger();
+        volatile boolean failed;
+
+        Step(Package pkg) {
+            this.pkg = pkg;
+        }
+
+        // Whether a dependency could not be installed, so this step must not be either
+        boolean blocked() {
+            for (Step dependency : dependencies) {
+                if (dependency.failed) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+
+    private InstallPlan() {
+    }
+
+    /**
+     * Resolves everything needed to install {@code names}.
+     *
+     * @throws IllegalArgumentException if a package or dependency does not
+     *         exist, or dependencies form a cycle
+     */
+    static InstallPlan resolve(Function<String, Package> packages, Collection<String> names) {
+        InstallPlan plan = new InstallPlan();
+        Map<String, Step> visiting = new HashMap<>();
+        for (String name : names) {
+            Package pkg = packages.apply(name);
+            if (pkg == null) {
+                throw new IllegalArgumentException("Package not found: " + name);
+            }
+            plan.visit(packages, pkg, visiting);
+        }
+        for (Step step : plan.steps.values()) {
+            step.waiting.set(step.dependencies.size());
+        }
+        return plan;
+    }
+
+    // Depth-first with an explicit stack, so long dependency chains cannot overflow the thread's stack
+    private void visit(Function<String, Package> packages, Package start, Map<String, Step> visiting) {
+        if (start.isInstalled() || steps.containsKey(start.getName())) {
+            return;
+        }
+        Deque<Step> path = new ArrayDeque<>();
+        Deque<Iterator<String>> pending = new ArrayDeque<>();
+        Step first = new Step(start);
+        visiting.put(start.getName(), first);
+        path.push(first);
+        pending.push(start.getDependencies().iterator());
+        while (!path.isEmpty()) {
+            Step step = path.peek();
+            Iterator<String> next = pending.peek();
+            if (!next.hasNext()) {
+                path.pop();
+                pending.pop();
+                visiting.remove(step.pkg.getName());
+                steps.put(step.pkg.getName(), step);
+                continue;
+            }
+            String name = next.next();
+            Package dependency = packages.apply(name);
+            if (dependency == null) {
+                throw new IllegalArgumentException("Package not found: " + name
+                    + " (required by " + step.pkg.getName() + ")");
+            }
+            if (dependency.isInstalled()) {
+                continue;
+            }
+            Step done = steps.get(name);
+            if (done != null) {
+                link(done, step);
+                continue;
+            }
+            if (visiting.containsKey(name)) {
+                throw new IllegalArgumentException("Dependency cycle: " + cycle(path, name));
+            }
+            Step child = new Step(dependency);
+            link(child, step);
+            visiting.put(name, child);
+            path.push(child);
+            pending.push(dependency.getDependencies().iterator());
+        }
+    }
+
+    private static void link(Step dependency, Step dependant) {
+        if (!dependant.dependencies.contains(dependency)) {
+            dependant.dependencies.add(dependency);
+            dependency.dependants.add(dependant);
+        }
+    }
+
+    // The part of the path from the first visit of name back round to it
+    private static String cycle(Deque<Step> path, String name) {
+        List<String> names = new ArrayList<>();
+        Iterator<Step> it = path.descendingIterator();
+        boolean inCycle = false;
+        while (it.hasNext()) {
+            String current = it.next().pkg.getName();
+            inCycle |= current.equals(name);
+            if (inCycle) {
+                names.add(current);
+            }
+        }
+        names.add(name);
+        return String.join(" -> ", names);
+    }
+
+    boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    int size() {
+        return steps.size();
+    }
+
+    /**
+     * Steps in dependency order.
+     */
+    Collection<Step> steps() {
+        return steps.values();
+    }
+
+    /**
+     * Steps with nothing to wait for, where installation starts.
+     */
+    List<Step> ready() {
+        List<Step> ready = new ArrayList<>();
+        for (Step step : steps.values()) {
+            if (step.dependencies.isEmpty()) {
+                ready.add(step);
+            }
+        }
+        return ready;
+    }
+}
@@ -2,7 +2,9 @@ package com.worknix.pkg;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Package implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -12,6 +14,14 @@ public class Package implements Serializable {
     private final String description;
     private final List<String> dependencies;
     private final List<String> files;
+    // Applet name to implementing class; null in databases written before packages had applets
+    private Map<String, String> applets;
+    // Dependency name to the versions it must have, for dependencies that are constrained
+    private Map<String, String> constraints;
+    // Packages this one cannot be installed with, to the versions concerned ("" for any)
+    private Map<String, String> conflicts;
+    // Archive file in the repository, or null for packages that do not come from one
+    private String archive;
     private boolean installed;
 
     public Package(String name, String version, String description) {
@@ -20,6 +30,9 @@ public class Package implements Serializable {
         this.description = description;
         this.dependencies = new ArrayList<>();
         this.files = new ArrayList<>();
+        this.applets = new LinkedHashMap<>();
+        this.constraints = new LinkedHashMap<>();
+        this.conflicts = new LinkedHashMap<>();
         this.installed = false;
     }
 
@@ -35,10 +48,81 @@ public class Package implements Serializable {
         dependencies.add(dep);
     }
 
+    /**
+     * Declares a dependency on the versions of {@code dep} that meet
+     * {@code constraint}, such as {@code >= 1.2, < 2.0}.
+     *
+     * @throws IllegalArgumentException if the constraint is malformed
+     */
+    public void addDependency(String dep, String constraint) {
+        constraint = Versions.validate(constraint);
+        if (!dependencies.contains(dep)) {
+            dependencies.add(dep);
+        }
+        getConstraints().put(dep, constraint);
+    }
+
+    /**
+     * The versions a dependency must have, or null if any will do.
+     */
+    public String getConstraint(String dep) {
+        return getConstraints().get(dep);
+    }
+
+    public Map<String, String> getConstraints() {
+        if (constraints == null) {
+            constraints = new LinkedHashMap<>();
+        }
+        return constraints;
+    }
+
+    /**
+     * Declares that this package cannot be installed alongside the versions
+     * of {@code name} that meet {@code constraint}; an empty constraint
+     * means every version.
+     *
+     * @throws IllegalArgumentException if the constraint is malformed
+     */
+    public void addConflict(String name, String constraint) {
+        getConflicts().put(name, constraint.trim().isEmpty() ? "" : Versions.validate(constraint));
+    }
+
+    public Map<String, String> getConflicts() {
+        if (conflicts == null) {
+            conflicts = new LinkedHashMap<>();
+        }
+        return conflicts;
+    }
+
     public void addFile(String file) {
         files.add(file);
     }
 
+    /**
+     * Declares an applet this package provides once installed.
+     */
+    public void addApplet(String name, String className) {
+        if (applets == null) {
+            applets = new LinkedHashMap<>();
+        }
+        applets.put(name, className);
+    }
+
+    public Map<String, String> getApplets() {
+        if (applets == null) {
+            applets = new LinkedHashMap<>();
+        }
+        return applets;
+    }
+
+    public String getArchive() {
+        return archive;
+    }
+
+    public void setArchive(String archive) {
+        this.archive = archive;
+    }
+
     @Override
     public String toString() {
         return name + "-" + version + (installed ? " [installed]" : "");
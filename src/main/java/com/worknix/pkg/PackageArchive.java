@@ -0,0 +1,400 @@
+package com.worknix.pkg;
+
+import com.worknix.FileSystem;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Package archive ({@code .wpkg}): a manifest followed by file bodies.
+ *
+ * <pre>
+ * header    magic, version
+ * manifest  length-prefixed package record, as in the package database
+ * entries   count, then per file its path, size in bytes, SHA-256 and
+ *           whether the body is stored as UTF-8 text or byte for byte
+ * content   file bodies back to back, in entry order
+ * </pre>
+ *
+ * Files hold text, so a body that is valid UTF-8 is decoded as such and any
+ * other body (binaries) is stored one char per byte, as ISO-8859-1; either
+ * way the stored text encodes back to exactly the archived bytes. Version 1
+ * archives predate the flag and must be UTF-8 throughout.
+ *
+ * Archives are read front to back, so they can be installed straight from a
+ * stream. Each body is decoded into its file while it is read, and its bytes
+ * are handed to a digest task on the common pool, so digests are computed
+ * alongside extraction; only a bounded number of chunks is ever in flight.
+ */
+public class PackageArchive {
+    public static final String EXTENSION = ".wpkg";
+
+    private static final int MAGIC = 0x57504B47; // "WPKG"
+    private static final int VERSION = 2;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Chunks read but not yet digested
+    private static final int MAX_PENDING_CHUNKS = 16;
+
+    /**
+     * One file in the archive.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final byte[] digest;
+        private final Charset charset;
+
+        Entry(String path, long size, byte[] digest, Charset charset) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+            this.charset = charset;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public Charset getCharset() { return charset; }
+    }
+
+    private final DataInputStream in;
+    private final Package manifest;
+    private final List<Entry> entries;
+
+    private PackageArchive(DataInputStream in, Package manifest, List<Entry> entries) {
+        this.in = in;
+        this.manifest = manifest;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the manifest and entry table, leaving the stream at the first body.
+     */
+    public static PackageArchive open(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, CHUNK_SIZE));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a WorkNix package archive");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported archive version: " + version);
+        }
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        DataInputStream manifestIn = new DataInputStream(new ByteArrayInputStream(record));
+        manifestIn.readByte();
+        Package manifest = PackageDatabase.decode(manifestIn);
+        manifest.setInstalled(false);
+
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            long size = in.readLong();
+            byte[] digest = new byte[DIGEST_LENGTH];
+            in.readFully(digest);
+            boolean text = version < 2 || in.readBoolean();
+            entries.add(new Entry(path, size, digest, text ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1));
+        }
+        // The manifest is what the database records as installed, so it must name exactly the files written
+        Set<String> paths = new HashSet<>();
+        for (Entry entry : entries) {
+            if (!paths.add(entry.path)) {
+                throw new IOException("Archive lists " + entry.path + " twice");
+            }
+        }
+        if (!paths.equals(new HashSet<>(manifest.getFiles())) || paths.size() != manifest.getFiles().size()) {
+            throw new IOException("Archive entries do not match the files of " + manifest.getName());
+        }
+        return new PackageArchive(in, manifest, entries);
+    }
+
+    /**
+     * The package this archive installs; its files are the entry paths.
+     */
+    public Package getPackage() {
+        return manifest;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Reads every body and checks that it matches its digest and decodes as
+     * stored, without writing anything; the archive must be opened again to
+     * extract it.
+     *
+     * @throws IOException if the archive is truncated or a body is corrupt
+     */
+    public void verify() throws IOException {
+        Semaphore pending = new Semaphore(MAX_PENDING_CHUNKS);
+        for (Entry entry : entries) {
+            Body body = new Body(in, entry.size, pending);
+            boolean decodes = decodes(body, entry.charset);
+            if (body.remaining > 0 && decodes) {
+                throw new EOFException("Archive ends inside " + entry.path);
+            }
+            byte[] actual;
+            try {
+                actual = body.digest.join().digest();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+            if (!decodes || !Arrays.equals(actual, entry.digest)) {
+                throw new IOException("Checksum mismatch: " + entry.path);
+            }
+        }
+    }
+
+    /**
+     * Streams every body into its file, creating missing directories, and
+     * once all are in checks the digests of both the archived bodies and
+     * the text stored for them.
+     *
+     * @throws IOException if the archive is truncated, a file cannot be
+     *         written, or a body does not match its digest; files written so
+     *         far are left for the caller to remove
+     */
+    public void extract(FileSystem fileSystem) throws IOException {
+        Semaphore pending = new Semaphore(MAX_PENDING_CHUNKS);
+        List<CompletableFuture<MessageDigest>> digests = new ArrayList<>();
+        char[] chars = new char[CHUNK_SIZE];
+        for (Entry entry : entries) {
+            int slash = entry.path.lastIndexOf('/');
+            if (slash > 0) {
+                fileSystem.createDirectory(entry.path.substring(0, slash));
+            }
+            Body body = new Body(in, entry.size, pending);
+            // Decoders report malformed input rather than replacing it
+            try (Writer writer = fileSystem.openFileWriter(entry.path, false);
+                 Reader reader = new InputStreamReader(body, entry.charset.newDecoder())) {
+                int n;
+                while ((n = reader.read(chars)) != -1) {
+                    writer.write(chars, 0, n);
+                }
+            }
+            if (body.remaining > 0) {
+                throw new EOFException("Archive ends inside " + entry.path);
+            }
+            digests.add(body.digest);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] actual;
+            try {
+                actual = digests.get(i).join().digest();
+            } catch (CompletionException e) {
+                throw new IOException(e.getCause());
+            }
+            Entry entry = entries.get(i);
+            if (!Arrays.equals(actual, entry.digest)
+                    || !Arrays.equals(storedDigest(fileSystem, entry.path, entry.charset), entry.digest)) {
+                throw new IOException("Checksum mismatch: " + entry.path);
+            }
+        }
+    }
+
+    /**
+     * SHA-256 of the bytes a file's text encodes to in {@code charset}, or
+     * null if the file is missing or holds characters the charset lacks.
+     */
+    static byte[] storedDigest(FileSystem fileSystem, String path, Charset charset) throws IOException {
+        DigestOutputStream digest = new DigestOutputStream(OutputStream.nullOutputStream(), newDigest());
+        char[] chars = new char[CHUNK_SIZE];
+        try (Reader reader = fileSystem.openFileReader(path);
+             Writer writer = new OutputStreamWriter(digest, charset.newEncoder())) {
+            int n;
+            while ((n = reader.read(chars)) != -1) {
+                writer.write(chars, 0, n);
+            }
+        } catch (FileNotFoundException | CharacterCodingException e) {
+            return null;
+        }
+        return digest.getMessageDigest().digest();
+    }
+
+
+    /**
+     * Reads every body into memory and checks its digest, for tools that
+     * work on whole archives rather than installing them.
+     *
+     * @return the bodies by path, in entry order
+     */
+    Map<String, byte[]> readBodies() throws IOException {
+        Map<String, byte[]> bodies = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.size > Integer.MAX_VALUE) {
+                throw new IOException("File too large: " + entry.path);
+            }
+            byte[] body = new byte[(int) entry.size];
+            in.readFully(body);
+            if (!Arrays.equals(newDigest().digest(body), entry.digest)) {
+                throw new IOException("Checksum mismatch: " + entry.path);
+            }
+            bodies.put(entry.path, body);
+        }
+        return bodies;
+    }
+
+    /**
+     * Writes an archive of {@code pkg}, whose files become the keys of
+     * {@code contents} mapped to the local files holding their bodies.
+     */
+    public static void write(File archive, Package pkg, Map<String, File> contents) throws IOException {
+        Package manifest = new Package(pkg.getName(), pkg.getVersion(), pkg.getDescription());
+        pkg.getDependencies().forEach(manifest::addDependency);
+        manifest.getConstraints().putAll(pkg.getConstraints());
+        manifest.getConflicts().putAll(pkg.getConflicts());
+        pkg.getApplets().forEach(manifest::addApplet);
+        contents.keySet().forEach(manifest::addFile);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(archive), CHUNK_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            byte[] record = PackageDatabase.encode(manifest);
+            out.writeInt(record.length);
+            out.write(record);
+            // Digests go first, so the bodies are read twice
+            out.writeInt(contents.size());
+            for (Map.Entry<String, File> entry : contents.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().length());
+                out.write(digest(entry.getValue()));
+                out.writeBoolean(isUtf8(entry.getValue()));
+            }
+            byte[] buffer = new byte[CHUNK_SIZE];
+            for (File source : contents.values()) {
+                try (InputStream body = new FileInputStream(source)) {
+                    int n;
+                    while ((n = body.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static boolean isUtf8(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return decodes(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads {@code in} to its end, or to the first malformed input, and
+     * returns whether it is valid in {@code charset}.
+     */
+    static boolean decodes(InputStream in, Charset charset) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder();
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        boolean end = false;
+        while (!end) {
+            int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+            end = n == -1;
+            if (!end) {
+                bytes.position(bytes.position() + n);
+            }
+            bytes.flip();
+            // A sequence cut by the end of the buffer is completed by the next read
+            if (decoder.decode(bytes, chars, end).isError()) {
+                return false;
+            }
+            bytes.compact();
+            chars.clear();
+        }
+        return !decoder.flush(chars).isError();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The body of one entry. Reads stop at its end, and every chunk read is
+     * also queued for digesting; chunks of one body are digested in order.
+     */
+    private static final class Body extends InputStream {
+        private final InputStream in;
+        private final Semaphore pending;
+        private long remaining;
+        CompletableFuture<MessageDigest> digest = CompletableFuture.completedFuture(newDigest());
+
+        Body(InputStream in, long size, Semaphore pending) {
+            this.in = in;
+            this.remaining = size;
+            this.pending = pending;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                return -1;
+            }
+            remaining -= n;
+            byte[] chunk = Arrays.copyOfRange(b, off, off + n);
+            try {
+                pending.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while verifying");
+            }
+            digest = digest.thenApplyAsync(md -> {
+                md.update(chunk);
+                pending.release();
+                return md;
+            });
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // The archive stream carries on with the next body
+        }
+    }
+}
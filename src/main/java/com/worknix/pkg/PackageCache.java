@@ -0,0 +1,167 @@
+package com.worknix.pkg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local directory of downloaded package archives and deltas, bounded in
+ * size.
+ *
+ * When a new archive pushes the total over the limit, the archives used
+ * least recently are deleted first. Use is recorded in the files'
+ * modification times, so the order survives restarts. Archives handed out
+ * for an installation in progress are pinned and never evicted. A download
+ * is written to a {@code .part} file first, which a later attempt resumes;
+ * sessions downloading the same file take turns through its download lock.
+ * Names come from the repository's catalogue, so any that would leave the
+ * cache directory are rejected.
+ */
+class PackageCache {
+    private static final String PART_SUFFIX = ".part";
+
+    private static final Map<File, PackageCache> OPEN = new HashMap<>();
+
+    private final File dir;
+    private long maxBytes;
+    // Archive name to size, least recently used first
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Pin counts, since several sessions may install the same archive
+    private final Map<String, Integer> pinned = new HashMap<>();
+    private final Map<String, Object> downloadLocks = new ConcurrentHashMap<>();
+    private long totalBytes;
+
+    private PackageCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+        File[] files = dir.listFiles((d, name) ->
+            name.endsWith(PackageArchive.EXTENSION) || name.endsWith(PackageDelta.EXTENSION));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                entries.put(file.getName(), file.length());
+                totalBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache in {@code dir}, shared by every session so that pins
+     * hold across them.
+     */
+    static synchronized PackageCache open(File dir, long maxBytes) {
+        PackageCache cache = OPEN.computeIfAbsent(dir.getAbsoluteFile(), d -> new PackageCache(d, maxBytes));
+        synchronized (cache) {
+            cache.maxBytes = maxBytes;
+        }
+        return cache;
+    }
+
+    File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Throws unless {@code name} is a plain file name, which keeps the
+     * cache and the repository URL it is resolved against from being left.
+     */
+    static void checkName(String name) throws IOException {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf(File.separatorChar) >= 0) {
+            throw new IOException("Invalid repository file name: " + name);
+        }
+    }
+
+    /**
+     * Lock to hold while downloading {@code name}, since the part file is
+     * shared by every session.
+     */
+    Object downloadLock(String name) {
+        return downloadLocks.computeIfAbsent(name, n -> new Object());
+    }
+
+    /**
+     * Returns the cached archive and pins it, or null if it is not cached.
+     */
+    synchronized File acquire(String name) {
+        if (entries.get(name) == null) {
+            return null;
+        }
+        File file = new File(dir, name);
+        if (!file.exists()) {
+            totalBytes -= entries.remove(name);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        pinned.merge(name, 1, Integer::sum);
+        return file;
+    }
+
+    /**
+     * Where a download of {@code name} is written until it is complete.
+     */
+    File partFile(String name) {
+        return new File(dir, name + PART_SUFFIX);
+    }
+
+    /**
+     * Moves a finished download into the cache, pins it and evicts other
+     * archives as needed.
+     */
+    synchronized File commit(String name) throws IOException {
+        File file = new File(dir, name);
+        Files.move(partFile(name).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Long previous = entries.put(name, file.length());
+        totalBytes += file.length() - (previous != null ? previous : 0);
+        pinned.merge(name, 1, Integer::sum);
+        evict();
+        return file;
+    }
+
+    /**
+     * Unpins archives once their installation is over.
+     */
+    synchronized void release(Iterable<String> names) {
+        for (String name : names) {
+            pinned.computeIfPresent(name, (n, count) -> count > 1 ? count - 1 : null);
+        }
+        evict();
+    }
+
+    /**
+     * Drops an archive, for example because it failed verification.
+     */
+    synchronized void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        new File(dir, name).delete();
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (pinned.containsKey(entry.getKey())) {
+                continue;
+            }
+            new File(dir, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+}
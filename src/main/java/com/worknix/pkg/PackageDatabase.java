@@ -0,0 +1,715 @@
+package com.worknix.pkg;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Package catalogue kept as an append-only log with an on-disk index.
+ *
+ * <pre>
+ * log    magic, version, log id, then records laid out as
+ *        {@code [int length][payload][int crc32]} like the journal; a payload
+ *        is a full package, or a change of its installed state
+ * index  magic, version, id of the log it belongs to, length of the log it
+ *        covers, then three tables of (hash, record offset) pairs sorted by
+ *        hash: package names, paths of installed files pointing to the
+ *        package that owns them, and dependencies of installed packages
+ *        pointing to the packages that need them; then the names of the
+ *        installed packages
+ * </pre>
+ *
+ * Opening maps both files and only reads the records appended after the
+ * index was written, so it costs the same however large the catalogue is;
+ * a package is decoded from the mapping the first time it is looked up.
+ * Owners of paths and dependants of packages are answered from the
+ * tables the same way, together with what was installed since; a hit is
+ * checked against the current record, so entries left behind by later
+ * removals are skipped. Changes are appended and forced to disk once per
+ * commit. When the
+ * unindexed tail grows past a quarter of the log, the log is compacted to
+ * one record per package and indexed again.
+ *
+ * There is one instance per file in a process, shared by every package
+ * manager using it.
+ */
+public class PackageDatabase {
+    private static final int LOG_MAGIC = 0x574E5850; // "WNXP"
+    private static final int INDEX_MAGIC = 0x574E584B; // "WNXK"
+    private static final int VERSION = 1;
+    // Version 2 added the owner and dependant tables
+    private static final int INDEX_VERSION = 2;
+    private static final int LOG_HEADER_SIZE = 16;
+    private static final int INDEX_HEADER_SIZE = 40;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    // Serialized HashMap written by older releases
+    private static final int LEGACY_MAGIC = 0xACED0005;
+
+    private static final byte RECORD_PACKAGE = 1;
+    private static final byte RECORD_STATE = 2;
+
+    // The tail is not compacted before it reaches this size
+    private static final long MIN_COMPACT_BYTES = 64 * 1024;
+
+    private static final Map<File, PackageDatabase> OPEN = new HashMap<>();
+
+    private final File file;
+    private final File indexFile;
+    // Log records covered by the index, and the index itself
+    private MappedByteBuffer log;
+    private MappedByteBuffer index;
+    private int indexCount;
+    private int ownerCount;
+    private int dependantCount;
+    private long indexedLength;
+    private long length;
+    // Packages decoded so far, and every package changed since the index was written
+    private final Map<String, Package> cache = new ConcurrentHashMap<>();
+    private final Set<String> unindexed = new HashSet<>();
+    private final Set<String> installed = new TreeSet<>();
+    // Owners and dependants added since the index was written
+    private final Map<String, Set<String>> recentOwners = new HashMap<>();
+    private final Map<String, Set<String>> recentDependants = new HashMap<>();
+    // Counts commits, so sessions can tell which packages they have seen
+    private long revision;
+
+    private PackageDatabase(File file) {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + ".idx");
+    }
+
+    /**
+     * Returns the database stored in {@code file}, opening it the first time.
+     */
+    public static synchronized PackageDatabase open(File file) {
+        PackageDatabase database = OPEN.get(file.getAbsoluteFile());
+        // Opened again if the file was replaced behind our back
+        if (database == null || database.file.length() != database.length) {
+            database = new PackageDatabase(file.getAbsoluteFile());
+            database.load();
+            OPEN.put(file.getAbsoluteFile(), database);
+        }
+        return database;
+    }
+
+    /**
+     * Replaces the database stored in {@code file} with one holding exactly
+     * {@code packages}, and returns it.
+     */
+    public static synchronized PackageDatabase create(File file, Collection<Package> packages) throws IOException {
+        PackageDatabase database = new PackageDatabase(file.getAbsoluteFile());
+        database.rewrite(packages);
+        OPEN.put(file.getAbsoluteFile(), database);
+        return database;
+    }
+
+    /**
+     * Changes whenever a package is added, replaced, installed or removed.
+     */
+    public synchronized long getRevision() {
+        return revision;
+    }
+
+    public synchronized boolean isEmpty() {
+        return indexCount == 0 && unindexed.isEmpty();
+    }
+
+    /**
+     * Looks a package up, or returns null if the catalogue has no such package.
+     */
+    public synchronized Package get(String name) {
+        Package pkg = cache.get(name);
+        if (pkg != null || unindexed.contains(name)) {
+            return pkg;
+        }
+        pkg = lookup(name);
+        if (pkg != null) {
+            cache.put(name, pkg);
+        }
+        return pkg;
+    }
+
+    /**
+     * Names of every package in the catalogue, sorted. This reads the name
+     * of every indexed record.
+     */
+    public synchronized Set<String> names() {
+        Set<String> names = new TreeSet<>();
+        for (int i = 0; i < indexCount; i++) {
+            names.add(readName(index.getLong(nameTable() + i * INDEX_ENTRY_SIZE + 4)));
+        }
+        names.addAll(unindexed);
+        return names;
+    }
+
+    /**
+     * The installed packages, by name.
+     */
+    public synchronized List<Package> getInstalled() {
+        List<Package> packages = new ArrayList<>();
+        for (String name : installed) {
+            Package pkg = get(name);
+            if (pkg != null) {
+                packages.add(pkg);
+            }
+        }
+        return packages;
+    }
+
+    /**
+     * Name of the installed package that owns {@code path}, or null.
+     */
+    public synchronized String getOwner(String path) {
+        for (String name : candidates(recentOwners, ownerTable(), ownerCount, path)) {
+            Package pkg = get(name);
+            if (pkg != null && pkg.isInstalled() && pkg.getFiles().contains(path)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installed packages that depend on {@code name}, by name.
+     */
+    public synchronized List<Package> getDependants(String name) {
+        List<Package> dependants = new ArrayList<>();
+        for (String candidate : new TreeSet<>(candidates(recentDependants, dependantTable(), dependantCount, name))) {
+            Package pkg = get(candidate);
+            if (pkg != null && pkg.isInstalled() && pkg.getDependencies().contains(name)) {
+                dependants.add(pkg);
+            }
+        }
+        return dependants;
+    }
+
+    // Names of the packages a table and its overlay list under a key; some may be out of date
+    private Set<String> candidates(Map<String, Set<String>> recent, int table, int count, String key) {
+        Set<String> names = new LinkedHashSet<>(recent.getOrDefault(key, Collections.emptySet()));
+        for (long offset : find(table, count, key.hashCode())) {
+            names.add(readName(offset));
+        }
+        return names;
+    }
+
+    /**
+     * Adds packages to the catalogue or replaces them, in one commit.
+     */
+    public synchronized void putAll(Collection<Package> packages) {
+        update(packages, Collections.emptyList(), true);
+    }
+
+    /**
+     * Marks packages installed or not, in one commit.
+     */
+    public synchronized void setInstalled(Collection<String> names, boolean state) {
+        update(Collections.emptyList(), names, state);
+    }
+
+    /**
+     * Adds or replaces packages and marks others installed or not, all in
+     * one commit, so a transaction is recorded whole or not at all.
+     */
+    public synchronized void update(Collection<Package> packages, Collection<String> names, boolean state) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            for (Package pkg : packages) {
+                appendRecord(records, encode(pkg));
+            }
+            for (String name : names) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream payload = new DataOutputStream(buffer);
+                payload.writeByte(RECORD_STATE);
+                payload.writeUTF(name);
+                payload.writeBoolean(state);
+                appendRecord(records, buffer.toByteArray());
+            }
+            commit(records);
+        } catch (IOException e) {
+            System.err.println("Error saving package database: " + e.getMessage());
+            return;
+        }
+        for (Package pkg : packages) {
+            cache.put(pkg.getName(), pkg);
+            unindexed.add(pkg.getName());
+            track(pkg);
+        }
+        for (String name : names) {
+            Package pkg = get(name);
+            if (pkg != null) {
+                pkg.setInstalled(state);
+                unindexed.add(name);
+                track(pkg);
+            }
+        }
+        revision++;
+        compactIfNeeded();
+    }
+
+    private void track(Package pkg) {
+        if (pkg.isInstalled()) {
+            installed.add(pkg.getName());
+            for (String path : pkg.getFiles()) {
+                recentOwners.computeIfAbsent(path, p -> new HashSet<>()).add(pkg.getName());
+            }
+            for (String dependency : pkg.getDependencies()) {
+                recentDependants.computeIfAbsent(dependency, d -> new HashSet<>()).add(pkg.getName());
+            }
+        } else {
+            installed.remove(pkg.getName());
+        }
+    }
+
+    private void load() {
+        try {
+            if (!file.exists() || file.length() == 0) {
+                rewrite(Collections.emptyList());
+                return;
+            }
+            int magic = readMagic(file);
+            if (magic == LEGACY_MAGIC) {
+                migrate();
+                return;
+            }
+            if (magic != LOG_MAGIC) {
+                throw new IOException("Not a WorkNix package database");
+            }
+            if (!openIndex()) {
+                // The index is missing or belongs to another log, so fold the whole log into a new one
+                unindexed.clear();
+                cache.clear();
+                installed.clear();
+                indexedLength = LOG_HEADER_SIZE;
+                readTail();
+                rewrite(new ArrayList<>(cache.values()));
+                return;
+            }
+            readTail();
+        } catch (IOException e) {
+            System.err.println("Error loading package database: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void migrate() throws IOException {
+        Map<String, Package> packages;
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            packages = (Map<String, Package>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        }
+        rewrite(packages.values());
+    }
+
+    private static int readMagic(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt();
+        } catch (EOFException e) {
+            return 0;
+        }
+    }
+
+    // Maps the log and its index; false if the index does not describe this log
+    private boolean openIndex() throws IOException {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (FileChannel logChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            logChannel.read(header, 0);
+            if (header.position() < LOG_HEADER_SIZE || header.getInt(0) != LOG_MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a WorkNix package database");
+            }
+            long id = header.getLong(8);
+            MappedByteBuffer mapped = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            if (mapped.capacity() < INDEX_HEADER_SIZE || mapped.getInt(0) != INDEX_MAGIC
+                    || mapped.getInt(4) != INDEX_VERSION || mapped.getLong(8) != id
+                    || mapped.getLong(16) > logChannel.size()) {
+                return false;
+            }
+            index = mapped;
+            indexedLength = mapped.getLong(16);
+            indexCount = mapped.getInt(24);
+            ownerCount = mapped.getInt(32);
+            dependantCount = mapped.getInt(36);
+            log = logChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexedLength);
+            // Installed names follow the tables
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(
+                mapped, dependantTable() + dependantCount * INDEX_ENTRY_SIZE, mapped.capacity()));
+            int installedCount = mapped.getInt(28);
+            for (int i = 0; i < installedCount; i++) {
+                installed.add(in.readUTF());
+            }
+            return true;
+        }
+    }
+
+    // Applies the records appended after the indexed part, truncating a torn last record
+    private void readTail() throws IOException {
+        long valid = indexedLength;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.skipBytes((int) indexedLength);
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                apply(payload);
+                valid += payload.length + 8;
+            }
+        }
+        if (valid < file.length()) {
+            System.err.println("Package database: discarding " + (file.length() - valid) + " bytes of incomplete records");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        length = valid;
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        if (type == RECORD_PACKAGE) {
+            Package pkg = decode(in);
+            cache.put(pkg.getName(), pkg);
+            unindexed.add(pkg.getName());
+            track(pkg);
+        } else if (type == RECORD_STATE) {
+            String name = in.readUTF();
+            boolean state = in.readBoolean();
+            Package pkg = get(name);
+            if (pkg != null) {
+                pkg.setInstalled(state);
+                unindexed.add(name);
+                track(pkg);
+            }
+        } else {
+            throw new IOException("Unknown package record type: " + type);
+        }
+    }
+
+    private Package lookup(String name) {
+        for (long offset : find(nameTable(), indexCount, name.hashCode())) {
+            if (readName(offset).equals(name)) {
+                return readPackage(offset);
+            }
+        }
+        return null;
+    }
+
+    private int nameTable() {
+        return INDEX_HEADER_SIZE;
+    }
+
+    private int ownerTable() {
+        return nameTable() + indexCount * INDEX_ENTRY_SIZE;
+    }
+
+    private int dependantTable() {
+        return ownerTable() + ownerCount * INDEX_ENTRY_SIZE;
+    }
+
+    // Binary search of a table for the record offsets listed under a hash
+    private List<Long> find(int table, int count, int hash) {
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getInt(table + mid * INDEX_ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // Keys sharing a hash sit next to each other
+        List<Long> offsets = new ArrayList<>(1);
+        for (int i = low; i < count; i++) {
+            int entry = table + i * INDEX_ENTRY_SIZE;
+            if (index.getInt(entry) != hash) {
+                break;
+            }
+            offsets.add(index.getLong(entry + 4));
+        }
+        return offsets;
+    }
+
+    private String readName(long offset) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(log, (int) offset + 5, log.capacity()));
+            return in.readUTF();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Package readPackage(long offset) {
+        try {
+            // Bounded by the record, so decode can tell whether optional fields follow
+            int end = (int) offset + 4 + log.getInt((int) offset);
+            return decode(new DataInputStream(new ByteBufferInputStream(log, (int) offset + 5, end)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactIfNeeded() {
+        long tail = length - indexedLength;
+        if (tail < MIN_COMPACT_BYTES || tail < length / 4) {
+            return;
+        }
+        List<Package> packages = new ArrayList<>();
+        for (String name : names()) {
+            packages.add(get(name));
+        }
+        try {
+            rewrite(packages);
+        } catch (IOException e) {
+            System.err.println("Error compacting package database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a new log with one record per package and its index, and
+     * switches to them. The log is moved into place first; a crash before
+     * the index follows leaves an index that names another log, which is
+     * then rebuilt.
+     */
+    private void rewrite(Collection<Package> packages) throws IOException {
+        long id = new Random().nextLong();
+        File logTemp = new File(file.getPath() + ".tmp");
+        File indexTemp = new File(indexFile.getPath() + ".tmp");
+        List<long[]> entries = new ArrayList<>();
+        List<long[]> owners = new ArrayList<>();
+        List<long[]> dependants = new ArrayList<>();
+        Set<String> installedNames = new TreeSet<>();
+        long logLength;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logTemp)))) {
+            out.writeInt(LOG_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(id);
+            ByteArrayOutputStream record = new ByteArrayOutputStream();
+            for (Package pkg : packages) {
+                record.reset();
+                appendRecord(record, encode(pkg));
+                long offset = out.size();
+                entries.add(new long[] {pkg.getName().hashCode(), offset});
+                record.writeTo(out);
+                if (pkg.isInstalled()) {
+                    installedNames.add(pkg.getName());
+                    for (String path : pkg.getFiles()) {
+                        owners.add(new long[] {path.hashCode(), offset});
+                    }
+                    for (String dependency : pkg.getDependencies()) {
+                        dependants.add(new long[] {dependency.hashCode(), offset});
+                    }
+                }
+            }
+            logLength = out.size();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexTemp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(id);
+            out.writeLong(logLength);
+            out.writeInt(entries.size());
+            out.writeInt(installedNames.size());
+            out.writeInt(owners.size());
+            out.writeInt(dependants.size());
+            writeTable(out, entries);
+            writeTable(out, owners);
+            writeTable(out, dependants);
+            for (String name : installedNames) {
+                out.writeUTF(name);
+            }
+        }
+        Files.move(logTemp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTemp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        cache.clear();
+        unindexed.clear();
+        installed.clear();
+        installed.addAll(installedNames);
+        recentOwners.clear();
+        recentDependants.clear();
+        for (Package pkg : packages) {
+            cache.put(pkg.getName(), pkg);
+        }
+        length = logLength;
+        openIndex();
+    }
+
+    private static void writeTable(DataOutputStream out, List<long[]> table) throws IOException {
+        table.sort(Comparator.<long[]>comparingLong(e -> e[0]).thenComparingLong(e -> e[1]));
+        for (long[] entry : table) {
+            out.writeInt((int) entry[0]);
+            out.writeLong(entry[1]);
+        }
+    }
+
+    private void commit(ByteArrayOutputStream records) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            records.writeTo(out);
+            out.getFD().sync();
+        }
+        length += records.size();
+    }
+
+    private static void appendRecord(ByteArrayOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payload.length);
+        data.write(payload);
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > (64 << 20)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        int checksum;
+        try {
+            in.readFully(payload);
+            checksum = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? payload : null;
+    }
+
+    static byte[] encode(Package pkg) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(RECORD_PACKAGE);
+        out.writeUTF(pkg.getName());
+        out.writeUTF(pkg.getVersion());
+        out.writeUTF(pkg.getDescription() != null ? pkg.getDescription() : "");
+        out.writeBoolean(pkg.isInstalled());
+        writeStrings(out, pkg.getDependencies());
+        writeStrings(out, pkg.getFiles());
+        out.writeInt(pkg.getApplets().size());
+        for (Map.Entry<String, String> applet : pkg.getApplets().entrySet()) {
+            out.writeUTF(applet.getKey());
+            out.writeUTF(applet.getValue());
+        }
+        boolean constrained = !pkg.getConstraints().isEmpty() || !pkg.getConflicts().isEmpty();
+        if (pkg.getArchive() != null || constrained) {
+            out.writeUTF(pkg.getArchive() != null ? pkg.getArchive() : "");
+        }
+        if (constrained) {
+            writeMap(out, pkg.getConstraints());
+            writeMap(out, pkg.getConflicts());
+        }
+        return buffer.toByteArray();
+    }
+
+    // Reads a package record after its type byte; the stream must end with the record
+    static Package decode(DataInputStream in) throws IOException {
+        Package pkg = new Package(in.readUTF(), in.readUTF(), in.readUTF());
+        pkg.setInstalled(in.readBoolean());
+        for (String dependency : readStrings(in)) {
+            pkg.addDependency(dependency);
+        }
+        for (String path : readStrings(in)) {
+            pkg.addFile(path);
+        }
+        int applets = in.readInt();
+        for (int i = 0; i < applets; i++) {
+            pkg.addApplet(in.readUTF(), in.readUTF());
+        }
+        // Only packages from a repository or with version constraints go on
+        if (in.available() > 0) {
+            String archive = in.readUTF();
+            pkg.setArchive(archive.isEmpty() ? null : archive);
+        }
+        if (in.available() > 0) {
+            pkg.getConstraints().putAll(readMap(in));
+            pkg.getConflicts().putAll(readMap(in));
+        }
+        return pkg;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> values) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            values.put(in.readUTF(), in.readUTF());
+        }
+        return values;
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    /**
+     * Reads a mapping from a position without copying it first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer source, int position, int limit) {
+            this.buffer = source.duplicate();
+            this.buffer.limit(limit);
+            this.buffer.position(position);
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.worknix.pkg;
+
+import com.worknix.FileSystem;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package delta ({@code .wdelta}): the changes that turn the installed files
+ * of one version of a package into those of another.
+ *
+ * <pre>
+ * header    magic, version
+ * manifest  length-prefixed package record of the new version
+ * base      the version the delta applies to
+ * entries   count, then per file of the new version its path, size,
+ *           SHA-256 and whether it is stored as UTF-8 text, and whether it is
+ *           patched from the installed file at the same path, followed by
+ *           that file's SHA-256 and whether it is stored as text if so
+ * content   per changed file its instructions, in entry order: COPY with an
+ *           offset and length in the installed file, ADD with a length and
+ *           the bytes themselves, and END
+ * </pre>
+ *
+ * Bodies are bytes as in the archives, stored as text the way
+ * {@link PackageArchive} stores them, so installed files are read back in
+ * the charset they were stored in. Version 1 deltas predate the flags and
+ * only cover UTF-8 text.
+ *
+ * A file whose installed body already has the new digest has no
+ * instructions and is left alone. {@link #verify} checks every installed
+ * file against the digest the delta was made from and every patched body
+ * against its new digest without writing anything, so a delta that does not
+ * apply leaves the installed version intact; {@link #apply} then streams
+ * each patched file into place and checks it again. Only the installed file
+ * being patched is held in memory, since copies may come from anywhere in it.
+ */
+public class PackageDelta {
+    public static final String EXTENSION = ".wdelta";
+
+    private static final int MAGIC = 0x57444C54; // "WDLT"
+    private static final int VERSION = 2;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Shortest run of bytes looked for in the installed file when writing a delta
+    private static final int BLOCK_SIZE = 32;
+    private static final int HASH_BASE = 0x01000193;
+    private static final int HASH_TOP = power(HASH_BASE, BLOCK_SIZE - 1);
+
+    private static final int END = 0;
+    private static final int COPY = 1;
+    private static final int ADD = 2;
+
+    /**
+     * One file of the new version.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final byte[] digest;
+        private final Charset charset;
+        // Digest of the installed file it is patched from, or null for a new file
+        private final byte[] base;
+        private final Charset baseCharset;
+
+        Entry(String path, long size, byte[] digest, Charset charset, byte[] base, Charset baseCharset) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+            this.charset = charset;
+            this.base = base;
+            this.baseCharset = baseCharset;
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+
+        boolean isUnchanged() {
+            return base != null && Arrays.equals(base, digest) && charset.equals(baseCharset);
+        }
+    }
+
+    private final DataInputStream in;
+    private final Package manifest;
+    private final String baseVersion;
+    private final List<Entry> entries;
+
+    private PackageDelta(DataInputStream in, Package manifest, String baseVersion, List<Entry> entries) {
+        this.in = in;
+        this.manifest = manifest;
+        this.baseVersion = baseVersion;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the manifest and entry table, leaving the stream at the first
+     * instructions.
+     */
+    public static PackageDelta open(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, CHUNK_SIZE));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a WorkNix package delta");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported delta version: " + version);
+        }
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        DataInputStream manifestIn = new DataInputStream(new ByteArrayInputStream(record));
+        manifestIn.readByte();
+        Package manifest = PackageDatabase.decode(manifestIn);
+        manifest.setInstalled(false);
+        String baseVersion = in.readUTF();
+
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            long size = in.readLong();
+            byte[] digest = new byte[DIGEST_LENGTH];
+            in.readFully(digest);
+            Charset charset = version < 2 || in.readBoolean() ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            byte[] base = null;
+            Charset baseCharset = null;
+            if (in.readBoolean()) {
+                base = new byte[DIGEST_LENGTH];
+                in.readFully(base);
+                baseCharset = version < 2 || in.readBoolean() ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            }
+            entries.add(new Entry(path, size, digest, charset, base, baseCharset));
+        }
+        return new PackageDelta(in, manifest, baseVersion, entries);
+    }
+
+    /**
+     * The package version this delta installs.
+     */
+    public Package getPackage() {
+        return manifest;
+    }
+
+    /**
+     * The version whose installed files this delta applies to.
+     */
+    public String getBaseVersion() {
+        return baseVersion;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Checks that the delta applies to the installed files and yields the
+     * new version, without writing anything; the delta must be opened again
+     * to apply it.
+     *
+     * @throws IOException if an installed file is missing or differs from
+     *         the one the delta was made from, or if the delta is corrupt
+     */
+    public void verify(FileSystem fileSystem) throws IOException {
+        checkBases(fileSystem);
+        for (Entry entry : entries) {
+            if (entry.isUnchanged()) {
+                continue;
+            }
+            Patched body = new Patched(in, base(fileSystem, entry), entry.path);
+            boolean decodes = PackageArchive.decodes(body, entry.charset);
+            if (!decodes || body.written != entry.size || !Arrays.equals(body.digest.digest(), entry.digest)) {
+                throw new IOException("Checksum mismatch: " + entry.path);
+            }
+        }
+    }
+
+    /**
+     * Patches the installed files into the new version. Files the new
+     * version no longer has are left for the caller to remove.
+     *
+     * @throws IOException if an installed file is missing or differs from
+     *         the one the delta was made from, in which case nothing has been
+     *         written; or if the delta is corrupt or a patched file does not
+     *         match its digest, in which case files may be half patched,
+     *         which {@link #verify} rules out beforehand
+     */
+    public void apply(FileSystem fileSystem) throws IOException {
+        checkBases(fileSystem);
+        char[] chars = new char[CHUNK_SIZE];
+        for (Entry entry : entries) {
+            if (entry.isUnchanged()) {
+                continue;
+            }
+            byte[] base = base(fileSystem, entry);
+            int slash = entry.path.lastIndexOf('/');
+            if (slash > 0) {
+                fileSystem.createDirectory(entry.path.substring(0, slash));
+            }
+            Patched body = new Patched(in, base, entry.path);
+            try (Writer writer = fileSystem.openFileWriter(entry.path, false);
+                 Reader reader = new InputStreamReader(body, entry.charset.newDecoder())) {
+                int n;
+                while ((n = reader.read(chars)) != -1) {
+                    writer.write(chars, 0, n);
+                }
+            }
+            if (body.written != entry.size || !Arrays.equals(body.digest.digest(), entry.digest)) {
+                throw new IOException("Checksum mismatch: " + entry.path);
+            }
+        }
+    }
+
+    private void checkBases(FileSystem fileSystem) throws IOException {
+        for (Entry entry : entries) {
+            if (entry.base != null) {
+                byte[] digest = PackageArchive.storedDigest(fileSystem, entry.path, entry.baseCharset);
+                if (!Arrays.equals(digest, entry.base)) {
+                    throw new IOException(entry.path + " is not the one in " + manifest.getName() + " " + baseVersion);
+                }
+            }
+        }
+    }
+
+    // The installed body an entry is patched from, empty for a new file
+    private static byte[] base(FileSystem fileSystem, Entry entry) throws IOException {
+        if (entry.base == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        char[] chars = new char[CHUNK_SIZE];
+        // The bases were checked, so the text encodes back to the archived bytes
+        try (Reader reader = fileSystem.openFileReader(entry.path);
+             Writer writer = new OutputStreamWriter(bytes, entry.baseCharset.newEncoder())) {
+            int n;
+            while ((n = reader.read(chars)) != -1) {
+                writer.write(chars, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a delta from the package archive {@code from} to the archive
+     * {@code to} of a later version of the same package.
+     *
+     * @throws IOException if either archive is unreadable or they hold
+     *         different packages
+     */
+    public static void write(File delta, File from, File to) throws IOException {
+        Package base;
+        Map<String, byte[]> before;
+        Map<String, Boolean> beforeText = new HashMap<>();
+        try (InputStream in = new FileInputStream(from)) {
+            PackageArchive archive = PackageArchive.open(in);
+            base = archive.getPackage();
+            textFlags(archive, beforeText);
+            before = archive.readBodies();
+        }
+        Package target;
+        Map<String, byte[]> after;
+        Map<String, Boolean> afterText = new HashMap<>();
+        try (InputStream in = new FileInputStream(to)) {
+            PackageArchive archive = PackageArchive.open(in);
+            target = archive.getPackage();
+            textFlags(archive, afterText);
+            after = archive.readBodies();
+        }
+        if (!base.getName().equals(target.getName())) {
+            throw new IOException(from.getName() + " and " + to.getName() + " hold different packages");
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(delta), CHUNK_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            byte[] record = PackageDatabase.encode(target);
+            out.writeInt(record.length);
+            out.write(record);
+            out.writeUTF(base.getVersion());
+            out.writeInt(after.size());
+            for (Map.Entry<String, byte[]> entry : after.entrySet()) {
+                byte[] old = before.get(entry.getKey());
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().length);
+                out.write(PackageArchive.newDigest().digest(entry.getValue()));
+                out.writeBoolean(afterText.get(entry.getKey()));
+                out.writeBoolean(old != null);
+                if (old != null) {
+                    out.write(PackageArchive.newDigest().digest(old));
+                    out.writeBoolean(beforeText.get(entry.getKey()));
+                }
+            }
+            for (Map.Entry<String, byte[]> entry : after.entrySet()) {
+                byte[] old = before.get(entry.getKey());
+                if (old == null || !Arrays.equals(old, entry.getValue())) {
+                    diff(old != null ? old : new byte[0], entry.getValue(), out);
+                }
+            }
+        }
+    }
+
+    // Whether each file of the archive is stored as UTF-8 text
+    private static void textFlags(PackageArchive archive, Map<String, Boolean> flags) {
+        for (PackageArchive.Entry entry : archive.getEntries()) {
+            flags.put(entry.getPath(), entry.getCharset().equals(StandardCharsets.UTF_8));
+        }
+    }
+
+    /*
+     * Instructions that rebuild target from base. Blocks of base are indexed
+     * by hash at block boundaries, and a rolling hash finds them at any
+     * offset in target; each match is grown both ways before it is copied.
+     */
+    private static void diff(byte[] base, byte[] target, DataOutputStream out) throws IOException {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK_SIZE <= base.length; i += BLOCK_SIZE) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        // Start of the target bytes not covered yet
+        int pending = 0;
+        int at = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (at + BLOCK_SIZE <= target.length) {
+            Integer match = blocks.get(hash);
+            if (match != null && Arrays.equals(base, match, match + BLOCK_SIZE, target, at, at + BLOCK_SIZE)) {
+                int start = match;
+                int from = at;
+                while (start > 0 && from > pending && base[start - 1] == target[from - 1]) {
+                    start--;
+                    from--;
+                }
+                int end = match + BLOCK_SIZE;
+                int to = at + BLOCK_SIZE;
+                while (end < base.length && to < target.length && base[end] == target[to]) {
+                    end++;
+                    to++;
+                }
+                add(target, pending, from, out);
+                out.writeByte(COPY);
+                out.writeInt(start);
+                out.writeInt(end - start);
+                pending = at = to;
+                if (at + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, at);
+                }
+            } else {
+                if (at + BLOCK_SIZE < target.length) {
+                    hash = (hash - (target[at] & 0xFF) * HASH_TOP) * HASH_BASE + (target[at + BLOCK_SIZE] & 0xFF);
+                }
+                at++;
+            }
+        }
+        add(target, pending, target.length, out);
+        out.writeByte(END);
+    }
+
+    private static void add(byte[] target, int from, int to, DataOutputStream out) throws IOException {
+        if (from < to) {
+            out.writeByte(ADD);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++) {
+            hash = hash * HASH_BASE + (bytes[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * The new body of one file, produced from its instructions as it is
+     * read and digested on the way out.
+     */
+    private static final class Patched extends InputStream {
+        private final DataInputStream in;
+        private final byte[] base;
+        private final String path;
+        final MessageDigest digest = PackageArchive.newDigest();
+        long written;
+        // The instruction being carried out: bytes left, and for a copy where it reads from
+        private int remaining;
+        private int offset = -1;
+        private boolean done;
+
+        Patched(DataInputStream in, byte[] base, String path) {
+            this.in = in;
+            this.base = base;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while (remaining == 0) {
+                if (done) {
+                    return -1;
+                }
+                next();
+            }
+            int n = Math.min(len, remaining);
+            if (offset >= 0) {
+                System.arraycopy(base, offset, b, off, n);
+                offset += n;
+            } else {
+                n = in.read(b, off, n);
+                if (n == -1) {
+                    throw new EOFException("Delta ends inside " + path);
+                }
+            }
+            remaining -= n;
+            written += n;
+            digest.update(b, off, n);
+            return n;
+        }
+
+        private void next() throws IOException {
+            int instruction = in.readUnsignedByte();
+            switch (instruction) {
+                case END:
+                    done = true;
+                    break;
+                case COPY:
+                    offset = in.readInt();
+                    remaining = in.readInt();
+                    if (offset < 0 || remaining < 0 || (long) offset + remaining > base.length) {
+                        throw new IOException("Delta copies past the end of " + path);
+                    }
+                    break;
+                case ADD:
+                    offset = -1;
+                    remaining = in.readInt();
+                    if (remaining < 0) {
+                        throw new IOException("Corrupt delta for " + path);
+                    }
+                    break;
+                default:
+                    throw new IOException("Corrupt delta for " + path);
+            }
+        }
+
+        @Override
+        public void close() {
+            // The delta stream carries on with the next file
+        }
+    }
+}
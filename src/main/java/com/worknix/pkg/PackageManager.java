@@ -1,31 +1,55 @@
 package com.worknix.pkg;
 
+import com.worknix.Applet;
+import com.worknix.BusyBox;
 import com.worknix.FileSystem;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 public class PackageManager implements Serializable {
     private static final long serialVersionUID = 1L;
     private static final String PKG_DB_FILE = "worknix_packages.db";
+    private static final String CONFIG_FILE = "/etc/pkg.conf";
+    private static final String CACHE_DIR = "worknix_pkgcache";
+    private static final String SOLUTIONS_FILE = "solutions";
+    private static final String DEFAULT_MAX_DOWNLOADS = "4";
+    private static final String DEFAULT_CACHE_SIZE = "256M";
+    private static final int INSTALL_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
     
-    private final Map<String, Package> packages;
+    private final transient PackageDatabase database;
     private final FileSystem fileSystem;
+    private final transient BusyBox busyBox;
+    // Every version in the cached repository catalogue, by name, and the catalogue file it was read from
+    private transient Map<String, List<Package>> catalogue;
+    private transient long catalogueRevision;
+    private transient long catalogueStamp;
+    // The parsed catalogue index, for the deltas it lists; null without one
+    private transient PackageRepository.Catalogue catalogueIndex;
+    // Commands this session registered from installed packages, as of database revision appletRevision
+    private final transient List<Applet> packageApplets = new ArrayList<>();
+    private transient long appletRevision = -1;
 
-    public PackageManager(FileSystem fileSystem) {
+    public PackageManager(FileSystem fileSystem, BusyBox busyBox) {
         this.fileSystem = fileSystem;
-        this.packages = new HashMap<>();
-        loadPackageDatabase();
+        this.busyBox = busyBox;
+        this.database = PackageDatabase.open(new File(PKG_DB_FILE));
         initializeDefaultPackages();
+        refreshApplets();
     }
 
     private void initializeDefaultPackages() {
-        if (packages.isEmpty()) {
+        if (database.isEmpty()) {
+            Map<String, Package> packages = new LinkedHashMap<>();
             // Add some basic packages
-            addPackage(new Package("coreutils", "1.0", "Basic file, shell and text manipulation utilities"));
-            addPackage(new Package("bash", "1.0", "Bourne Again SHell"));
-            addPackage(new Package("vim", "1.0", "Vi IMproved text editor"));
-            addPackage(new Package("grep", "1.0", "Pattern matching utility"));
-            addPackage(new Package("less", "1.0", "Text file viewer"));
+            addPackage(packages, new Package("coreutils", "1.0", "Basic file, shell and text manipulation utilities"));
+            addPackage(packages, new Package("bash", "1.0", "Bourne Again SHell"));
+            addPackage(packages, new Package("vim", "1.0", "Vi IMproved text editor"));
+            addPackage(packages, new Package("grep", "1.0", "Pattern matching utility"));
+            addPackage(packages, new Package("less", "1.0", "Text file viewer"));
             
             // Add dependencies
             packages.get("vim").addDependency("coreutils");
@@ -38,42 +62,616 @@ public class PackageManager implements Serializable {
             coreutils.addFile("/bin/mv");
             coreutils.addFile("/bin/rm");
             
-            savePackageDatabase();
+            database.putAll(packages.values());
         }
     }
 
     public void install(String packageName) {
-        Package pkg = packages.get(packageName);
-        if (pkg == null) {
-            System.out.println("Package not found: " + packageName);
+        install(Collections.singletonList(packageName));
+    }
+
+    /**
+     * Installs packages and everything they depend on as one transaction.
+     * A name may carry a version constraint, as in {@code vim>=2.0}. The
+     * solver picks a version of every package needed first, then packages are
+     * installed on a bounded pool as soon as their dependencies are in, so
+     * independent branches go in side by side. The database is saved once
+     * at the end. A package whose installation fails is skipped along with
+     * everything that needs it. A name ending in {@code .wpkg} is a local
+     * archive, whose package is offered to the solver and unpacked; its
+     * record only reaches the database once it is installed. Nothing is
+     * installed if a package would overwrite a file owned by another.
+     */
+    public void install(List<String> packageNames) {
+        // Archives given by path offer their package to the solver and are unpacked instead of the placeholders
+        Map<String, File> archives = new HashMap<>();
+        Map<String, Package> manifests = new HashMap<>();
+        // Requested name to version constraint, null for any
+        Map<String, String> requests = new LinkedHashMap<>();
+        for (String name : packageNames) {
+            if (!name.endsWith(PackageArchive.EXTENSION)) {
+                int operator = indexOfOperator(name);
+                try {
+                    requests.put(operator < 0 ? name : name.substring(0, operator),
+                        operator < 0 ? null : Versions.validate(name.substring(operator)));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Cannot install: " + e.getMessage());
+                    return;
+                }
+                continue;
+            }
+            File archive = new File(name);
+            try (InputStream in = new FileInputStream(archive)) {
+                Package pkg = PackageArchive.open(in).getPackage();
+                Package current = database.get(pkg.getName());
+                if (current == null || !current.isInstalled()) {
+                    manifests.put(pkg.getName(), pkg);
+                    archives.put(pkg.getName(), archive);
+                }
+                requests.put(pkg.getName(), "=" + pkg.getVersion());
+            } catch (IOException e) {
+                System.out.println("Cannot read " + name + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        InstallPlan plan;
+        try {
+            Map<String, Package> solution = solve(requests, manifests, false);
+            plan = InstallPlan.resolve(solution::get, requests.keySet());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Cannot install: " + e.getMessage());
+            return;
+        }
+        for (String name : requests.keySet()) {
+            Package current = database.get(name);
+            if (current != null && current.isInstalled()) {
+                System.out.println("Package " + name + " is already installed");
+            }
+        }
+        if (plan.isEmpty()) {
+            return;
+        }
+        String conflict = findConflict(plan);
+        if (conflict != null) {
+            System.out.println("Cannot install: " + conflict);
             return;
         }
 
-        if (pkg.isInstalled()) {
-            System.out.println("Package " + packageName + " is already installed");
+        // Packages from the repository are downloaded before anything is installed
+        List<Package> remote = new ArrayList<>();
+        for (InstallPlan.Step step : plan.steps()) {
+            if (step.pkg.getArchive() != null && !archives.containsKey(step.pkg.getName())) {
+                remote.add(step.pkg);
+            }
+        }
+        PackageRepository repository = null;
+        if (!remote.isEmpty()) {
+            repository = openRepository();
+            if (repository == null) {
+                System.out.println("Cannot install: no repository configured, see pkg repo");
+                return;
+            }
+            try {
+                archives.putAll(repository.fetch(remote));
+            } catch (IOException e) {
+                System.out.println("Cannot download packages: " + e.getMessage());
+                return;
+            }
+        }
+        try {
+            runPlan(plan, archives, Collections.emptyMap(), repository, new ArrayList<>());
+        } finally {
+            if (repository != null) {
+                release(repository, remote);
+            }
+        }
+    }
+
+    /**
+     * Upgrades installed packages, all of them or the ones named together
+     * with everything they depend on, to the newest versions that fit
+     * together. A package for which the repository has a delta from the
+     * installed version is patched in place, so only the bytes that changed
+     * are downloaded; when the delta cannot be fetched or does not apply,
+     * the full archive is installed instead.
+     */
+    public void upgrade(List<String> packageNames) {
+        Map<String, String> requests = new LinkedHashMap<>();
+        for (String name : packageNames) {
+            Package pkg = database.get(name);
+            if (pkg == null || !pkg.isInstalled()) {
+                System.out.println("Package " + name + " is not installed");
+                return;
+            }
+        }
+        if (packageNames.isEmpty()) {
+            for (Package pkg : database.getInstalled()) {
+                requests.put(pkg.getName(), null);
+            }
+        } else {
+            Deque<String> pending = new ArrayDeque<>(packageNames);
+            while (!pending.isEmpty()) {
+                Package pkg = database.get(pending.pop());
+                if (pkg != null && pkg.isInstalled() && !requests.containsKey(pkg.getName())) {
+                    requests.put(pkg.getName(), null);
+                    pending.addAll(pkg.getDependencies());
+                }
+            }
+        }
+
+        InstallPlan plan;
+        try {
+            Map<String, Package> solution = solve(requests, Collections.emptyMap(), true);
+            plan = InstallPlan.resolve(solution::get, requests.keySet());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Cannot upgrade: " + e.getMessage());
+            return;
+        }
+        if (plan.isEmpty()) {
+            System.out.println("All packages are up to date");
+            return;
+        }
+        String conflict = findConflict(plan);
+        if (conflict != null) {
+            System.out.println("Cannot upgrade: " + conflict);
             return;
         }
 
-        // Check and install dependencies first
-        for (String dep : pkg.getDependencies()) {
-            if (!packages.get(dep).isInstalled()) {
-                System.out.println("Installing dependency: " + dep);
-                install(dep);
+        // Installed packages are patched where the repository has a delta from their version
+        Map<String, String> deltaNames = new LinkedHashMap<>();
+        List<Package> remote = new ArrayList<>();
+        for (InstallPlan.Step step : plan.steps()) {
+            Package current = database.get(step.pkg.getName());
+            String delta = current != null && current.isInstalled() && catalogueIndex != null
+                ? catalogueIndex.delta(current.getName(), current.getVersion(), step.pkg.getVersion()) : null;
+            if (delta != null) {
+                deltaNames.put(step.pkg.getName(), delta);
+            } else if (step.pkg.getArchive() != null) {
+                remote.add(step.pkg);
+            }
+        }
+        if (deltaNames.isEmpty() && remote.isEmpty()) {
+            runPlan(plan, Collections.emptyMap(), Collections.emptyMap(), null, new ArrayList<>());
+            return;
+        }
+        PackageRepository repository = openRepository();
+        if (repository == null) {
+            System.out.println("Cannot upgrade: no repository configured, see pkg repo");
+            return;
+        }
+        Map<String, File> deltas = Collections.emptyMap();
+        if (!deltaNames.isEmpty()) {
+            try {
+                deltas = repository.fetchFiles(deltaNames);
+            } catch (IOException e) {
+                System.out.println("Cannot download deltas, using full archives: " + e.getMessage());
+                for (InstallPlan.Step step : plan.steps()) {
+                    if (deltaNames.containsKey(step.pkg.getName())) {
+                        remote.add(step.pkg);
+                    }
+                }
+                deltaNames.clear();
             }
         }
+        Map<String, File> archives;
+        try {
+            archives = repository.fetch(remote);
+        } catch (IOException e) {
+            repository.release(deltaNames.values());
+            System.out.println("Cannot download packages: " + e.getMessage());
+            return;
+        }
+        // Packages whose delta did not apply, with the archive fetched for them instead
+        List<Package> fallbacks = Collections.synchronizedList(new ArrayList<>());
+        try {
+            runPlan(plan, archives, deltas, repository, fallbacks);
+        } finally {
+            repository.release(deltaNames.values());
+            remote.addAll(fallbacks);
+            release(repository, remote);
+        }
+    }
 
-        // Install package files
-        for (String file : pkg.getFiles()) {
-            fileSystem.createFile(file, "# Binary content for " + file);
+    // Unpins downloaded archives; the archive of a package that did not go in is dropped, as it may be broken
+    private void release(PackageRepository repository, List<Package> downloaded) {
+        for (Package pkg : downloaded) {
+            Package record = database.get(pkg.getName());
+            if (!record.isInstalled() || !record.getVersion().equals(pkg.getVersion())) {
+                repository.getCache().remove(pkg.getArchive());
+            }
+        }
+        repository.releaseArchives(downloaded);
+    }
+
+    // Where the version constraint starts in a requested name, or -1
+    private static int indexOfOperator(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if ("<>=!".indexOf(name.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Picks the version of every package a transaction involves. A solution
+     * found before for the same request, installed packages and catalogue
+     * revision is reused once it checks out against the current records.
+     * Packages of local archives, by name, stand in for the records of the
+     * same version.
+     */
+    private Map<String, Package> solve(Map<String, String> requests, Map<String, Package> local, boolean upgrade) {
+        Map<String, List<Package>> available = readCatalogue();
+        Map<String, List<Package>> known = new HashMap<>();
+        Function<String, List<Package>> versions = name -> known.computeIfAbsent(name, n -> {
+            List<Package> list = versionsOf(n, available);
+            Package manifest = local.get(n);
+            if (manifest != null) {
+                list.removeIf(pkg -> pkg.getVersion().equals(manifest.getVersion()));
+                list.add(manifest);
+                list.sort(Comparator.comparing(Package::getVersion, Versions.ORDER).reversed());
+            }
+            return list;
+        });
+        List<Package> installed = database.getInstalled();
+        DependencySolver solver = new DependencySolver(versions, installed, upgrade);
+
+        SolutionCache solutions = SolutionCache.open(new File(CACHE_DIR, SOLUTIONS_FILE));
+        String key = solutionKey(requests, installed, upgrade);
+        Map<String, String> remembered = solutions.get(catalogueRevision, key);
+        if (remembered != null) {
+            Map<String, Package> solution = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : remembered.entrySet()) {
+                for (Package pkg : versions.apply(entry.getKey())) {
+                    if (pkg.getVersion().equals(entry.getValue())) {
+                        solution.put(pkg.getName(), pkg);
+                    }
+                }
+            }
+            if (solution.size() == remembered.size() && solver.verify(requests, solution)) {
+                return solution;
+            }
+        }
+        Map<String, Package> solution = solver.solve(requests);
+        try {
+            solutions.put(catalogueRevision, key, solution);
+        } catch (IOException e) {
+            System.err.println("Error saving package solutions: " + e.getMessage());
+        }
+        return solution;
+    }
+
+    // The versions of a package in the catalogue and the database, newest first; the database record wins a tie
+    private List<Package> versionsOf(String name, Map<String, List<Package>> available) {
+        List<Package> versions = new ArrayList<>(available.getOrDefault(name, Collections.emptyList()));
+        Package record = database.get(name);
+        if (record != null) {
+            versions.removeIf(pkg -> pkg.getVersion().equals(record.getVersion()));
+            versions.add(record);
+        }
+        versions.sort(Comparator.comparing(Package::getVersion, Versions.ORDER).reversed());
+        return versions;
+    }
+
+    // The cached repository catalogue by package name, read again only when the file changes
+    private Map<String, List<Package>> readCatalogue() {
+        File index = new File(CACHE_DIR, PackageRepository.INDEX);
+        long stamp = index.exists() ? index.lastModified() ^ index.length() : 0;
+        if (catalogue != null && stamp == catalogueStamp) {
+            return catalogue;
+        }
+        Map<String, List<Package>> byName = new HashMap<>();
+        PackageRepository.Catalogue read = null;
+        long revision = 0;
+        if (index.exists()) {
+            try {
+                read = PackageRepository.readIndex(index);
+                for (Package pkg : read.packages) {
+                    byName.computeIfAbsent(pkg.getName(), n -> new ArrayList<>()).add(pkg);
+                }
+                revision = read.revision;
+            } catch (IOException e) {
+                System.err.println("Error reading package catalogue: " + e.getMessage());
+            }
+        }
+        catalogue = byName;
+        catalogueIndex = read;
+        catalogueRevision = revision;
+        catalogueStamp = stamp;
+        return catalogue;
+    }
+
+    // Digest of what a solution depends on besides the catalogue
+    private static String solutionKey(Map<String, String> requests, List<Package> installed, boolean upgrade) {
+        StringBuilder text = new StringBuilder(upgrade ? "upgrade\n" : "install\n");
+        for (String name : new TreeSet<>(requests.keySet())) {
+            text.append(name).append(' ').append(Objects.toString(requests.get(name), "")).append('\n');
+        }
+        text.append('\n');
+        List<String> state = new ArrayList<>();
+        for (Package pkg : installed) {
+            state.add(pkg.getName() + " " + pkg.getVersion());
+        }
+        Collections.sort(state);
+        for (String line : state) {
+            text.append(line).append('\n');
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : PackageArchive.newDigest().digest(text.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // A file that a planned package shares with an installed one or with another planned one
+    private String findConflict(InstallPlan plan) {
+        Map<String, String> claimed = new HashMap<>();
+        for (InstallPlan.Step step : plan.steps()) {
+            String name = step.pkg.getName();
+            for (String file : step.pkg.getFiles()) {
+                String owner = database.getOwner(file);
+                if (owner == null) {
+                    owner = claimed.putIfAbsent(file, name);
+                }
+                if (owner != null && !owner.equals(name)) {
+                    return name + " and " + owner + " both provide " + file;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Installs the steps of a plan. A step with a delta patches the installed
+     * version, fetching its archive from repository into fallbacks if the
+     * delta does not apply; packages replacing an installed version drop the
+     * files and commands the new version no longer has.
+     */
+    private void runPlan(InstallPlan plan, Map<String, File> archives, Map<String, File> deltas,
+            PackageRepository repository, List<Package> fallbacks) {
+        // A pool per transaction, so its threads inherit the session's console
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(INSTALL_THREADS, plan.size()));
+        CountDownLatch finished = new CountDownLatch(plan.size());
+        try {
+            for (InstallPlan.Step step : plan.ready()) {
+                pool.execute(() -> installStep(step, archives, deltas, repository, fallbacks, pool, finished));
+            }
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Installation interrupted");
+            return;
+        } finally {
+            pool.shutdown();
+        }
+
+        List<String> done = new ArrayList<>();
+        // Packages other than the record in the database replace it
+        List<Package> replaced = new ArrayList<>();
+        // Installed version of each package upgraded
+        Map<String, String> upgraded = new HashMap<>();
+        for (InstallPlan.Step step : plan.steps()) {
+            Package current = database.get(step.pkg.getName());
+            if (step.failed) {
+                System.out.println("Not installed: " + step.pkg.getName());
+            } else if (current == step.pkg) {
+                done.add(step.pkg.getName());
+            } else {
+                // Another version, or a package from a local archive that has no record yet
+                if (current != null && current.isInstalled()) {
+                    dropLeftovers(current, step.pkg);
+                    if (!current.getVersion().equals(step.pkg.getVersion())) {
+                        upgraded.put(current.getName(), current.getVersion());
+                    }
+                }
+                step.pkg.setInstalled(true);
+                replaced.add(step.pkg);
+            }
+        }
+        database.update(replaced, done, true);
+        refreshApplets();
+        for (InstallPlan.Step step : plan.steps()) {
+            if (!step.failed) {
+                String from = upgraded.get(step.pkg.getName());
+                System.out.println(from == null ? "Successfully installed " + step.pkg.getName()
+                    : "Successfully upgraded " + step.pkg.getName() + " from " + from + " to " + step.pkg.getVersion());
+            }
+        }
+    }
+
+    // Removes the files of an installed version that its replacement does not have
+    private void dropLeftovers(Package current, Package replacement) {
+        for (String file : current.getFiles()) {
+            if (!replacement.getFiles().contains(file) && current.getName().equals(database.getOwner(file))
+                    && fileSystem.getFile(file) != null) {
+                fileSystem.deleteFile(file);
+            }
+        }
+    }
+
+    // Runs on the pool; hands each dependant on once its last dependency is done
+    private void installStep(InstallPlan.Step step, Map<String, File> archives, Map<String, File> deltas,
+            PackageRepository repository, List<Package> fallbacks, ExecutorService pool, CountDownLatch finished) {
+        File archive = archives.get(step.pkg.getName());
+        File delta = deltas.get(step.pkg.getName());
+        try {
+            if (step.blocked()) {
+                step.failed = true;
+            } else if (delta != null) {
+                patch(step.pkg, delta, repository, fallbacks);
+            } else if (archive != null) {
+                extract(step.pkg, archive);
+            } else {
+                for (String file : step.pkg.getFiles()) {
+                    fileSystem.createFile(file, "# Binary content for " + file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            step.failed = true;
+            System.err.println("Error installing " + step.pkg.getName() + ": " + e.getMessage());
+        } finally {
+            for (InstallPlan.Step dependant : step.dependants) {
+                if (dependant.waiting.decrementAndGet() == 0) {
+                    pool.execute(() -> installStep(dependant, archives, deltas, repository, fallbacks, pool, finished));
+                }
+            }
+            finished.countDown();
         }
+    }
 
-        pkg.setInstalled(true);
-        System.out.println("Successfully installed " + packageName);
-        savePackageDatabase();
+    // Applies a delta to the installed version, or installs the full archive when it does not apply
+    private void patch(Package pkg, File delta, PackageRepository repository, List<Package> fallbacks)
+            throws IOException {
+        try {
+            // Checked in full first, so a delta that does not apply leaves the installed files alone
+            try (InputStream in = new FileInputStream(delta)) {
+                PackageDelta.open(in).verify(fileSystem);
+            }
+            try (InputStream in = new FileInputStream(delta)) {
+                PackageDelta.open(in).apply(fileSystem);
+            }
+            return;
+        } catch (IOException e) {
+            System.out.println("Cannot patch " + pkg.getName() + ", installing the full archive: " + e.getMessage());
+        }
+        File archive = repository.fetch(Collections.singletonList(pkg)).get(pkg.getName());
+        fallbacks.add(pkg);
+        extract(pkg, archive);
+    }
+
+    // Unpacks an archive once it has been verified in full, so a broken one never
+    // overwrites the files of an installed version
+    private void extract(Package pkg, File archive) throws IOException {
+        try (InputStream in = new FileInputStream(archive)) {
+            PackageArchive.open(in).verify();
+        }
+        try (InputStream in = new FileInputStream(archive)) {
+            PackageArchive.open(in).extract(fileSystem);
+        } catch (IOException e) {
+            // Only writing can have failed; files an installed package owns are left in place
+            for (String file : pkg.getFiles()) {
+                if (database.getOwner(file) == null && fileSystem.getFile(file) != null) {
+                    fileSystem.deleteFile(file);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fetches the catalogue of the configured repository and adds the newest
+     * version of each of its packages; the others stay available to the
+     * solver. Installed packages keep their record.
+     */
+    public void update() {
+        PackageRepository repository = openRepository();
+        if (repository == null) {
+            System.out.println("No repository configured, see pkg repo");
+            return;
+        }
+        PackageRepository.Catalogue catalogue;
+        try {
+            catalogue = repository.fetchIndex();
+        } catch (IOException e) {
+            System.out.println("Cannot update: " + e.getMessage());
+            return;
+        }
+        if (catalogue == null) {
+            System.out.println("Package catalogue is up to date");
+            return;
+        }
+        Map<String, Package> newest = new LinkedHashMap<>();
+        for (Package pkg : catalogue.packages) {
+            newest.merge(pkg.getName(), pkg,
+                (a, b) -> Versions.compare(a.getVersion(), b.getVersion()) >= 0 ? a : b);
+        }
+        List<Package> changed = new ArrayList<>();
+        int newer = 0;
+        try {
+            for (Package pkg : newest.values()) {
+                Package current = database.get(pkg.getName());
+                if (current != null && current.isInstalled()) {
+                    if (!current.getVersion().equals(pkg.getVersion())) {
+                        if (Versions.compare(pkg.getVersion(), current.getVersion()) > 0) {
+                            newer++;
+                        }
+                        continue;
+                    }
+                    pkg.setInstalled(true);
+                }
+                if (current == null || !Arrays.equals(PackageDatabase.encode(current), PackageDatabase.encode(pkg))) {
+                    changed.add(pkg);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot update: " + e.getMessage());
+            return;
+        }
+        if (!changed.isEmpty()) {
+            database.putAll(changed);
+        }
+        System.out.println("Catalogue has " + newest.size() + " packages, " + changed.size() + " changed");
+        if (newer > 0) {
+            System.out.println(newer + " installed packages have a newer version, see pkg upgrade");
+        }
+    }
+
+    /**
+     * Sets the repository URL in the package configuration: a
+     * {@code file://} directory or an {@code http://} base URL.
+     */
+    public void setRepository(String url) {
+        Properties config = readConfig();
+        config.setProperty("repository", url);
+        StringBuilder text = new StringBuilder();
+        for (String key : new TreeSet<>(config.stringPropertyNames())) {
+            text.append(key).append('=').append(config.getProperty(key)).append('\n');
+        }
+        fileSystem.createFile(CONFIG_FILE, text.toString());
+    }
+
+    // The repository named in the configuration, or null if there is none
+    private PackageRepository openRepository() {
+        Properties config = readConfig();
+        String url = config.getProperty("repository");
+        if (url == null) {
+            return null;
+        }
+        try {
+            int maxDownloads = Integer.parseInt(config.getProperty("max_downloads", DEFAULT_MAX_DOWNLOADS).trim());
+            long cacheSize = parseSize(config.getProperty("cache_size", DEFAULT_CACHE_SIZE).trim());
+            return new PackageRepository(url, PackageCache.open(new File(CACHE_DIR), cacheSize), maxDownloads);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid setting in " + CONFIG_FILE + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Properties readConfig() {
+        Properties config = new Properties();
+        if (fileSystem.getFile(CONFIG_FILE) != null) {
+            try {
+                config.load(new StringReader(fileSystem.getFile(CONFIG_FILE).getContent()));
+            } catch (IOException e) {
+                System.err.println("Error reading " + CONFIG_FILE + ": " + e.getMessage());
+            }
+        }
+        return config;
+    }
+
+    // A byte count with an optional K, M or G suffix
+    private static long parseSize(String value) {
+        String units = "KMG";
+        int unit = value.isEmpty() ? -1 : units.indexOf(Character.toUpperCase(value.charAt(value.length() - 1)));
+        if (unit < 0) {
+            return Long.parseLong(value);
+        }
+        return Long.parseLong(value.substring(0, value.length() - 1)) << (10 * (unit + 1));
     }
 
     public void remove(String packageName) {
-        Package pkg = packages.get(packageName);
+        Package pkg = database.get(packageName);
         if (pkg == null) {
             System.out.println("Package not found: " + packageName);
             return;
@@ -84,27 +682,39 @@ public class PackageManager implements Serializable {
             return;
         }
 
-        // Check if other packages depend on this one
-        for (Package p : packages.values()) {
-            if (p.isInstalled() && p.getDependencies().contains(packageName)) {
-                System.out.println("Cannot remove: package " + p.getName() + " depends on " + packageName);
-                return;
-            }
+        List<Package> dependants = database.getDependants(packageName);
+        if (!dependants.isEmpty()) {
+            System.out.println("Cannot remove: package " + dependants.get(0).getName() + " depends on " + packageName);
+            return;
         }
 
-        // Remove package files
         for (String file : pkg.getFiles()) {
-            fileSystem.deleteFile(file);
+            if (packageName.equals(database.getOwner(file))) {
+                fileSystem.deleteFile(file);
+            }
         }
 
-        pkg.setInstalled(false);
+        database.setInstalled(Collections.singletonList(packageName), false);
+        refreshApplets();
         System.out.println("Successfully removed " + packageName);
-        savePackageDatabase();
+    }
+
+    /**
+     * Prints which installed package a file belongs to.
+     */
+    public void owner(String path) {
+        String name = database.getOwner(path);
+        if (name == null) {
+            System.out.println("No package owns " + path);
+            return;
+        }
+        System.out.println(path + " is owned by " + name + "-" + database.get(name).getVersion());
     }
 
     public void list() {
         System.out.println("Available packages:");
-        for (Package pkg : packages.values()) {
+        for (String name : database.names()) {
+            Package pkg = database.get(name);
             System.out.printf("%-15s %-10s %s%n", 
                 pkg.getName(), 
                 pkg.getVersion(), 
@@ -113,7 +723,7 @@ public class PackageManager implements Serializable {
     }
 
     public void info(String packageName) {
-        Package pkg = packages.get(packageName);
+        Package pkg = database.get(packageName);
         if (pkg == null) {
             System.out.println("Package not found: " + packageName);
             return;
@@ -125,9 +735,27 @@ public class PackageManager implements Serializable {
         System.out.println("Description: " + pkg.getDescription());
         
         if (!pkg.getDependencies().isEmpty()) {
-            System.out.println("Dependencies: " + String.join(", ", pkg.getDependencies()));
+            System.out.println("Dependencies: " + describe(pkg.getDependencies(), pkg.getConstraints()));
+        }
+
+        if (!pkg.getConflicts().isEmpty()) {
+            System.out.println("Conflicts: " + describe(pkg.getConflicts().keySet(), pkg.getConflicts()));
+        }
+
+        List<String> others = new ArrayList<>();
+        for (Package version : versionsOf(packageName, readCatalogue())) {
+            if (!version.getVersion().equals(pkg.getVersion())) {
+                others.add(version.getVersion());
+            }
+        }
+        if (!others.isEmpty()) {
+            System.out.println("Other versions: " + String.join(", ", others));
         }
         
+        if (!pkg.getApplets().isEmpty()) {
+            System.out.println("Commands: " + String.join(", ", pkg.getApplets().keySet()));
+        }
+
         if (!pkg.getFiles().isEmpty()) {
             System.out.println("Files:");
             for (String file : pkg.getFiles()) {
@@ -136,29 +764,74 @@ public class PackageManager implements Serializable {
         }
     }
 
-    private void addPackage(Package pkg) {
-        packages.put(pkg.getName(), pkg);
+    // Names with their version constraints, as in "coreutils (>= 1.0), grep"
+    private static String describe(Collection<String> names, Map<String, String> constraints) {
+        List<String> parts = new ArrayList<>();
+        for (String name : names) {
+            String constraint = constraints.get(name);
+            parts.add(constraint == null || constraint.isEmpty() ? name : name + " (" + constraint + ")");
+        }
+        return String.join(", ", parts);
     }
 
-    private void savePackageDatabase() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(
-                new FileOutputStream(PKG_DB_FILE))) {
-            oos.writeObject(packages);
-        } catch (IOException e) {
-            System.err.println("Error saving package database: " + e.getMessage());
+    /**
+     * Brings the commands of this session's shell in line with the installed
+     * packages, which other sessions may have changed since the last call.
+     */
+    public synchronized void refreshApplets() {
+        long revision = database.getRevision();
+        if (revision == appletRevision) {
+            return;
+        }
+        for (Applet applet : packageApplets) {
+            busyBox.unregister(applet);
+        }
+        packageApplets.clear();
+        for (Package pkg : database.getInstalled()) {
+            registerApplets(pkg);
         }
+        appletRevision = revision;
     }
 
-    @SuppressWarnings("unchecked")
-    private void loadPackageDatabase() {
-        try (ObjectInputStream ois = new ObjectInputStream(
-                new FileInputStream(PKG_DB_FILE))) {
-            Map<String, Package> loaded = (Map<String, Package>) ois.readObject();
-            packages.putAll(loaded);
-        } catch (FileNotFoundException e) {
-            // Ignore - will create new database
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading package database: " + e.getMessage());
+    /**
+     * Makes the applets shipped by an installed package available to the
+     * shell. A package cannot replace a command the shell already has, and
+     * only classes implementing {@link Applet} are instantiated.
+     */
+    private void registerApplets(Package pkg) {
+        for (Map.Entry<String, String> entry : pkg.getApplets().entrySet()) {
+            String error = "Error loading command " + entry.getKey() + " from " + pkg.getName() + ": ";
+            if (busyBox.getApplet(entry.getKey()) != null) {
+                System.err.println(error + "the shell already has it");
+                continue;
+            }
+            try {
+                // Not initialized, so nothing of a class that is no applet runs
+                Class<?> type = Class.forName(entry.getValue(), false, PackageManager.class.getClassLoader());
+                if (!Applet.class.isAssignableFrom(type)) {
+                    System.err.println(error + type.getName() + " is not an applet");
+                    continue;
+                }
+                Applet applet;
+                try {
+                    applet = (Applet) type.getConstructor(FileSystem.class).newInstance(fileSystem);
+                } catch (NoSuchMethodException e) {
+                    applet = (Applet) type.getConstructor().newInstance();
+                }
+                if (!applet.getName().equals(entry.getKey())) {
+                    System.err.println(error + type.getName() + " is the command " + applet.getName());
+                } else if (!busyBox.registerIfAbsent(applet)) {
+                    System.err.println(error + "the shell already has it");
+                } else {
+                    packageApplets.add(applet);
+                }
+            } catch (ReflectiveOperationException e) {
+                System.err.println(error + e.getMessage());
+            }
         }
     }
-} 
\ No newline at end of file
+
+    private static void addPackage(Map<String, Package> packages, Package pkg) {
+        packages.put(pkg.getName(), pkg);
+    }
+}
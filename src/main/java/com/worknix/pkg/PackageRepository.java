@@ -0,0 +1,363 @@
+package com.worknix.pkg;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client of a package repository: a directory, local or served over HTTP,
+ * holding a catalogue {@code index} and the {@code .wpkg} archives and
+ * {@code .wdelta} deltas it names.
+ *
+ * The index is fetched with the validators of the last copy, so an
+ * unchanged catalogue costs one 304 response. Archives and deltas never change
+ * once published, so a cached one is used without asking the server at all;
+ * others are downloaded concurrently, at most a configured number at a
+ * time, and an interrupted download is resumed with a range request.
+ */
+public class PackageRepository {
+    static final String INDEX = "index";
+
+    private static final int INDEX_MAGIC = 0x574E5843; // "WNXC"
+    private static final int INDEX_VERSION = 2;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI base;
+    private final PackageCache cache;
+    private final int maxDownloads;
+    private HttpClient client;
+
+    /**
+     * A parsed catalogue index.
+     */
+    static final class Catalogue {
+        final long revision;
+        final List<Package> packages;
+        // Delta file by package name, base version and new version
+        private final Map<String, String> deltas;
+
+        Catalogue(long revision, List<Package> packages, Map<String, String> deltas) {
+            this.revision = revision;
+            this.packages = packages;
+            this.deltas = deltas;
+        }
+
+        /**
+         * The delta from version {@code from} of a package to version
+         * {@code to}, or null if the repository has none.
+         */
+        String delta(String name, String from, String to) {
+            return deltas.get(deltaKey(name, from, to));
+        }
+
+        private static String deltaKey(String name, String from, String to) {
+            return name + ' ' + from + ' ' + to;
+        }
+    }
+
+    PackageRepository(String url, PackageCache cache, int maxDownloads) {
+        this.base = URI.create(url.endsWith("/") ? url : url + "/");
+        this.cache = cache;
+        this.maxDownloads = Math.max(1, maxDownloads);
+    }
+
+    PackageCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Fetches the catalogue, or returns null if it has not changed since the
+     * last fetch.
+     */
+    Catalogue fetchIndex() throws IOException {
+        synchronized (cache.downloadLock(INDEX)) {
+            return downloadIndex();
+        }
+    }
+
+    private Catalogue downloadIndex() throws IOException {
+        File cached = new File(cache.getDirectory(), INDEX);
+        File validators = new File(cache.getDirectory(), INDEX + ".validators");
+        File part = new File(cache.getDirectory(), INDEX + ".part");
+        URI uri = base.resolve(INDEX);
+        if (isFile()) {
+            File source = new File(uri);
+            if (cached.exists() && cached.length() == source.length()
+                    && cached.lastModified() == source.lastModified()) {
+                return null;
+            }
+            Files.copy(source.toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            part.setLastModified(source.lastModified());
+        } else {
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT);
+            Properties previous = new Properties();
+            if (cached.exists() && validators.exists()) {
+                try (InputStream in = new FileInputStream(validators)) {
+                    previous.load(in);
+                }
+                if (previous.getProperty("etag") != null) {
+                    request.header("If-None-Match", previous.getProperty("etag"));
+                }
+                if (previous.getProperty("last-modified") != null) {
+                    request.header("If-Modified-Since", previous.getProperty("last-modified"));
+                }
+            }
+            HttpResponse<Path> response = send(request.build(), HttpResponse.BodyHandlers.ofFile(part.toPath()));
+            if (response.statusCode() == 304) {
+                part.delete();
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException(uri + ": HTTP " + response.statusCode());
+            }
+            Properties current = new Properties();
+            response.headers().firstValue("ETag").ifPresent(v -> current.setProperty("etag", v));
+            response.headers().firstValue("Last-Modified").ifPresent(v -> current.setProperty("last-modified", v));
+            try (OutputStream out = new FileOutputStream(validators)) {
+                current.store(out, null);
+            }
+        }
+        Catalogue catalogue = readIndex(part);
+        Files.move(part.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return catalogue;
+    }
+
+    /**
+     * Returns the archive of every package, from the cache or downloaded,
+     * by package name. The archives stay pinned in the cache until released.
+     */
+    Map<String, File> fetch(Collection<Package> packages) throws IOException {
+        Map<String, String> names = new LinkedHashMap<>();
+        for (Package pkg : packages) {
+            names.put(pkg.getName(), pkg.getArchive());
+        }
+        return fetchFiles(names);
+    }
+
+    /**
+     * Returns the repository files named by the values of {@code names},
+     * from the cache or downloaded, by their keys. The files stay pinned in
+     * the cache until released.
+     */
+    Map<String, File> fetchFiles(Map<String, String> names) throws IOException {
+        for (String name : names.values()) {
+            PackageCache.checkName(name);
+        }
+        Map<String, File> files = new HashMap<>();
+        Map<String, Future<File>> downloads = new LinkedHashMap<>();
+        // Names pinned so far; once the call has failed, downloads still running unpin their own
+        List<String> pinned = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        // A pool per call, so its threads inherit the session's console
+        ExecutorService pool = Executors.newFixedThreadPool(maxDownloads);
+        boolean complete = false;
+        try {
+            for (Map.Entry<String, String> name : names.entrySet()) {
+                File file = cache.acquire(name.getValue());
+                if (file != null) {
+                    synchronized (pinned) {
+                        pinned.add(name.getValue());
+                    }
+                    files.put(name.getKey(), file);
+                } else {
+                    downloads.put(name.getKey(), pool.submit(() -> {
+                        File downloaded = download(name.getValue());
+                        synchronized (pinned) {
+                            if (failed.get()) {
+                                cache.release(Collections.singletonList(name.getValue()));
+                            } else {
+                                pinned.add(name.getValue());
+                            }
+                        }
+                        return downloaded;
+                    }));
+                }
+            }
+            for (Map.Entry<String, Future<File>> download : downloads.entrySet()) {
+                files.put(download.getKey(), download.getValue().get());
+            }
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (!complete) {
+                synchronized (pinned) {
+                    failed.set(true);
+                    cache.release(pinned);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Unpins the archives of packages once they are installed.
+     */
+    void releaseArchives(Collection<Package> packages) {
+        List<String> names = new ArrayList<>();
+        for (Package pkg : packages) {
+            names.add(pkg.getArchive());
+        }
+        cache.release(names);
+    }
+
+    /**
+     * Unpins files returned by {@link #fetchFiles}.
+     */
+    void release(Collection<String> names) {
+        cache.release(names);
+    }
+
+    // Waits for another session downloading the same file, then uses its copy
+    private File download(String name) throws IOException {
+        synchronized (cache.downloadLock(name)) {
+            File cached = cache.acquire(name);
+            return cached != null ? cached : transfer(name);
+        }
+    }
+
+    private File transfer(String name) throws IOException {
+        System.out.println("Downloading " + name);
+        URI uri = base.resolve(name);
+        File part = cache.partFile(name);
+        if (isFile()) {
+            Files.copy(Paths.get(uri), part.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return cache.commit(name);
+        }
+        long resumeFrom = part.exists() ? part.length() : 0;
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri).timeout(TIMEOUT);
+        if (resumeFrom > 0) {
+            request.header("Range", "bytes=" + resumeFrom + "-");
+        }
+        HttpResponse<InputStream> response = send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        int status = response.statusCode();
+        try (InputStream body = response.body()) {
+            if (status == 416 && resumeFrom > 0) {
+                // The part already holds the whole archive
+                return cache.commit(name);
+            }
+            if (status != 200 && status != 206) {
+                throw new IOException(uri + ": HTTP " + status);
+            }
+            // What arrived is kept, so the next attempt resumes from there
+            try (OutputStream out = new FileOutputStream(part, status == 206)) {
+                body.transferTo(out);
+            }
+        } catch (IOException e) {
+            throw new IOException(name + ": " + e.getMessage(), e);
+        }
+        return cache.commit(name);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        synchronized (this) {
+            if (client == null) {
+                client = HttpClient.newBuilder()
+                    .connectTimeout(TIMEOUT)
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+            }
+        }
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Download interrupted");
+        }
+    }
+
+    private boolean isFile() {
+        return "file".equals(base.getScheme());
+    }
+
+    static Catalogue readIndex(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Not a WorkNix package index");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > INDEX_VERSION) {
+                throw new IOException("Unsupported index version: " + version);
+            }
+            long revision = in.readLong();
+            int count = in.readInt();
+            List<Package> packages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                recordIn.readByte();
+                packages.add(PackageDatabase.decode(recordIn));
+            }
+            // Version 1 indexes list no deltas
+            Map<String, String> deltas = new HashMap<>();
+            int deltaCount = version >= 2 ? in.readInt() : 0;
+            for (int i = 0; i < deltaCount; i++) {
+                String key = Catalogue.deltaKey(in.readUTF(), in.readUTF(), in.readUTF());
+                deltas.put(key, in.readUTF());
+            }
+            return new Catalogue(revision, packages, deltas);
+        }
+    }
+
+    /**
+     * Writes the catalogue index of a repository directory from the
+     * manifests of the archives in it, followed by the package and versions
+     * of each delta in it.
+     */
+    public static void writeIndex(File dir) throws IOException {
+        File[] archives = dir.listFiles((d, name) -> name.endsWith(PackageArchive.EXTENSION));
+        if (archives == null) {
+            throw new FileNotFoundException(dir + ": No such directory");
+        }
+        File[] deltas = dir.listFiles((d, name) -> name.endsWith(PackageDelta.EXTENSION));
+        Arrays.sort(archives);
+        Arrays.sort(deltas);
+        File temp = new File(dir, INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(archives.length);
+            for (File archive : archives) {
+                Package pkg;
+                try (InputStream in = new FileInputStream(archive)) {
+                    pkg = PackageArchive.open(in).getPackage();
+                }
+                pkg.setArchive(archive.getName());
+                byte[] record = PackageDatabase.encode(pkg);
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            out.writeInt(deltas.length);
+            for (File delta : deltas) {
+                PackageDelta header;
+                try (InputStream in = new FileInputStream(delta)) {
+                    header = PackageDelta.open(in);
+                }
+                out.writeUTF(header.getPackage().getName());
+                out.writeUTF(header.getBaseVersion());
+                out.writeUTF(header.getPackage().getVersion());
+                out.writeUTF(delta.getName());
+            }
+        }
+        Files.move(temp.toPath(), new File(dir, INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
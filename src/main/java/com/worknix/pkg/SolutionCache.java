@@ -0,0 +1,126 @@
+package com.worknix.pkg;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dependency solutions remembered across sessions, for the catalogue
+ * revision they were found in.
+ *
+ * A solution is stored by a key describing the transaction and the
+ * installed packages it started from, as the chosen package versions. Once
+ * the catalogue changes revision every solution is dropped. Callers still
+ * check a solution against the current packages before using it.
+ *
+ * <pre>
+ * magic, version, catalogue revision, count, then per solution its key,
+ * the number of packages and their names and versions
+ * </pre>
+ */
+class SolutionCache {
+    private static final int MAGIC = 0x574E5853; // "WNXS"
+    private static final int VERSION = 1;
+    private static final int MAX_SOLUTIONS = 64;
+
+    private static final Map<File, SolutionCache> OPEN = new HashMap<>();
+
+    private final File file;
+    private long revision;
+    // Key to package name and version, least recently used first
+    private final Map<String, Map<String, String>> solutions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private SolutionCache(File file) {
+        this.file = file;
+        if (file.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                // Only an optimisation; start over
+                solutions.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the cache kept in {@code file}, shared by every session.
+     */
+    static synchronized SolutionCache open(File file) {
+        return OPEN.computeIfAbsent(file.getAbsoluteFile(), SolutionCache::new);
+    }
+
+    /**
+     * The versions chosen for {@code key} in catalogue {@code revision}, by
+     * package name, or null.
+     */
+    synchronized Map<String, String> get(long revision, String key) {
+        return revision == this.revision ? solutions.get(key) : null;
+    }
+
+    /**
+     * Remembers a solution and writes the cache out.
+     */
+    synchronized void put(long revision, String key, Map<String, Package> solution) throws IOException {
+        if (revision != this.revision) {
+            solutions.clear();
+            this.revision = revision;
+        }
+        Map<String, String> chosen = new LinkedHashMap<>();
+        for (Package pkg : solution.values()) {
+            chosen.put(pkg.getName(), pkg.getVersion());
+        }
+        solutions.put(key, chosen);
+        Iterator<String> oldest = solutions.keySet().iterator();
+        while (solutions.size() > MAX_SOLUTIONS) {
+            oldest.next();
+            oldest.remove();
+        }
+        save();
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            revision = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                int size = in.readInt();
+                Map<String, String> chosen = new LinkedHashMap<>();
+                for (int j = 0; j < size; j++) {
+                    chosen.put(in.readUTF(), in.readUTF());
+                }
+                solutions.put(key, chosen);
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        List<Map.Entry<String, Map<String, String>>> entries = new ArrayList<>(solutions.entrySet());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(revision);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Map<String, String>> entry : entries) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<String, String> pkg : entry.getValue().entrySet()) {
+                    out.writeUTF(pkg.getKey());
+                    out.writeUTF(pkg.getValue());
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
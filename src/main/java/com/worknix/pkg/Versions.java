@@ -0,0 +1,158 @@
+package com.worknix.pkg;
+
+import java.util.Comparator;
+
+/**
+ * Package version ordering and version constraints.
+ *
+ * Versions are compared segment by segment, splitting at dots and dashes;
+ * numeric segments compare as numbers, so 1.10 comes after 1.9, and a
+ * version that runs out of segments first is the older one. A constraint is
+ * a comma-separated list of comparisons that must all hold, such as
+ * {@code >= 1.2, < 2.0}; the operators are {@code =}, {@code !=},
+ * {@code <}, {@code <=}, {@code >} and {@code >=}.
+ */
+final class Versions {
+    /**
+     * Orders versions from oldest to newest.
+     */
+    static final Comparator<String> ORDER = Versions::compare;
+
+    private static final String[] OPERATORS = {"<=", ">=", "!=", "=", "<", ">"};
+
+    private Versions() {
+    }
+
+    static int compare(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int endA = segmentEnd(a, i);
+            int endB = segmentEnd(b, j);
+            int order = compareSegment(a, i, endA, b, j, endB);
+            if (order != 0) {
+                return order;
+            }
+            i = endA + 1;
+            j = endB + 1;
+        }
+        // The version with segments left over is the newer one
+        return Boolean.compare(i < a.length(), j < b.length());
+    }
+
+    private static int segmentEnd(String version, int start) {
+        int end = start;
+        while (end < version.length() && version.charAt(end) != '.' && version.charAt(end) != '-') {
+            end++;
+        }
+        return end;
+    }
+
+    private static int compareSegment(String a, int startA, int endA, String b, int startB, int endB) {
+        if (isNumber(a, startA, endA) && isNumber(b, startB, endB)) {
+            // Leading zeros aside, the longer number is the larger, and equal lengths compare digit by digit
+            while (startA < endA - 1 && a.charAt(startA) == '0') {
+                startA++;
+            }
+            while (startB < endB - 1 && b.charAt(startB) == '0') {
+                startB++;
+            }
+            if (endA - startA != endB - startB) {
+                return Integer.compare(endA - startA, endB - startB);
+            }
+        }
+        while (startA < endA && startB < endB) {
+            int order = Character.compare(a.charAt(startA++), b.charAt(startB++));
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(endA - startA, endB - startB);
+    }
+
+    private static boolean isNumber(String version, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(version.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@code version} meets {@code constraint}; a null or empty
+     * constraint allows any version.
+     */
+    static boolean satisfies(String version, String constraint) {
+        if (constraint == null) {
+            return true;
+        }
+        // Scanned in place, as the solver checks constraints far more often than it reads them
+        int length = constraint.length();
+        for (int start = 0; start < length; ) {
+            int end = constraint.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int from = skipSpaces(constraint, start);
+            if (from < end) {
+                String operator = operator(constraint, from);
+                from = skipSpaces(constraint, from + operator.length());
+                int to = end;
+                while (to > from && constraint.charAt(to - 1) == ' ') {
+                    to--;
+                }
+                int order = compare(version, constraint.substring(from, to));
+                boolean holds;
+                switch (operator) {
+                    case "<=": holds = order <= 0; break;
+                    case ">=": holds = order >= 0; break;
+                    case "!=": holds = order != 0; break;
+                    case "<": holds = order < 0; break;
+                    case ">": holds = order > 0; break;
+                    default: holds = order == 0;
+                }
+                if (!holds) {
+                    return false;
+                }
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    private static int skipSpaces(String text, int index) {
+        while (index < text.length() && text.charAt(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Checks the syntax of a constraint.
+     *
+     * @throws IllegalArgumentException if a term has no version
+     */
+    static String validate(String constraint) {
+        for (String term : constraint.split(",")) {
+            term = term.trim();
+            if (term.substring(operator(term, 0).length()).trim().isEmpty()) {
+                throw new IllegalArgumentException("Invalid version constraint: " + constraint);
+            }
+        }
+        return constraint.trim();
+    }
+
+    // The operator a term starts with at index; a bare version means equal to it
+    private static String operator(String term, int index) {
+        for (String operator : OPERATORS) {
+            if (term.startsWith(operator, index)) {
+                return operator;
+            }
+        }
+        return "";
+    }
+}
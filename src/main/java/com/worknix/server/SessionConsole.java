@@ -0,0 +1,112 @@
+package com.worknix.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Routes System.out, System.err and System.in to the streams of the session
+ * running on the current thread, so code that talks to the console serves
+ * remote sessions unchanged. Threads without a bound session use the real
+ * console. Pipelines redirect System.out only, so diagnostics written to
+ * System.err still reach the session's terminal.
+ */
+public final class SessionConsole {
+    // Inherited so helper threads started by a session, such as pipeline stages, stay bound to it
+    private static final ThreadLocal<InputStream> SESSION_IN = new InheritableThreadLocal<>();
+    private static final ThreadLocal<OutputStream> SESSION_OUT = new InheritableThreadLocal<>();
+    private static final ThreadLocal<OutputStream> SESSION_ERR = new InheritableThreadLocal<>();
+
+    private static boolean installed = false;
+
+    private SessionConsole() {
+    }
+
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        final InputStream consoleIn = System.in;
+
+        System.setOut(route(SESSION_OUT, System.out));
+        System.setErr(route(SESSION_ERR, System.err));
+
+        System.setIn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return source().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return source().read(b, off, len);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return source().available();
+            }
+
+            private InputStream source() {
+                InputStream in = SESSION_IN.get();
+                return in != null ? in : consoleIn;
+            }
+        });
+        installed = true;
+    }
+
+    // A stream writing to the calling thread's session stream, or to the console without one
+    private static PrintStream route(final ThreadLocal<OutputStream> session, final PrintStream console) {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                OutputStream out = target();
+                out.write(b);
+                out.flush();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                OutputStream out = target();
+                out.write(b, off, len);
+                out.flush();
+            }
+
+            private OutputStream target() {
+                OutputStream out = session.get();
+                return out != null ? out : console;
+            }
+        }, true);
+    }
+
+    /**
+     * Binds the calling thread to a session's streams. Errors go to the
+     * session's output.
+     */
+    public static void bind(InputStream in, OutputStream out) {
+        SESSION_IN.set(in);
+        SESSION_OUT.set(out);
+        SESSION_ERR.set(out);
+    }
+
+    /**
+     * Sends System.out of the calling thread to {@code out} and returns the
+     * previous target, or null if the thread was writing to the real console.
+     */
+    public static OutputStream redirectOutput(OutputStream out) {
+        OutputStream previous = SESSION_OUT.get();
+        if (out != null) {
+            SESSION_OUT.set(out);
+        } else {
+            SESSION_OUT.remove();
+        }
+        return previous;
+    }
+
+    public static void unbind() {
+        SESSION_IN.remove();
+        SESSION_OUT.remove();
+        SESSION_ERR.remove();
+    }
+}
@@ -0,0 +1,91 @@
+package com.worknix.server;
+
+import com.worknix.FileSystem;
+import com.worknix.Terminal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves independent shell sessions over a local socket. Every connection
+ * gets its own thread, working directory, login and sudo state; all of them
+ * share one file system.
+ */
+public class ShellServer {
+    public static final int DEFAULT_PORT = 2323;
+
+    private final FileSystem fileSystem;
+    private final int port;
+    private final ExecutorService sessions;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    public ShellServer(FileSystem fileSystem, int port) {
+        this.fileSystem = fileSystem;
+        this.port = port;
+        this.sessions = newSessionExecutor();
+    }
+
+    /**
+     * Accepts connections on the loopback interface until the process exits.
+     */
+    public void start() {
+        SessionConsole.install();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("WorkNix shell server listening on localhost:" + port);
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            System.err.println("Shell server stopped: " + e.getMessage());
+        } finally {
+            sessions.shutdown();
+            fileSystem.saveState();
+        }
+    }
+
+    private void serve(Socket socket) {
+        int count = activeSessions.incrementAndGet();
+        System.err.println("Session opened from " + socket.getRemoteSocketAddress() + " (" + count + " active)");
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            SessionConsole.bind(in, out);
+            Terminal terminal = new Terminal(fileSystem.openSession(), in);
+            if (terminal.login()) {
+                terminal.start();
+            }
+        } catch (IOException e) {
+            // Logged on the server console, not to the failed session
+            SessionConsole.unbind();
+            System.err.println("Session error: " + e.getMessage());
+        } finally {
+            SessionConsole.unbind();
+            count = activeSessions.decrementAndGet();
+            System.err.println("Session closed (" + count + " active)");
+        }
+    }
+
+    /**
+     * One virtual thread per session when the runtime supports them, otherwise
+     * a cached pool of platform threads.
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.worknix.shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed command line whose words still hold variable references. It can
+ * be expanded into runnable pipelines any number of times.
+ */
+public class CommandLine {
+    private final List<List<Command>> pipelines;
+
+    CommandLine(List<List<Command>> pipelines) {
+        this.pipelines = pipelines;
+    }
+
+    public List<Pipeline> expand(Map<String, String> variables) {
+        List<Pipeline> result = new ArrayList<>(pipelines.size());
+        for (List<Command> commands : pipelines) {
+            List<SimpleCommand> expanded = new ArrayList<>(commands.size());
+            for (Command command : commands) {
+                expanded.add(command.expand(variables));
+            }
+            result.add(new Pipeline(expanded));
+        }
+        return result;
+    }
+
+    public List<Pipeline> expand() {
+        return expand(Collections.emptyMap());
+    }
+
+    static class Command {
+        private final Word[] words;
+        private final Word inputFile;
+        private final Word outputFile;
+        private final boolean append;
+
+        Command(Word[] words, Word inputFile, Word outputFile, boolean append) {
+            this.words = words;
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.append = append;
+        }
+
+        SimpleCommand expand(Map<String, String> variables) {
+            String[] args = new String[words.length];
+            for (int i = 0; i < words.length; i++) {
+                args[i] = words[i].expand(variables);
+            }
+            return new SimpleCommand(args,
+                inputFile == null ? null : inputFile.expand(variables),
+                outputFile == null ? null : outputFile.expand(variables),
+                append);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.worknix.shell;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+
+/**
+ * Runs a single command with the given standard input and output.
+ */
+public interface CommandRunner {
+    void run(String[] args, BufferedReader in, PrintWriter out);
+}
@@ -0,0 +1,19 @@
+package com.worknix.shell;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commands joined by {@code |}; each one's output feeds the next one's input.
+ */
+public class Pipeline {
+    private final List<SimpleCommand> commands;
+
+    public Pipeline(List<SimpleCommand> commands) {
+        this.commands = Collections.unmodifiableList(commands);
+    }
+
+    public List<SimpleCommand> getCommands() {
+        return commands;
+    }
+}
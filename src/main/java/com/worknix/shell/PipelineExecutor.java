@@ -0,0 +1,121 @@
+package com.worknix.shell;
+
+import com.worknix.FileSystem;
+import com.worknix.server.SessionConsole;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs pipelines. Every command but the last runs on its own thread and the
+ * commands are connected by bounded pipes, so data streams through the
+ * pipeline instead of being collected between commands. The last command runs
+ * on the calling thread so it can still talk to the terminal.
+ *
+ * Commands that print to System.out rather than to their writer are captured
+ * as well: while a command's output is piped or redirected, System.out on its
+ * thread is routed into that output.
+ */
+public class PipelineExecutor {
+    // Characters a pipe buffers before the writing command blocks
+    private static final int PIPE_SIZE = 16 * 1024;
+
+    private final FileSystem fileSystem;
+    private final CommandRunner runner;
+
+    public PipelineExecutor(FileSystem fileSystem, CommandRunner runner) {
+        this.fileSystem = fileSystem;
+        this.runner = runner;
+        SessionConsole.install();
+    }
+
+    public void execute(Pipeline pipeline) {
+        List<SimpleCommand> commands = pipeline.getCommands();
+        List<Thread> stages = new ArrayList<>();
+        Reader nextInput = new StringReader("");
+
+        for (int i = 0; i < commands.size(); i++) {
+            SimpleCommand command = commands.get(i);
+            boolean last = i == commands.size() - 1;
+            Reader in;
+            Writer out;
+            boolean toTerminal = false;
+            try {
+                if (command.getInputFile() != null) {
+                    nextInput.close();
+                    in = fileSystem.openFileReader(command.getInputFile());
+                } else {
+                    in = nextInput;
+                }
+
+                if (command.getOutputFile() != null) {
+                    out = fileSystem.openFileWriter(command.getOutputFile(), command.isAppend());
+                    nextInput = new StringReader("");
+                } else if (!last) {
+                    PipedReader pipe = new PipedReader(PIPE_SIZE);
+                    out = new PipedWriter(pipe);
+                    nextInput = pipe;
+                } else {
+                    out = new OutputStreamWriter(System.out, Charset.defaultCharset());
+                    toTerminal = true;
+                }
+            } catch (IOException e) {
+                System.err.println("sh: " + e.getMessage());
+                closeQuietly(nextInput);
+                break;
+            }
+
+            Reader stageIn = in;
+            Writer stageOut = out;
+            boolean stageToTerminal = toTerminal;
+            Runnable stage = () -> runStage(command, stageIn, stageOut, stageToTerminal);
+            if (last) {
+                stage.run();
+            } else {
+                Thread thread = new Thread(stage, "pipeline-" + command.getArgs()[0]);
+                thread.start();
+                stages.add(thread);
+            }
+        }
+
+        for (Thread thread : stages) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runStage(SimpleCommand command, Reader in, Writer out, boolean toTerminal) {
+        // Flush pipes per line so the next command sees output promptly; file
+        // writers do their own chunking
+        PrintWriter writer = new PrintWriter(out, out instanceof PipedWriter);
+        OutputStream previous = null;
+        if (!toTerminal) {
+            previous = SessionConsole.redirectOutput(new WriterOutputStream(writer, Charset.defaultCharset()));
+        }
+        try (BufferedReader reader = new BufferedReader(in)) {
+            runner.run(command.getArgs(), reader, writer);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(command.getArgs()[0] + ": " + e.getMessage());
+        } finally {
+            writer.flush();
+            if (!toTerminal) {
+                SessionConsole.redirectOutput(previous);
+                writer.close();
+            }
+        }
+    }
+
+    private static void closeQuietly(Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing useful to do
+        }
+    }
+}
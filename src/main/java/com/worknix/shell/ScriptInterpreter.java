@@ -0,0 +1,229 @@
+package com.worknix.shell;
+
+import com.worknix.FSFile;
+import com.worknix.FileSystem;
+import com.worknix.PathResolver;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs {@code sh} scripts stored in the file system.
+ *
+ * Each script is parsed once; the tree is cached under the script's absolute
+ * path together with the file it was read from and that file's revision, and
+ * reused until the file is changed or replaced, whatever its times say. Commands are dispatched straight to the command
+ * runner rather than through a terminal.
+ */
+public class ScriptInterpreter {
+    private static final int CACHE_SIZE = 64;
+
+    private static final Map<String, CachedScript> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<String, CachedScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedScript> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+
+    private final FileSystem fileSystem;
+    private final PipelineExecutor executor;
+
+    private static class CachedScript {
+        final FSFile file;
+        final long revision;
+        final ScriptNode script;
+
+        CachedScript(FSFile file, long revision, ScriptNode script) {
+            this.file = file;
+            this.revision = revision;
+            this.script = script;
+        }
+    }
+
+    public ScriptInterpreter(FileSystem fileSystem, CommandRunner runner) {
+        this.fileSystem = fileSystem;
+        this.executor = new PipelineExecutor(fileSystem, runner);
+    }
+
+    /**
+     * Runs the script at {@code path}; {@code args[0]} is the script name
+     * and the rest become $1, $2, ...
+     */
+    public void run(String path, String[] args) {
+        ScriptNode script;
+        try {
+            script = load(path);
+        } catch (FileNotFoundException e) {
+            System.out.println("sh: " + path + ": No such file");
+            return;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("sh: " + path + ": " + e.getMessage());
+            return;
+        }
+        script.execute(new Context(args));
+    }
+
+    /**
+     * Runs a script read from {@code in}. Such scripts are not cached.
+     */
+    public void run(BufferedReader in, String[] args) {
+        try {
+            ScriptParser.parse(in).execute(new Context(args));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("sh: " + e.getMessage());
+        }
+    }
+
+    ScriptNode load(String path) throws IOException {
+        String absolute = PathResolver.normalize(path.startsWith("/") ? path : fileSystem.getCurrentPath() + "/" + path);
+        FSFile file = fileSystem.getFile(absolute);
+        if (file == null) {
+            throw new FileNotFoundException(path);
+        }
+        // Read the revision before the body so a concurrent edit can only cause a needless re-parse
+        long revision = file.getRevision();
+        CachedScript cached = CACHE.get(absolute);
+        if (cached != null && cached.file == file && cached.revision == revision) {
+            return cached.script;
+        }
+
+        ScriptNode script;
+        try (BufferedReader reader = new BufferedReader(file.getContentStore().openReader())) {
+            script = ScriptParser.parse(reader);
+        }
+        CACHE.put(absolute, new CachedScript(file, revision, script));
+        return script;
+    }
+
+    /**
+     * Variables every shell starts with.
+     */
+    public static Map<String, String> environment(FileSystem fileSystem) {
+        Map<String, String> variables = new HashMap<>();
+        String user = fileSystem.getUserManager().getCurrentUsername();
+        if (user != null) {
+            variables.put("USER", user);
+        }
+        if (fileSystem.getUserManager().getCurrentUser() != null) {
+            variables.put("HOME", fileSystem.getUserManager().getCurrentUser().getHomeDirectory());
+        }
+        variables.put("PWD", fileSystem.getCurrentPath());
+        return variables;
+    }
+
+    /**
+     * State of one run of a script.
+     */
+    class Context {
+        private final Map<String, String> variables;
+        private boolean running = true;
+
+        Context(String[] args) {
+            variables = environment(fileSystem);
+            for (int i = 0; i < args.length && i < 10; i++) {
+                variables.put(String.valueOf(i), args[i]);
+            }
+            variables.put("#", String.valueOf(Math.max(0, args.length - 1)));
+        }
+
+        Map<String, String> getVariables() {
+            return variables;
+        }
+
+        void setVariable(String name, String value) {
+            variables.put(name, value);
+        }
+
+        boolean isRunning() {
+            return running;
+        }
+
+        void exit() {
+            running = false;
+        }
+
+        void run(CommandLine commandLine) {
+            for (Pipeline pipeline : commandLine.expand(variables)) {
+                executor.execute(pipeline);
+            }
+            variables.put("PWD", fileSystem.getCurrentPath());
+        }
+
+        boolean test(String[] args, int line) {
+            int start = 0;
+            boolean negate = false;
+            if (args[0].equals("!")) {
+                negate = true;
+                start = 1;
+            }
+            String command = args[start];
+            boolean result;
+            if (command.equals("true")) {
+                result = true;
+            } else if (command.equals("false")) {
+                result = false;
+            } else {
+                int end = command.equals("[") ? args.length - 1 : args.length;
+                result = evaluate(Arrays.copyOfRange(args, start + 1, end), line);
+            }
+            return result != negate;
+        }
+
+        private boolean evaluate(String[] test, int line) {
+            if (test.length > 2 && test[0].equals("!")) {
+                return !evaluate(Arrays.copyOfRange(test, 1, test.length), line);
+            }
+            switch (test.length) {
+                case 0:
+                    return false;
+                case 1:
+                    return !test[0].isEmpty();
+                case 2:
+                    switch (test[0]) {
+                        case "!": return test[1].isEmpty();
+                        case "-n": return !test[1].isEmpty();
+                        case "-z": return test[1].isEmpty();
+                        case "-f": return fileSystem.getFile(test[1]) != null;
+                        case "-d": return fileSystem.getDirectory(test[1]) != null;
+                        case "-e": return fileSystem.getFile(test[1]) != null || fileSystem.getDirectory(test[1]) != null;
+                        default: break;
+                    }
+                    break;
+                case 3:
+                    switch (test[1]) {
+                        case "=": return test[0].equals(test[2]);
+                        case "!=": return !test[0].equals(test[2]);
+                        case "-eq": case "-ne": case "-lt": case "-le": case "-gt": case "-ge":
+                            return compare(test[0], test[1], test[2], line);
+                        default: break;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            System.out.println("sh: line " + line + ": unsupported test: " + String.join(" ", test));
+            return false;
+        }
+
+        private boolean compare(String left, String operator, String right, int line) {
+            long a;
+            long b;
+            try {
+                a = Long.parseLong(left.trim());
+                b = Long.parseLong(right.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("sh: line " + line + ": integer expression expected");
+                return false;
+            }
+            switch (operator) {
+                case "-eq": return a == b;
+                case "-ne": return a != b;
+                case "-lt": return a < b;
+                case "-le": return a <= b;
+                case "-gt": return a > b;
+                default: return a >= b;
+            }
+        }
+    }
+}
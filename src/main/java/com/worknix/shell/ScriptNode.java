@@ -0,0 +1,192 @@
+package com.worknix.shell;
+
+import java.util.List;
+
+/**
+ * A node of a parsed script. Scripts are parsed once and the resulting tree
+ * is run by {@link ScriptInterpreter} as many times as needed.
+ */
+public abstract class ScriptNode {
+    private final int line;
+
+    ScriptNode(int line) {
+        this.line = line;
+    }
+
+    /**
+     * Line of the script the node starts on, for error messages.
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Runs the node. Returns false once the script has called {@code exit}.
+     */
+    abstract boolean execute(ScriptInterpreter.Context context);
+
+    static class Block extends ScriptNode {
+        private final List<ScriptNode> statements;
+
+        Block(int line, List<ScriptNode> statements) {
+            super(line);
+            this.statements = statements;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            for (ScriptNode statement : statements) {
+                if (!statement.execute(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static class Command extends ScriptNode {
+        private final CommandLine commandLine;
+
+        Command(int line, CommandLine commandLine) {
+            super(line);
+            this.commandLine = commandLine;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            context.run(commandLine);
+            return context.isRunning();
+        }
+    }
+
+    static class Assignment extends ScriptNode {
+        private final String[] names;
+        private final Word[] values;
+
+        Assignment(int line, String[] names, Word[] values) {
+            super(line);
+            this.names = names;
+            this.values = values;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            for (int i = 0; i < names.length; i++) {
+                context.setVariable(names[i], values[i].expand(context.getVariables()));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A {@code test} / {@code [ ... ]} expression, or {@code true} / {@code false}.
+     */
+    static class Condition extends ScriptNode {
+        private final Word[] words;
+
+        Condition(int line, Word[] words) {
+            super(line);
+            this.words = words;
+        }
+
+        boolean evaluate(ScriptInterpreter.Context context) {
+            String[] args = new String[words.length];
+            for (int i = 0; i < words.length; i++) {
+                args[i] = words[i].expand(context.getVariables());
+            }
+            return context.test(args, getLine());
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            evaluate(context);
+            return true;
+        }
+    }
+
+    static class If extends ScriptNode {
+        private final Condition condition;
+        private final ScriptNode then;
+        private final ScriptNode otherwise;
+
+        If(int line, Condition condition, ScriptNode then, ScriptNode otherwise) {
+            super(line);
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            if (condition.evaluate(context)) {
+                return then.execute(context);
+            }
+            return otherwise == null || otherwise.execute(context);
+        }
+    }
+
+    static class While extends ScriptNode {
+        private final Condition condition;
+        private final ScriptNode body;
+
+        While(int line, Condition condition, ScriptNode body) {
+            super(line);
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            while (context.isRunning() && condition.evaluate(context)) {
+                if (!body.execute(context)) {
+                    return false;
+                }
+            }
+            return context.isRunning();
+        }
+    }
+
+    static class For extends ScriptNode {
+        private final String variable;
+        private final Word[] items;
+        private final ScriptNode body;
+
+        For(int line, String variable, Word[] items, ScriptNode body) {
+            super(line);
+            this.variable = variable;
+            this.items = items;
+            this.body = body;
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            for (Word item : items) {
+                // Words holding variables split into several items, as in sh
+                String text = item.expand(context.getVariables());
+                String[] values = item.getLiteral() != null ? new String[] {text} : text.trim().split("\\s+");
+                for (String value : values) {
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    context.setVariable(variable, value);
+                    if (!body.execute(context)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    static class Exit extends ScriptNode {
+        Exit(int line) {
+            super(line);
+        }
+
+        @Override
+        boolean execute(ScriptInterpreter.Context context) {
+            context.exit();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.worknix.shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Parses {@code sh} scripts into a tree of {@link ScriptNode}s.
+ *
+ * Besides command lines the language has {@code NAME=value} assignments,
+ * {@code if}/{@code elif}/{@code else}/{@code fi}, {@code while} and
+ * {@code for NAME in ...} loops closed by {@code done}, and {@code exit}.
+ * Conditions are {@code test} / {@code [ ... ]} expressions. Statements are
+ * separated by newlines or {@code ;}.
+ */
+public class ScriptParser {
+    private static final Set<String> BLOCK_KEYWORDS = new HashSet<>(Arrays.asList("then", "do", "else"));
+
+    private final List<Statement> statements = new ArrayList<>();
+    private int position;
+
+    /**
+     * One statement: its tokens and the line it came from.
+     */
+    private static class Statement {
+        final List<Word> words;
+        final int line;
+
+        Statement(List<Word> words, int line) {
+            this.words = words;
+            this.line = line;
+        }
+
+        String keyword() {
+            return words.get(0).getLiteral();
+        }
+    }
+
+    private ScriptParser() {
+    }
+
+    /**
+     * Parses a whole script. Syntax errors are reported as
+     * IllegalArgumentException with the offending line number.
+     */
+    public static ScriptNode parse(BufferedReader reader) throws IOException {
+        ScriptParser parser = new ScriptParser();
+        parser.readStatements(reader);
+        ScriptNode script = parser.parseBlock(1, Collections.emptySet());
+        if (parser.position < parser.statements.size()) {
+            Statement extra = parser.statements.get(parser.position);
+            throw error(extra.line, "unexpected '" + extra.keyword() + "'");
+        }
+        return script;
+    }
+
+    /**
+     * Splits the script into statements: each line is tokenized once, cut at
+     * {@code ;}, and block keywords are separated from the command that
+     * follows them, as in {@code then echo yes}.
+     */
+    private void readStatements(BufferedReader reader) throws IOException {
+        String text;
+        int line = 0;
+        while ((text = reader.readLine()) != null) {
+            line++;
+            List<Word> tokens;
+            try {
+                tokens = ShellParser.tokenize(text);
+            } catch (IllegalArgumentException e) {
+                throw error(line, e.getMessage());
+            }
+            List<Word> words = new ArrayList<>();
+            for (Word token : tokens) {
+                if (";".equals(token.getOperator())) {
+                    addStatement(words, line);
+                    words = new ArrayList<>();
+                } else {
+                    words.add(token);
+                }
+            }
+            addStatement(words, line);
+        }
+    }
+
+    private void addStatement(List<Word> words, int line) {
+        if (words.isEmpty()) {
+            return;
+        }
+        String first = words.get(0).getLiteral();
+        if (first != null && BLOCK_KEYWORDS.contains(first) && words.size() > 1) {
+            statements.add(new Statement(words.subList(0, 1), line));
+            statements.add(new Statement(words.subList(1, words.size()), line));
+        } else {
+            statements.add(new Statement(words, line));
+        }
+    }
+
+    /**
+     * Parses statements up to, but not including, one starting with a
+     * keyword in {@code terminators}.
+     */
+    private ScriptNode.Block parseBlock(int line, Set<String> terminators) {
+        List<ScriptNode> nodes = new ArrayList<>();
+        while (position < statements.size()) {
+            Statement statement = statements.get(position);
+            String keyword = statement.keyword();
+            if (keyword != null && terminators.contains(keyword)) {
+                break;
+            }
+            position++;
+            nodes.add(parseStatement(statement, keyword));
+        }
+        return new ScriptNode.Block(line, nodes);
+    }
+
+    private ScriptNode parseStatement(Statement statement, String keyword) {
+        if (keyword == null) {
+            keyword = "";
+        }
+        switch (keyword) {
+            case "if":
+                return parseIf(statement);
+            case "while": {
+                ScriptNode.Condition condition = condition(statement);
+                expect("do", statement);
+                ScriptNode body = parseBlock(statement.line, Collections.singleton("done"));
+                expect("done", statement);
+                return new ScriptNode.While(statement.line, condition, body);
+            }
+            case "for":
+                return parseFor(statement);
+            case "exit":
+                return new ScriptNode.Exit(statement.line);
+            case "then":
+            case "do":
+            case "else":
+            case "elif":
+            case "fi":
+            case "done":
+                throw error(statement.line, "unexpected '" + keyword + "'");
+            default:
+                break;
+        }
+
+        ScriptNode assignment = assignment(statement);
+        if (assignment != null) {
+            return assignment;
+        }
+        try {
+            return new ScriptNode.Command(statement.line, ShellParser.parseTokens(statement.words));
+        } catch (IllegalArgumentException e) {
+            throw error(statement.line, e.getMessage());
+        }
+    }
+
+    private ScriptNode parseIf(Statement statement) {
+        ScriptNode.Condition condition = condition(statement);
+        expect("then", statement);
+        ScriptNode then = parseBlock(statement.line, new HashSet<>(Arrays.asList("elif", "else", "fi")));
+        if (position >= statements.size()) {
+            throw error(statement.line, "'if' without 'fi'");
+        }
+        Statement next = statements.get(position);
+        ScriptNode otherwise = null;
+        switch (next.keyword()) {
+            case "elif":
+                // An elif chain shares the outer if's closing fi
+                position++;
+                return new ScriptNode.If(statement.line, condition, then, parseIf(next));
+            case "else":
+                position++;
+                otherwise = parseBlock(next.line, Collections.singleton("fi"));
+                break;
+            default:
+                break;
+        }
+        expect("fi", statement);
+        return new ScriptNode.If(statement.line, condition, then, otherwise);
+    }
+
+    private ScriptNode parseFor(Statement statement) {
+        List<Word> words = statement.words;
+        String variable = words.size() > 1 ? words.get(1).getLiteral() : null;
+        if (variable == null || !Word.isName(variable) || words.size() < 3 || !"in".equals(words.get(2).getLiteral())) {
+            throw error(statement.line, "usage: for NAME in WORDS...");
+        }
+        Word[] items = words.subList(3, words.size()).toArray(new Word[0]);
+        expect("do", statement);
+        ScriptNode body = parseBlock(statement.line, Collections.singleton("done"));
+        expect("done", statement);
+        return new ScriptNode.For(statement.line, variable, items, body);
+    }
+
+    private static ScriptNode.Condition condition(Statement statement) {
+        List<Word> words = statement.words.subList(1, statement.words.size());
+        if (words.isEmpty()) {
+            throw error(statement.line, "missing condition after '" + statement.keyword() + "'");
+        }
+        int first = "!".equals(words.get(0).getLiteral()) ? 1 : 0;
+        String test = first < words.size() ? words.get(first).getLiteral() : null;
+        if (!"[".equals(test) && !"test".equals(test) && !"true".equals(test) && !"false".equals(test)) {
+            throw error(statement.line, "conditions must be 'test ...', '[ ... ]', 'true' or 'false'");
+        }
+        if ("[".equals(test) && !"]".equals(words.get(words.size() - 1).getLiteral())) {
+            throw error(statement.line, "missing ']'");
+        }
+        return new ScriptNode.Condition(statement.line, words.toArray(new Word[0]));
+    }
+
+    private static ScriptNode assignment(Statement statement) {
+        String[] names = new String[statement.words.size()];
+        Word[] values = new Word[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Word word = statement.words.get(i);
+            names[i] = word.assignmentName();
+            if (names[i] == null) {
+                return null;
+            }
+            values[i] = word.assignmentValue();
+        }
+        return new ScriptNode.Assignment(statement.line, names, values);
+    }
+
+    private void expect(String keyword, Statement opening) {
+        if (position >= statements.size() || !keyword.equals(statements.get(position).keyword())) {
+            throw error(opening.line, "'" + opening.keyword() + "' without '" + keyword + "'");
+        }
+        position++;
+    }
+
+    private static IllegalArgumentException error(int line, String message) {
+        return new IllegalArgumentException("line " + line + ": " + message);
+    }
+}
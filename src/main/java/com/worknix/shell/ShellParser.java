@@ -0,0 +1,188 @@
+package com.worknix.shell;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a command line into pipelines.
+ *
+ * Supports {@code ;} between pipelines, {@code |} between commands and the
+ * redirections {@code <}, {@code >} and {@code >>}. Words may be quoted with
+ * single or double quotes, and a backslash escapes the next character.
+ * {@code $NAME} and {@code ${NAME}} refer to variables, except inside single
+ * quotes, and an unquoted {@code #} starting a word begins a comment.
+ */
+public class ShellParser {
+    private static final String OPERATOR_CHARS = ";|<>";
+
+    public static List<Pipeline> parse(String line) {
+        return parseLine(line).expand();
+    }
+
+    /**
+     * Parses a line without expanding its variables.
+     */
+    public static CommandLine parseLine(String line) {
+        return parseTokens(tokenize(line));
+    }
+
+    static CommandLine parseTokens(List<Word> tokens) {
+        List<List<CommandLine.Command>> pipelines = new ArrayList<>();
+        List<CommandLine.Command> commands = new ArrayList<>();
+        List<Word> words = new ArrayList<>();
+        Word inputFile = null;
+        Word outputFile = null;
+        boolean append = false;
+
+        for (int i = 0; i < tokens.size(); i++) {
+            Word token = tokens.get(i);
+            if (!token.isOperator()) {
+                words.add(token);
+                continue;
+            }
+            String operator = token.getOperator();
+            switch (operator) {
+                case ";":
+                case "|":
+                    if (words.isEmpty()) {
+                        if (operator.equals(";") && commands.isEmpty()) {
+                            continue;
+                        }
+                        throw new IllegalArgumentException("syntax error near '" + operator + "'");
+                    }
+                    commands.add(new CommandLine.Command(words.toArray(new Word[0]), inputFile, outputFile, append));
+                    words = new ArrayList<>();
+                    inputFile = null;
+                    outputFile = null;
+                    append = false;
+                    if (operator.equals(";")) {
+                        pipelines.add(commands);
+                        commands = new ArrayList<>();
+                    }
+                    break;
+                default:
+                    if (i + 1 >= tokens.size() || tokens.get(i + 1).isOperator()) {
+                        throw new IllegalArgumentException("syntax error: missing file after '" + operator + "'");
+                    }
+                    Word target = tokens.get(++i);
+                    if (operator.equals("<")) {
+                        inputFile = target;
+                    } else {
+                        outputFile = target;
+                        append = operator.equals(">>");
+                    }
+            }
+        }
+
+        if (!words.isEmpty()) {
+            commands.add(new CommandLine.Command(words.toArray(new Word[0]), inputFile, outputFile, append));
+        } else if (!commands.isEmpty() || inputFile != null || outputFile != null) {
+            throw new IllegalArgumentException("syntax error: unexpected end of line");
+        }
+        if (!commands.isEmpty()) {
+            pipelines.add(commands);
+        }
+        return new CommandLine(pipelines);
+    }
+
+    /**
+     * Splits a line into words and operators.
+     */
+    static List<Word> tokenize(String line) {
+        List<Word> tokens = new ArrayList<>();
+        Word.Builder word = new Word.Builder();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (word.isStarted()) {
+                    tokens.add(word.build());
+                }
+                i++;
+            } else if (c == '#' && !word.isStarted()) {
+                break;
+            } else if (OPERATOR_CHARS.indexOf(c) >= 0) {
+                if (word.isStarted()) {
+                    tokens.add(word.build());
+                }
+                if (c == '>' && i + 1 < line.length() && line.charAt(i + 1) == '>') {
+                    tokens.add(Word.operator(">>"));
+                    i += 2;
+                } else {
+                    tokens.add(Word.operator(String.valueOf(c)));
+                    i++;
+                }
+            } else if (c == '\'') {
+                int end = line.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("syntax error: unterminated quote");
+                }
+                word.start();
+                word.append(line.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '"') {
+                int end = line.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("syntax error: unterminated quote");
+                }
+                word.start();
+                int j = i + 1;
+                while (j < end) {
+                    j = line.charAt(j) == '$' ? variable(line, j, end, word) : append(line, j, word);
+                }
+                i = end + 1;
+            } else if (c == '$') {
+                i = variable(line, i, line.length(), word);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                word.append(line.charAt(i + 1));
+                i += 2;
+            } else {
+                word.append(c);
+                i++;
+            }
+        }
+        if (word.isStarted()) {
+            tokens.add(word.build());
+        }
+        return tokens;
+    }
+
+    private static int append(String line, int i, Word.Builder word) {
+        word.append(line.charAt(i));
+        return i + 1;
+    }
+
+    /**
+     * Reads a variable reference starting at the {@code $} at {@code i} and
+     * returns the index after it. A lone {@code $} is literal.
+     */
+    private static int variable(String line, int i, int end, Word.Builder word) {
+        if (i + 1 < end && line.charAt(i + 1) == '{') {
+            int close = line.indexOf('}', i + 2);
+            if (close < 0 || close >= end || !Word.isName(line.substring(i + 2, close))
+                    && !isSpecial(line.substring(i + 2, close))) {
+                throw new IllegalArgumentException("syntax error: bad substitution");
+            }
+            word.appendVariable(line.substring(i + 2, close));
+            return close + 1;
+        }
+        int j = i + 1;
+        if (j < end && (Character.isDigit(line.charAt(j)) || line.charAt(j) == '#')) {
+            word.appendVariable(String.valueOf(line.charAt(j)));
+            return j + 1;
+        }
+        while (j < end && (Character.isLetterOrDigit(line.charAt(j)) || line.charAt(j) == '_')) {
+            j++;
+        }
+        if (j == i + 1) {
+            word.append('$');
+            return i + 1;
+        }
+        word.appendVariable(line.substring(i + 1, j));
+        return j;
+    }
+
+    private static boolean isSpecial(String name) {
+        return name.equals("#") || name.chars().allMatch(Character::isDigit) && !name.isEmpty();
+    }
+}
@@ -0,0 +1,23 @@
+package com.worknix.shell;
+
+/**
+ * One command of a pipeline: its words plus any file redirections.
+ */
+public class SimpleCommand {
+    private final String[] args;
+    private final String inputFile;
+    private final String outputFile;
+    private final boolean append;
+
+    public SimpleCommand(String[] args, String inputFile, String outputFile, boolean append) {
+        this.args = args;
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.append = append;
+    }
+
+    public String[] getArgs() { return args; }
+    public String getInputFile() { return inputFile; }
+    public String getOutputFile() { return outputFile; }
+    public boolean isAppend() { return append; }
+}
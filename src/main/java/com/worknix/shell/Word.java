@@ -0,0 +1,169 @@
+package com.worknix.shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed shell word: literal text mixed with {@code $NAME} or
+ * {@code ${NAME}} references that are filled in when the word is expanded.
+ * Parsing a line once into words lets scripts be run again without
+ * re-tokenizing them.
+ */
+public class Word {
+    private final List<String> parts;
+    // For each part, whether it names a variable rather than being literal text
+    private final List<Boolean> variables;
+    private final String operator;
+
+    private Word(List<String> parts, List<Boolean> variables, String operator) {
+        this.parts = parts;
+        this.variables = variables;
+        this.operator = operator;
+    }
+
+    static Word operator(String operator) {
+        return new Word(Collections.emptyList(), Collections.emptyList(), operator);
+    }
+
+    /**
+     * The operator ({@code ;}, {@code |}, {@code <}, {@code >} or {@code >>})
+     * this token stands for, or null if it is an ordinary word.
+     */
+    public String getOperator() {
+        return operator;
+    }
+
+    public boolean isOperator() {
+        return operator != null;
+    }
+
+    /**
+     * Returns the word's text if it contains no variable references, else null.
+     */
+    public String getLiteral() {
+        if (isOperator() || variables.contains(Boolean.TRUE)) {
+            return null;
+        }
+        return String.join("", parts);
+    }
+
+    /**
+     * Substitutes variables; names without a value expand to nothing.
+     */
+    public String expand(Map<String, String> values) {
+        if (parts.size() == 1 && !variables.get(0)) {
+            return parts.get(0);
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            if (variables.get(i)) {
+                String value = values.get(parts.get(i));
+                if (value != null) {
+                    text.append(value);
+                }
+            } else {
+                text.append(parts.get(i));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Splits off a leading {@code NAME=} so the word can be used as an
+     * assignment. Returns the name, or null if the word is not an assignment.
+     */
+    String assignmentName() {
+        if (isOperator() || parts.isEmpty() || variables.get(0)) {
+            return null;
+        }
+        String first = parts.get(0);
+        int equals = first.indexOf('=');
+        if (equals <= 0 || !isName(first.substring(0, equals))) {
+            return null;
+        }
+        return first.substring(0, equals);
+    }
+
+    /**
+     * The part of an assignment word after {@code NAME=}.
+     */
+    Word assignmentValue() {
+        List<String> valueParts = new ArrayList<>(parts);
+        valueParts.set(0, parts.get(0).substring(parts.get(0).indexOf('=') + 1));
+        return new Word(valueParts, variables, null);
+    }
+
+    static boolean isName(String name) {
+        if (name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accumulates a word while the line is being tokenized.
+     */
+    static class Builder {
+        private final List<String> parts = new ArrayList<>();
+        private final List<Boolean> variables = new ArrayList<>();
+        private final StringBuilder literal = new StringBuilder();
+        private boolean started;
+
+        void append(char c) {
+            literal.append(c);
+            started = true;
+        }
+
+        void append(CharSequence text) {
+            literal.append(text);
+            started = true;
+        }
+
+        void appendVariable(String name) {
+            flushLiteral();
+            parts.add(name);
+            variables.add(true);
+            started = true;
+        }
+
+        /**
+         * Marks the word as present even if it turns out empty, as with {@code ""}.
+         */
+        void start() {
+            started = true;
+        }
+
+        boolean isStarted() {
+            return started;
+        }
+
+        Word build() {
+            flushLiteral();
+            if (parts.isEmpty()) {
+                parts.add("");
+                variables.add(false);
+            }
+            Word word = new Word(new ArrayList<>(parts), new ArrayList<>(variables), null);
+            parts.clear();
+            variables.clear();
+            started = false;
+            return word;
+        }
+
+        private void flushLiteral() {
+            if (literal.length() > 0) {
+                parts.add(literal.toString());
+                variables.add(false);
+                literal.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.worknix.shell;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes bytes written to System.out back into characters for a pipeline
+ * stage's writer, so commands that print to the console can be piped.
+ */
+class WriterOutputStream extends OutputStream {
+    private final Writer writer;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(1024);
+    private final CharBuffer chars = CharBuffer.allocate(1024);
+
+    WriterOutputStream(Writer writer, Charset charset) {
+        this.writer = writer;
+        this.decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, bytes.remaining());
+            bytes.put(b, off, n);
+            off += n;
+            len -= n;
+            drain();
+        }
+    }
+
+    @Override
+    public void flush() {
+        // System.out flushes after every print; the stage flushes its writer when it is done
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        CoderResult result;
+        do {
+            // Underflow leaves a partial multi-byte sequence behind for the next write
+            result = decoder.decode(bytes, chars, false);
+            chars.flip();
+            writer.write(chars.array(), chars.position(), chars.remaining());
+            chars.clear();
+        } while (result.isOverflow());
+        bytes.compact();
+    }
+}
@@ -1,8 +1,8 @@
 package com.worknix.user;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import com.worknix.FileSystem;
 
 public class UserManager implements Serializable {
@@ -14,11 +14,24 @@ public class UserManager implements Serializable {
     private final FileSystem fileSystem;
 
     public UserManager(FileSystem fileSystem) {
-        this.users = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
         this.fileSystem = fileSystem;
         initializeDefaultUsers();
     }
 
+    private UserManager(UserManager shared, FileSystem fileSystem) {
+        this.users = shared.users;
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Returns a user manager for another session on the same system. The user
+     * database is shared; the logged-in user and sudo state start out empty.
+     */
+    public UserManager openSession(FileSystem fileSystem) {
+        return new UserManager(this, fileSystem);
+    }
+
     private void initializeDefaultUsers() {
         // Create root user with default password "root"
         addUser(new User("root", "root", 0, 0, "/root", "/bin/bash"));
@@ -0,0 +1,182 @@
+package com.worknix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FSJournalTest {
+    @TempDir
+    Path dir;
+
+    private File file;
+
+    @BeforeEach
+    void setUp() {
+        file = dir.resolve("fs.journal").toFile();
+    }
+
+    /**
+     * Records every operation replayed, one line each.
+     */
+    private static final class Recorder implements FSJournal.Handler {
+        final List<String> operations = new ArrayList<>();
+
+        public void createDirectory(String parentPath, String name, String owner) {
+            operations.add("mkdir " + parentPath + " " + name + " " + owner);
+        }
+
+        public void createFile(String dirPath, String name, String content, String owner,
+                long creationTime, long modificationTime) {
+            operations.add("create " + dirPath + " " + name + " " + content + " " + owner
+                + " " + creationTime + " " + modificationTime);
+        }
+
+        public void deleteFile(String dirPath, String name) {
+            operations.add("rm " + dirPath + " " + name);
+        }
+
+        public void deleteDirectory(String parentPath, String name) {
+            operations.add("rmdir " + parentPath + " " + name);
+        }
+
+        public void appendFile(String dirPath, String name, String text, long modificationTime) {
+            operations.add("append " + dirPath + " " + name + " " + text + " " + modificationTime);
+        }
+
+        public void setQuota(String owner, long softSize, long hardSize, long softEntries, long hardEntries) {
+            operations.add("quota " + owner);
+        }
+    }
+
+    // Journals an mkdir, a create and an append to a fresh journal, the append after reopening it
+    private void writeRecords() {
+        FSJournal journal = new FSJournal(file.getPath());
+        journal.logCreateDirectory("/home", "user", "user");
+        journal.logCreateFile("/home/user", "notes", "first", "user", 1000, 2000);
+        journal.close();
+        journal = new FSJournal(file.getPath());
+        journal.replay(new Recorder(), 0);
+        journal.logAppendFile("/home/user", "notes", " second", 3000);
+        journal.close();
+    }
+
+    private List<String> replay(long generation) {
+        Recorder recorder = new Recorder();
+        FSJournal journal = new FSJournal(file.getPath());
+        journal.replay(recorder, generation);
+        journal.close();
+        return recorder.operations;
+    }
+
+    private void setLength(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    @Test
+    void replaysEveryIntactRecord() {
+        writeRecords();
+
+        List<String> operations = replay(0);
+
+        assertEquals("mkdir /home user user", operations.get(0));
+        assertEquals("create /home/user notes first user 1000 2000", operations.get(1));
+        assertEquals("append /home/user notes  second 3000", operations.get(operations.size() - 1));
+    }
+
+    @Test
+    void dropsATornTailAndKeepsAppending() throws IOException {
+        writeRecords();
+        List<String> intact = replay(0);
+        long intactLength = file.length();
+        FSJournal journal = new FSJournal(file.getPath());
+        journal.replay(new Recorder(), 0);
+        journal.logDeleteFile("/home/user", "notes");
+        journal.close();
+        // The process died part way through writing the last record
+        setLength(file.length() - 3);
+
+        assertEquals(intact, replay(0));
+        assertEquals(intactLength, file.length());
+
+        journal = new FSJournal(file.getPath());
+        journal.replay(new Recorder(), 0);
+        journal.logDeleteFile("/home/user", "notes");
+        journal.close();
+        List<String> operations = replay(0);
+        assertEquals(intact, operations.subList(0, intact.size()));
+        assertEquals(Collections.singletonList("rm /home/user notes"),
+            operations.subList(intact.size(), operations.size()));
+    }
+
+    @Test
+    void stopsAtACorruptRecord() throws IOException {
+        writeRecords();
+        List<String> intact = replay(0);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Last byte of the append's text, just before its checksum
+            raf.seek(file.length() - 5);
+            raf.write('!');
+        }
+
+        List<String> operations = replay(0);
+
+        assertEquals(intact.subList(0, intact.size() - 1), operations);
+        assertEquals(operations, replay(0));
+    }
+
+    @Test
+    void discardsRecordsOfAnotherCheckpoint() {
+        writeRecords();
+
+        assertEquals(0, replay(1).size());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    void filesKeepTheirTimesAcrossARestart() throws Exception {
+        deleteState();
+        try {
+            FileSystem fileSystem = new FileSystem();
+            fileSystem.getUserManager().login("root", "root");
+            fileSystem.createFile("/tmp/notes", "first");
+            Thread.sleep(5);
+            try (Writer writer = fileSystem.openFileWriter("/tmp/notes", true)) {
+                writer.write(" second");
+            }
+            FSFile before = fileSystem.getFile("/tmp/notes");
+            assertTrue(before.getModificationTime() > before.getCreationTime());
+            Thread.sleep(5);
+
+            FSFile after = new FileSystem().getFile("/tmp/notes");
+
+            assertEquals("first second", after.getContent());
+            assertEquals(before.getCreationTime(), after.getCreationTime());
+            assertEquals(before.getModificationTime(), after.getModificationTime());
+        } finally {
+            deleteState();
+        }
+    }
+
+    // The file system keeps its state in the working directory
+    private static void deleteState() {
+        File[] files = new File(".").listFiles((d, name) -> name.startsWith("worknix_fs"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
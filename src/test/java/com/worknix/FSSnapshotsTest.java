@@ -0,0 +1,72 @@
+package com.worknix;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FSSnapshotsTest {
+    private FileSystem fileSystem;
+
+    @BeforeEach
+    void setUp() {
+        // The file system keeps its state in the working directory
+        deleteState();
+        fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+    }
+
+    @AfterEach
+    void tearDown() {
+        deleteState();
+    }
+
+    private static void deleteState() {
+        File[] files = new File(".").listFiles((d, name) -> name.startsWith("worknix_fs"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    void rollbackBringsBackDeletedFiles() {
+        fileSystem.createDirectory("/data");
+        fileSystem.createFile("/data/a.txt", "kept");
+        assertNotNull(fileSystem.createSnapshot("s1"));
+        fileSystem.createFile("/data/a.txt", "changed");
+        fileSystem.createFile("/data/later.txt", "dropped");
+
+        assertTrue(fileSystem.rollbackSnapshot("s1"));
+
+        assertEquals("kept", fileSystem.readFileContent("/data/a.txt"));
+        assertNull(fileSystem.getFile("/data/later.txt"));
+    }
+
+    @Test
+    void restoredDirectoriesCanBeWrittenAgain() {
+        fileSystem.createDirectory("/data");
+        fileSystem.createDirectory("/data/nested");
+        fileSystem.createFile("/data/a.txt", "kept");
+        fileSystem.createSnapshot("s1");
+        fileSystem.deleteDirectory("/data/nested");
+        fileSystem.deleteDirectory("/data");
+        assertNull(fileSystem.getDirectory("/data"));
+
+        fileSystem.rollbackSnapshot("s1");
+
+        assertEquals("kept", fileSystem.readFileContent("/data/a.txt"));
+        fileSystem.createFile("/data/b.txt", "new");
+        fileSystem.createDirectory("/data/sub");
+        fileSystem.createFile("/data/nested/c.txt", "nested");
+        assertEquals("new", fileSystem.readFileContent("/data/b.txt"));
+        assertNotNull(fileSystem.getDirectory("/data/sub"));
+        assertEquals("nested", fileSystem.readFileContent("/data/nested/c.txt"));
+    }
+}
@@ -0,0 +1,161 @@
+package com.worknix.pkg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class DependencySolverTest {
+    // Every version of every package, newest first
+    private final Map<String, List<Package>> catalogue = new HashMap<>();
+
+    private Package add(String name, String version) {
+        Package pkg = new Package(name, version, name + " " + version);
+        catalogue.computeIfAbsent(name, n -> new ArrayList<>()).add(pkg);
+        return pkg;
+    }
+
+    private Map<String, Package> solve(Map<String, String> requests) {
+        return solve(requests, Collections.emptyList(), false);
+    }
+
+    private Map<String, Package> solve(Map<String, String> requests, List<Package> installed, boolean upgrade) {
+        DependencySolver solver = new DependencySolver(
+            name -> catalogue.getOrDefault(name, Collections.emptyList()), installed, upgrade);
+        return solver.solve(requests);
+    }
+
+    private static Map<String, String> request(String... names) {
+        Map<String, String> requests = new LinkedHashMap<>();
+        for (String name : names) {
+            requests.put(name, null);
+        }
+        return requests;
+    }
+
+    private static String version(Map<String, Package> solution, String name) {
+        Package pkg = solution.get(name);
+        return pkg == null ? null : pkg.getVersion();
+    }
+
+    @Test
+    void backtracksToAnOlderVersionOfAnEarlierDecision() {
+        add("app", "1.0").addDependency("lib");
+        Package lib2 = add("lib", "2.0");
+        lib2.addDependency("util");
+        lib2.addDependency("core", ">= 2");
+        Package lib1 = add("lib", "1.0");
+        lib1.addDependency("util");
+        lib1.addDependency("core", "< 2");
+        // lib 2.0 only turns out wrong once helper is decided, after util
+        add("util", "1.0").addDependency("helper");
+        add("helper", "1.0").addDependency("core", "< 2");
+        add("core", "2.0");
+        add("core", "1.0");
+
+        Map<String, Package> solution = solve(Collections.singletonMap("app", null));
+
+        assertEquals("1.0", version(solution, "lib"));
+        assertEquals("1.0", version(solution, "util"));
+        assertEquals("1.0", version(solution, "helper"));
+        assertEquals("1.0", version(solution, "core"));
+    }
+
+    @Test
+    void avoidsVersionsThatConflict() {
+        add("tool", "2.0").addConflict("lib", ">= 2");
+        add("tool", "1.0");
+        add("lib", "2.0");
+        add("lib", "1.0");
+        Map<String, String> requests = new HashMap<>();
+        requests.put("tool", null);
+        requests.put("lib", ">= 2");
+
+        Map<String, Package> solution = solve(requests);
+
+        assertEquals("1.0", version(solution, "tool"));
+        assertEquals("2.0", version(solution, "lib"));
+    }
+
+    @Test
+    void rejectsRequestsThatAlwaysConflict() {
+        add("mta", "1.0").addConflict("sendmail", "");
+        add("sendmail", "1.0");
+        Map<String, String> requests = new HashMap<>();
+        requests.put("mta", null);
+        requests.put("sendmail", null);
+
+        assertThrows(IllegalArgumentException.class, () -> solve(requests));
+    }
+
+    @Test
+    void rejectsMissingDependencies() {
+        add("app", "1.0").addDependency("nosuch");
+
+        assertThrows(IllegalArgumentException.class, () -> solve(Collections.singletonMap("app", null)));
+    }
+
+    @Test
+    void avoidsVersionsThatDependOnEachOther() {
+        add("c", "1.0").addDependency("b");
+        add("b", "2.0").addDependency("c", "< 2.0");
+        add("b", "1.0");
+
+        Map<String, Package> solution = solve(request("c"));
+
+        assertEquals("1.0", version(solution, "b"));
+    }
+
+    @Test
+    void decidesPackagesThatVersionCyclesOrderEarlier() {
+        // Every version of d, a and e together depends on the others in a cycle; the versions chosen do not
+        add("b", "2.0").addDependency("a");
+        Package b1 = add("b", "1.0");
+        b1.addDependency("e");
+        b1.addConflict("d", "");
+        add("a", "1.0").addDependency("e");
+        add("d", "2.0");
+        add("d", "1.0").addDependency("a", ">= 2.0");
+        add("e", "1.0").addDependency("d", ">= 2.0");
+
+        Map<String, Package> solution = solve(request("b", "d"));
+
+        assertEquals("2.0", version(solution, "b"));
+        assertEquals("1.0", version(solution, "a"));
+        assertEquals("1.0", version(solution, "e"));
+        assertEquals("2.0", version(solution, "d"));
+    }
+
+    @Test
+    void rejectsRequestsThatOnlyACycleSatisfies() {
+        add("a", "1.0").addDependency("b");
+        add("b", "1.0").addDependency("a");
+
+        assertThrows(IllegalArgumentException.class, () -> solve(request("a")));
+    }
+
+    @Test
+    void keepsInstalledPackagesThatAreNotUpgraded() {
+        add("lib", "2.0");
+        Package lib = add("lib", "1.0");
+        add("app", "2.0").addDependency("lib", ">= 2.0");
+        Package app = add("app", "1.0");
+        app.addDependency("lib", "< 2.0");
+        lib.setInstalled(true);
+        app.setInstalled(true);
+        List<Package> installed = List.of(lib, app);
+
+        assertEquals("1.0", version(solve(request("lib"), installed, true), "lib"));
+        assertEquals("1.0", version(solve(request("app"), installed, false), "app"));
+
+        Map<String, Package> solution = solve(request("app", "lib"), installed, true);
+        assertEquals("2.0", version(solution, "app"));
+        assertEquals("2.0", version(solution, "lib"));
+    }
+}
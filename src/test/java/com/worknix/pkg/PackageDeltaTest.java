@@ -0,0 +1,152 @@
+package com.worknix.pkg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.worknix.FileSystem;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PackageDeltaTest {
+    @TempDir
+    Path dir;
+
+    private FileSystem fileSystem;
+    private String text1;
+    private String text2;
+    private byte[] binary1;
+    private byte[] binary2;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // The file system keeps its state in the working directory
+        deleteState();
+        fileSystem = new FileSystem();
+        fileSystem.getUserManager().login("root", "root");
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("line ").append(i).append(" é中\n");
+        }
+        text1 = text.toString();
+        text2 = text1.replace("line 100 ", "LINE one hundred ").replace("line 4000 ", "").concat("tail\n");
+        // Not UTF-8, so stored as ISO-8859-1
+        binary1 = new byte[20000];
+        for (int i = 0; i < binary1.length; i++) {
+            binary1[i] = (byte) (i * 31 + i / 7);
+        }
+        binary2 = binary1.clone();
+        binary2[10000] ^= 0x55;
+
+        Map<String, File> v1 = new LinkedHashMap<>();
+        v1.put("/opt/lib/text", body("text1", text1.getBytes(StandardCharsets.UTF_8)));
+        v1.put("/opt/lib/binary", body("binary1", binary1));
+        v1.put("/opt/lib/same", body("same", "unchanged\n".getBytes(StandardCharsets.UTF_8)));
+        archive("1.0", v1);
+        Map<String, File> v2 = new LinkedHashMap<>();
+        v2.put("/opt/lib/text", body("text2", text2.getBytes(StandardCharsets.UTF_8)));
+        v2.put("/opt/lib/binary", body("binary2", binary2));
+        v2.put("/opt/lib/same", body("same", "unchanged\n".getBytes(StandardCharsets.UTF_8)));
+        v2.put("/opt/lib/new", body("new", "fresh\n".getBytes(StandardCharsets.UTF_8)));
+        archive("2.0", v2);
+        PackageDelta.write(delta(), archive("1.0"), archive("2.0"));
+
+        try (InputStream in = new FileInputStream(archive("1.0"))) {
+            PackageArchive.open(in).extract(fileSystem);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        deleteState();
+    }
+
+    private static void deleteState() {
+        File[] files = new File(".").listFiles((d, name) -> name.startsWith("worknix_fs"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private File body(String name, byte[] bytes) throws IOException {
+        return Files.write(dir.resolve(name), bytes).toFile();
+    }
+
+    private File archive(String version) {
+        return dir.resolve("lib-" + version + PackageArchive.EXTENSION).toFile();
+    }
+
+    private void archive(String version, Map<String, File> contents) throws IOException {
+        PackageArchive.write(archive(version), new Package("lib", version, "lib " + version), contents);
+    }
+
+    private File delta() {
+        return dir.resolve("lib-1.0_2.0" + PackageDelta.EXTENSION).toFile();
+    }
+
+    private void verify() throws IOException {
+        try (InputStream in = new FileInputStream(delta())) {
+            PackageDelta.open(in).verify(fileSystem);
+        }
+    }
+
+    private void apply() throws IOException {
+        try (InputStream in = new FileInputStream(delta())) {
+            PackageDelta.open(in).apply(fileSystem);
+        }
+    }
+
+    private byte[] stored(String path) {
+        return fileSystem.readFileContent(path).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void patchesTheInstalledFilesIntoTheNewVersion() throws IOException {
+        try (InputStream in = new FileInputStream(delta())) {
+            PackageDelta delta = PackageDelta.open(in);
+            assertEquals("1.0", delta.getBaseVersion());
+            assertEquals("2.0", delta.getPackage().getVersion());
+        }
+        assertEquals(text1, fileSystem.readFileContent("/opt/lib/text"));
+        assertArrayEquals(binary1, stored("/opt/lib/binary"));
+
+        verify();
+        apply();
+
+        assertEquals(text2, fileSystem.readFileContent("/opt/lib/text"));
+        assertArrayEquals(binary2, stored("/opt/lib/binary"));
+        assertEquals("unchanged\n", fileSystem.readFileContent("/opt/lib/same"));
+        assertEquals("fresh\n", fileSystem.readFileContent("/opt/lib/new"));
+    }
+
+    @Test
+    void isSmallerThanTheArchiveItLeadsTo() {
+        assertTrue(delta().length() < archive("2.0").length() / 4);
+    }
+
+    @Test
+    void rejectsChangedInstalledFilesWithoutWriting() {
+        fileSystem.createFile("/opt/lib/binary", "tampered");
+
+        assertThrows(IOException.class, this::verify);
+        assertThrows(IOException.class, this::apply);
+        assertEquals(text1, fileSystem.readFileContent("/opt/lib/text"));
+        assertNull(fileSystem.getFile("/opt/lib/new"));
+    }
+}